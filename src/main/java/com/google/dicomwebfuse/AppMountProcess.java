@@ -75,7 +75,7 @@ class AppMountProcess {
       }
     }
 
-    MountOptions mountOptions = new MountOptions(os, arguments.extraMountOptions);
+    MountOptions mountOptions = new MountOptions(os, arguments);
     List<String> options = mountOptions.setMountOptions();
     try {
       // Mounting DICOMFuse with options
@@ -14,6 +14,7 @@
 
 package com.google.dicomwebfuse;
 
+import com.google.dicomwebfuse.parser.Arguments;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -27,10 +28,21 @@ class MountOptions {
   private static final Path USER_HOME = Paths.get(System.getProperty("user.home"));
   private final OS os;
   private final List<String> extraMountOptions;
+  private final boolean immutableInstances;
+  private final long attrTimeout;
+  private final long entryTimeout;
 
-  MountOptions(OS os, List<String> extraMountOptions) {
+  MountOptions(OS os, Arguments arguments) {
     this.os = os;
-    this.extraMountOptions = extraMountOptions;
+    this.extraMountOptions = arguments.extraMountOptions;
+    this.immutableInstances = arguments.immutableInstances;
+    // The kernel shouldn't cache objects longer than DICOMFuse does
+    this.attrTimeout = Math.min(arguments.kernelCacheTime,
+        arguments.cacheTime.getObjectsCacheTime());
+    // Instances don't change in the immutable mode, so lookups can be cached by the kernel as long
+    // as the Instance files are cached
+    this.entryTimeout = immutableInstances
+        ? Math.max(attrTimeout, arguments.cacheTime.getInstanceFilesCacheTime()) : attrTimeout;
   }
 
   List<String> setMountOptions() throws IOException {
@@ -47,10 +59,12 @@ class MountOptions {
       mountOptions.add("-ofsname=DICOMFuse");
       // Setting the timeout in seconds for which a negative lookup will be cached
       mountOptions.add("-onegative_timeout=4");
-      // DICOMFuse has the internal cache, is disabled the external cache
-      mountOptions.add("-oattr_timeout=0");
-      mountOptions.add("-oac_attr_timeout=0");
-      mountOptions.add("-oentry_timeout=0");
+      // DICOMFuse has the internal cache, the external cache is disabled by default
+      mountOptions.add("-oattr_timeout=" + attrTimeout);
+      mountOptions.add("-oac_attr_timeout=" + attrTimeout);
+      mountOptions.add("-oentry_timeout=" + entryTimeout);
+      // Inode numbers are derived from the object UIDs
+      mountOptions.add("-ouse_ino");
     }
     if (os == OS.WINDOWS) {
       // When starting DICOMFuse on Windows, to get mount options for WinFsp to add the
@@ -61,10 +75,10 @@ class MountOptions {
       mountOptions.add("-ofsname=DICOMFuse");
       // Setting the timeout in seconds for which a negative lookup will be cached
       mountOptions.add("-onegative_timeout=4");
-      // DICOMFuse has the internal cache, is disabled the external cache
-      mountOptions.add("-oattr_timeout=0");
-      mountOptions.add("-oac_attr_timeout=0");
-      mountOptions.add("-oentry_timeout=0");
+      // DICOMFuse has the internal cache, the external cache is disabled by default
+      mountOptions.add("-oattr_timeout=" + attrTimeout);
+      mountOptions.add("-oac_attr_timeout=" + attrTimeout);
+      mountOptions.add("-oentry_timeout=" + entryTimeout);
       // Setting maximum thread count for Windows
       // See: https://github.com/billziss-gh/winfsp/commit/3902874ac93fe40685d9761f46a96358ba24f24c
       mountOptions.add("-oThreadCount=16");
@@ -73,8 +87,20 @@ class MountOptions {
       // OSXFuse mount options. See: https://github.com/osxfuse/osxfuse/wiki/Mount-options
       // Setting timeout in seconds for which a negative lookup will be cached
       mountOptions.add("-onegative_timeout=4"); // in seconds
-      // DICOMFuse has the internal cache, is disabled the external cache
-      mountOptions.add("-onolocalcaches");
+      if (immutableInstances) {
+        // Instance files are kept in the unified buffer cache
+        mountOptions.add("-oattr_timeout=" + attrTimeout);
+        mountOptions.add("-oentry_timeout=" + entryTimeout);
+      } else {
+        // DICOMFuse has the internal cache, is disabled the external cache
+        mountOptions.add("-onolocalcaches");
+        if (attrTimeout > 0) {
+          mountOptions.add("-oattr_timeout=" + attrTimeout);
+          mountOptions.add("-oentry_timeout=" + entryTimeout);
+        }
+      }
+      // Inode numbers are derived from the object UIDs
+      mountOptions.add("-ouse_ino");
       // .DS_Store and ._ files are not used
       mountOptions.add("-onoappledouble");
       // Setting defer_permissions
@@ -26,6 +26,9 @@ public class Constants {
   public static final String STUDIES = "/studies/";
   public static final String SERIES = "/series/";
   public static final String INSTANCES = "/instances/";
+  static final String METADATA = "/metadata";
+  static final String FRAMES = "/frames/";
+  static final String RENDERED = "/rendered";
 
   static final String PARAM_PAGE_TOKEN = "pageToken";
   static final String PARAM_INCLUDE_FIELD = "includefield";
@@ -35,8 +38,19 @@ public class Constants {
   static final String PARAM_SERIES_ID = "SeriesInstanceUID";
   static final String PARAM_INSTANCE_ID = "SOPInstanceUID";
   static final String PARAM_DICOM_STORE_ID = "dicomStoreId";
+  static final String PARAM_VIEWPORT = "viewport";
+  static final String PARAM_QUALITY = "quality";
   static final String VALUE_PARAM_STUDY_INSTANCE_UID = "0020000D";
   static final String VALUE_PARAM_SERIES_INSTANCE_UID = "0020000E";
+  static final String VALUE_PARAM_STUDY_DATE = "00080020";
+  static final String VALUE_PARAM_STUDY_TIME = "00080030";
+  static final String VALUE_PARAM_SERIES_DATE = "00080021";
+  static final String VALUE_PARAM_SERIES_TIME = "00080031";
+  static final String VALUE_PARAM_INSTANCE_CREATION_DATE = "00080012";
+  static final String VALUE_PARAM_INSTANCE_CREATION_TIME = "00080013";
+  static final String VALUE_PARAM_INSTANCE_NUMBER = "00200013";
+  static final String VALUE_PARAM_NUMBER_OF_FRAMES = "00280008";
+  static final String VALUE_PARAM_AVAILABLE_TRANSFER_SYNTAX_UID = "00083002";
   public static final Integer VALUE_PARAM_MAX_LIMIT_FOR_STUDY = 5000;
   public static final Integer VALUE_PARAM_MAX_LIMIT_FOR_SERIES = 5000;
   public static final Integer VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES = 15000; // max - 50 000 results
@@ -44,10 +58,17 @@ public class Constants {
   public static final Integer MAX_SERIES_IN_STUDY = VALUE_PARAM_MAX_LIMIT_FOR_SERIES * 3;
   public static final Integer MAX_INSTANCES_IN_SERIES = VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES;
   static final Integer THREAD_COUNT = 3;
+  static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024; // in bytes
+  static final long OPERATION_POLL_INITIAL_DELAY = 500; // in milliseconds
+  static final long OPERATION_POLL_MAX_DELAY = 5000; // in milliseconds
+  static final long OPERATION_TIMEOUT = 10 * 60 * 1000; // in milliseconds
 
   static final String BEARER = "Bearer ";
   static final String APPLICATION_JSON_CHARSET_UTF8 = "application/json; charset=utf-8";
+  static final String IMAGE_JPEG = "image/jpeg";
   static final String APPLICATION_DICOM_TRANSFER_SYNTAX = "application/dicom; transfer-syntax=*";
+  static final String APPLICATION_OCTET_STREAM_TRANSFER_SYNTAX =
+      "application/octet-stream; transfer-syntax=*";
   static final String APPLICATION_DICOM_JSON_CHARSET_UTF8 = "application/dicom+json; charset=utf-8";
   static final String MULTIPART_RELATED_TYPE_APPLICATION_DICOM_BOUNDARY =
       "multipart/related; type=application/dicom; boundary=";
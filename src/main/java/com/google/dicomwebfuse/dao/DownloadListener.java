@@ -0,0 +1,35 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+/**
+ * Receives progress of a download while the response body is being written to disk.
+ */
+public interface DownloadListener {
+
+  /**
+   * Called once the response headers were received and the body transfer is starting.
+   *
+   * @param contentLength length of the body in bytes, or -1 if the server did not send it
+   */
+  void onStart(long contentLength);
+
+  /**
+   * Called every time a chunk of the body was written to disk.
+   *
+   * @param downloadedBytes count of bytes written to disk so far
+   */
+  void onProgress(long downloadedBytes);
+}
@@ -14,6 +14,7 @@
 
 package com.google.dicomwebfuse.dao;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.dicomwebfuse.exception.DicomFuseException;
 import com.google.dicomwebfuse.dao.spec.QueryBuilder;
 import com.google.dicomwebfuse.entities.DicomStore;
@@ -24,6 +25,7 @@ import java.util.List;
 
 public interface FuseDao {
 
+  // The getSingle methods of Studies, Series and Instances return null if the object is not found
   List<DicomStore> getAllDicomStores(QueryBuilder queryBuilder) throws DicomFuseException;
   DicomStore getSingleDicomStore(QueryBuilder queryBuilder) throws DicomFuseException;
   List<Study> getStudies(QueryBuilder queryBuilder) throws DicomFuseException;
@@ -34,8 +36,15 @@ public interface FuseDao {
   Instance getSingleInstance(QueryBuilder queryBuilder) throws DicomFuseException;
 
   void downloadInstance(QueryBuilder queryBuilder) throws DicomFuseException;
+  void downloadFrame(QueryBuilder queryBuilder) throws DicomFuseException;
+  void downloadRendered(QueryBuilder queryBuilder) throws DicomFuseException;
+  long getInstanceSize(QueryBuilder queryBuilder) throws DicomFuseException;
+  JsonNode getInstanceMetadata(QueryBuilder queryBuilder) throws DicomFuseException;
+  List<JsonNode> getSeriesMetadata(QueryBuilder queryBuilder) throws DicomFuseException;
   void uploadInstance(QueryBuilder queryBuilder) throws DicomFuseException;
   void deleteInstance(QueryBuilder queryBuilder) throws DicomFuseException;
+  void deleteSeries(QueryBuilder queryBuilder) throws DicomFuseException;
+  void deleteStudy(QueryBuilder queryBuilder) throws DicomFuseException;
   void createDicomStore(QueryBuilder queryBuilder) throws DicomFuseException;
   void deleteDicomStore(QueryBuilder queryBuilder) throws DicomFuseException;
 }
@@ -22,6 +22,7 @@ import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_IN
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_SERIES;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_STUDY;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.dicomwebfuse.exception.DicomFuseException;
 import com.google.dicomwebfuse.dao.spec.QueryBuilder;
 import com.google.dicomwebfuse.entities.CloudConf;
@@ -193,16 +194,90 @@ public class FuseDaoHelper {
   }
 
   public static void downloadInstance(FuseDao fuseDao, CloudConf cloudConf,
-      DicomPath dicomPath, Path instanceDataPath) throws DicomFuseException {
+      DicomPath dicomPath, Path instanceDataPath, DownloadListener downloadListener)
+      throws DicomFuseException {
     QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
         .setDicomStoreId(dicomPath.getDicomStoreId())
         .setStudyId(dicomPath.getStudyInstanceUID())
         .setSeriesId(dicomPath.getSeriesInstanceUID())
         .setInstanceId(dicomPath.getSopInstanceUID())
-        .setInstanceDataPath(instanceDataPath);
+        .setInstanceDataPath(instanceDataPath)
+        .setDownloadListener(downloadListener);
     fuseDao.downloadInstance(queryBuilder);
   }
 
+  /**
+   * Downloads the pixel data of the frame of the Instance in its stored transfer syntax.
+   */
+  public static void downloadFrame(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath,
+      Path frameDataPath, DownloadListener downloadListener) throws DicomFuseException {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setStudyId(dicomPath.getStudyInstanceUID())
+        .setSeriesId(dicomPath.getSeriesInstanceUID())
+        .setInstanceId(dicomPath.getSopInstanceUID())
+        .setFrameNumber(dicomPath.getFrameNumber())
+        .setInstanceDataPath(frameDataPath)
+        .setDownloadListener(downloadListener);
+    fuseDao.downloadFrame(queryBuilder);
+  }
+
+  /**
+   * Downloads the Instance rendered as a JPEG image which fits into a square of the size. The
+   * first frame is rendered if the path has a frame number.
+   */
+  public static void downloadRendered(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath,
+      int size, int quality, Path imageDataPath, DownloadListener downloadListener)
+      throws DicomFuseException {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setStudyId(dicomPath.getStudyInstanceUID())
+        .setSeriesId(dicomPath.getSeriesInstanceUID())
+        .setInstanceId(dicomPath.getSopInstanceUID())
+        .setFrameNumber(dicomPath.getFrameNumber() > 0 ? dicomPath.getFrameNumber() : null)
+        .setViewport(size)
+        .setQuality(quality)
+        .setInstanceDataPath(imageDataPath)
+        .setDownloadListener(downloadListener);
+    fuseDao.downloadRendered(queryBuilder);
+  }
+
+  /**
+   * Returns the size of the Instance from the Content-Length of the response, or -1 if the size is
+   * unknown. The Instance is not downloaded.
+   */
+  public static long getInstanceSize(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath)
+      throws DicomFuseException {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setStudyId(dicomPath.getStudyInstanceUID())
+        .setSeriesId(dicomPath.getSeriesInstanceUID())
+        .setInstanceId(dicomPath.getSopInstanceUID());
+    return fuseDao.getInstanceSize(queryBuilder);
+  }
+
+  public static JsonNode getInstanceMetadata(FuseDao fuseDao, CloudConf cloudConf,
+      DicomPath dicomPath) throws DicomFuseException {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setStudyId(dicomPath.getStudyInstanceUID())
+        .setSeriesId(dicomPath.getSeriesInstanceUID())
+        .setInstanceId(dicomPath.getSopInstanceUID());
+    return fuseDao.getInstanceMetadata(queryBuilder);
+  }
+
+  /**
+   * Returns the metadata of all Instances of the Series in a single request.
+   */
+  public static List<JsonNode> getSeriesMetadata(FuseDao fuseDao, CloudConf cloudConf,
+      DicomPath dicomPath) throws DicomFuseException {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setStudyId(dicomPath.getStudyInstanceUID())
+        .setSeriesId(dicomPath.getSeriesInstanceUID());
+    return fuseDao.getSeriesMetadata(queryBuilder);
+  }
+
   public static void uploadInstance(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath,
       Path instanceDataPath) throws DicomFuseException {
     QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
@@ -222,6 +297,23 @@ public class FuseDaoHelper {
     fuseDao.deleteInstance(queryBuilder);
   }
 
+  public static void deleteSeries(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath)
+      throws DicomFuseException {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setStudyId(dicomPath.getStudyInstanceUID())
+        .setSeriesId(dicomPath.getSeriesInstanceUID());
+    fuseDao.deleteSeries(queryBuilder);
+  }
+
+  public static void deleteStudy(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath)
+      throws DicomFuseException {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setStudyId(dicomPath.getStudyInstanceUID());
+    fuseDao.deleteStudy(queryBuilder);
+  }
+
   public static void createDicomStore(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath)
       throws DicomFuseException {
     QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
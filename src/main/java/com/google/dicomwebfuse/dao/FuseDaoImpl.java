@@ -17,29 +17,51 @@ package com.google.dicomwebfuse.dao;
 import static com.google.dicomwebfuse.dao.Constants.APPLICATION_DICOM_JSON_CHARSET_UTF8;
 import static com.google.dicomwebfuse.dao.Constants.APPLICATION_DICOM_TRANSFER_SYNTAX;
 import static com.google.dicomwebfuse.dao.Constants.APPLICATION_JSON_CHARSET_UTF8;
+import static com.google.dicomwebfuse.dao.Constants.APPLICATION_OCTET_STREAM_TRANSFER_SYNTAX;
 import static com.google.dicomwebfuse.dao.Constants.BEARER;
+import static com.google.dicomwebfuse.dao.Constants.DOWNLOAD_BUFFER_SIZE;
+import static com.google.dicomwebfuse.dao.Constants.FRAMES;
 import static com.google.dicomwebfuse.dao.Constants.HEALTHCARE_HOST;
+import static com.google.dicomwebfuse.dao.Constants.IMAGE_JPEG;
+import static com.google.dicomwebfuse.dao.Constants.METADATA;
 import static com.google.dicomwebfuse.dao.Constants.MULTIPART_RELATED_TYPE_APPLICATION_DICOM_BOUNDARY;
+import static com.google.dicomwebfuse.dao.Constants.OPERATION_POLL_INITIAL_DELAY;
+import static com.google.dicomwebfuse.dao.Constants.OPERATION_POLL_MAX_DELAY;
+import static com.google.dicomwebfuse.dao.Constants.OPERATION_TIMEOUT;
 import static com.google.dicomwebfuse.dao.Constants.PARAM_DICOM_STORE_ID;
 import static com.google.dicomwebfuse.dao.Constants.PARAM_INCLUDE_FIELD;
 import static com.google.dicomwebfuse.dao.Constants.PARAM_INSTANCE_ID;
 import static com.google.dicomwebfuse.dao.Constants.PARAM_LIMIT;
 import static com.google.dicomwebfuse.dao.Constants.PARAM_OFFSET;
 import static com.google.dicomwebfuse.dao.Constants.PARAM_PAGE_TOKEN;
+import static com.google.dicomwebfuse.dao.Constants.PARAM_QUALITY;
 import static com.google.dicomwebfuse.dao.Constants.PARAM_SERIES_ID;
 import static com.google.dicomwebfuse.dao.Constants.PARAM_STUDY_ID;
+import static com.google.dicomwebfuse.dao.Constants.PARAM_VIEWPORT;
+import static com.google.dicomwebfuse.dao.Constants.RENDERED;
 import static com.google.dicomwebfuse.dao.Constants.SCHEME;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_SERIES;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_STUDY;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_AVAILABLE_TRANSFER_SYNTAX_UID;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_INSTANCE_CREATION_DATE;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_INSTANCE_CREATION_TIME;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_INSTANCE_NUMBER;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_NUMBER_OF_FRAMES;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_SERIES_DATE;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_SERIES_INSTANCE_UID;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_SERIES_TIME;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_STUDY_DATE;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_STUDY_INSTANCE_UID;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_STUDY_TIME;
 import static org.apache.http.HttpHeaders.ACCEPT;
 import static org.apache.http.HttpHeaders.AUTHORIZATION;
+import static org.apache.http.HttpHeaders.CONTENT_LENGTH;
 import static org.apache.http.HttpHeaders.CONTENT_TYPE;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.http.HttpStatusCodes;
 import com.google.auth.oauth2.GoogleCredentials;
@@ -63,18 +85,20 @@ import com.google.dicomwebfuse.exception.DicomFuseException;
 import com.google.dicomwebfuse.exception.StowErrorFormatter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ContentType;
@@ -94,6 +118,8 @@ public class FuseDaoImpl implements FuseDao {
     this.httpClientFactory = httpClientFactory;
     objectMapper = new ObjectMapper();
     objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    // decimal strings are kept as they were sent by the server
+    objectMapper.configure(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS, true);
   }
 
   @Override
@@ -139,6 +165,8 @@ public class FuseDaoImpl implements FuseDao {
     URIBuilder uriBuilder = new URIBuilder()
         .setScheme(SCHEME)
         .setHost(HEALTHCARE_HOST)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_DATE)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_TIME)
         .addParameter(PARAM_LIMIT, VALUE_PARAM_MAX_LIMIT_FOR_STUDY.toString())
         .addParameter(PARAM_OFFSET, queryBuilder.getOffset().toString())
         .setPath(path);
@@ -152,14 +180,13 @@ public class FuseDaoImpl implements FuseDao {
     URIBuilder uriBuilder = new URIBuilder()
         .setScheme(SCHEME)
         .setHost(HEALTHCARE_HOST)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_DATE)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_TIME)
         .addParameter(PARAM_STUDY_ID, queryBuilder.getStudyId())
         .setPath(path);
     List<Study> studies =
         createRequestForObjectList(uriBuilder, new TypeReference<List<Study>>() {});
-    if (studies.size() == 0) {
-      throw new DicomFuseException("Study not found");
-    }
-    return studies.get(0);
+    return studies.isEmpty() ? null : studies.get(0);
   }
 
   @Override
@@ -170,6 +197,8 @@ public class FuseDaoImpl implements FuseDao {
         .setScheme(SCHEME)
         .setHost(HEALTHCARE_HOST)
         .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_SERIES_DATE)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_SERIES_TIME)
         .addParameter(PARAM_LIMIT, VALUE_PARAM_MAX_LIMIT_FOR_SERIES.toString())
         .addParameter(PARAM_OFFSET, queryBuilder.getOffset().toString())
         .setPath(path);
@@ -185,14 +214,13 @@ public class FuseDaoImpl implements FuseDao {
         .setScheme(SCHEME)
         .setHost(HEALTHCARE_HOST)
         .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_SERIES_DATE)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_SERIES_TIME)
         .addParameter(PARAM_SERIES_ID, queryBuilder.getSeriesId())
         .setPath(path);
     List<Series> series =
         createRequestForObjectList(uriBuilder, new TypeReference<List<Series>>() {});
-    if (series.size() == 0) {
-      throw new DicomFuseException("Series not found");
-    }
-    return series.get(0);
+    return series.isEmpty() ? null : series.get(0);
   }
 
   @Override
@@ -204,6 +232,11 @@ public class FuseDaoImpl implements FuseDao {
         .setHost(HEALTHCARE_HOST)
         .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
         .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_SERIES_INSTANCE_UID)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_INSTANCE_CREATION_DATE)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_INSTANCE_CREATION_TIME)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_INSTANCE_NUMBER)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_NUMBER_OF_FRAMES)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_AVAILABLE_TRANSFER_SYNTAX_UID)
         .addParameter(PARAM_LIMIT, VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES.toString())
         .addParameter(PARAM_OFFSET, queryBuilder.getOffset().toString())
         .setPath(path);
@@ -219,14 +252,16 @@ public class FuseDaoImpl implements FuseDao {
         .setHost(HEALTHCARE_HOST)
         .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
         .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_SERIES_INSTANCE_UID)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_INSTANCE_CREATION_DATE)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_INSTANCE_CREATION_TIME)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_INSTANCE_NUMBER)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_NUMBER_OF_FRAMES)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_AVAILABLE_TRANSFER_SYNTAX_UID)
         .addParameter(PARAM_INSTANCE_ID, queryBuilder.getInstanceId())
         .setPath(path);
     List<Instance> instances =
         createRequestForObjectList(uriBuilder, new TypeReference<List<Instance>>() {});
-    if (instances.size() == 0) {
-      throw new DicomFuseException("Instance not found");
-    }
-    return instances.get(0);
+    return instances.isEmpty() ? null : instances.get(0);
   }
 
   @Override
@@ -236,7 +271,73 @@ public class FuseDaoImpl implements FuseDao {
         .setScheme(SCHEME)
         .setHost(HEALTHCARE_HOST)
         .setPath(instancePathBuilder.toPath());
-    createRequestToDownloadInstance(uriBuilder, queryBuilder.getInstanceDataPath());
+    createRequestToDownloadInstance(uriBuilder, APPLICATION_DICOM_TRANSFER_SYNTAX,
+        queryBuilder.getInstanceDataPath(), queryBuilder.getDownloadListener());
+  }
+
+  @Override
+  public void downloadFrame(QueryBuilder queryBuilder) throws DicomFuseException {
+    InstancePathBuilder instancePathBuilder = new InstancePathBuilder(queryBuilder);
+    URIBuilder uriBuilder = new URIBuilder()
+        .setScheme(SCHEME)
+        .setHost(HEALTHCARE_HOST)
+        .setPath(instancePathBuilder.toPath() + FRAMES + queryBuilder.getFrameNumber());
+    // a single frame is returned without the multipart wrapper
+    createRequestToDownloadInstance(uriBuilder, APPLICATION_OCTET_STREAM_TRANSFER_SYNTAX,
+        queryBuilder.getInstanceDataPath(), queryBuilder.getDownloadListener());
+  }
+
+  @Override
+  public void downloadRendered(QueryBuilder queryBuilder) throws DicomFuseException {
+    InstancePathBuilder instancePathBuilder = new InstancePathBuilder(queryBuilder);
+    String path = instancePathBuilder.toPath();
+    if (queryBuilder.getFrameNumber() != null) {
+      path += FRAMES + queryBuilder.getFrameNumber();
+    }
+    String viewport = queryBuilder.getViewport() + "," + queryBuilder.getViewport();
+    URIBuilder uriBuilder = new URIBuilder()
+        .setScheme(SCHEME)
+        .setHost(HEALTHCARE_HOST)
+        .addParameter(PARAM_VIEWPORT, viewport)
+        .addParameter(PARAM_QUALITY, queryBuilder.getQuality().toString())
+        .setPath(path + RENDERED);
+    createRequestToDownloadInstance(uriBuilder, IMAGE_JPEG, queryBuilder.getInstanceDataPath(),
+        queryBuilder.getDownloadListener());
+  }
+
+  @Override
+  public long getInstanceSize(QueryBuilder queryBuilder) throws DicomFuseException {
+    InstancePathBuilder instancePathBuilder = new InstancePathBuilder(queryBuilder);
+    URIBuilder uriBuilder = new URIBuilder()
+        .setScheme(SCHEME)
+        .setHost(HEALTHCARE_HOST)
+        .setPath(instancePathBuilder.toPath());
+    return createRequestForInstanceSize(uriBuilder);
+  }
+
+  @Override
+  public JsonNode getInstanceMetadata(QueryBuilder queryBuilder) throws DicomFuseException {
+    InstancePathBuilder instancePathBuilder = new InstancePathBuilder(queryBuilder);
+    URIBuilder uriBuilder = new URIBuilder()
+        .setScheme(SCHEME)
+        .setHost(HEALTHCARE_HOST)
+        .setPath(instancePathBuilder.toPath() + METADATA);
+    List<JsonNode> metadata =
+        createRequestForObjectList(uriBuilder, new TypeReference<List<JsonNode>>() {});
+    if (metadata.size() == 0) {
+      throw new DicomFuseException("Instance metadata not found");
+    }
+    return metadata.get(0);
+  }
+
+  @Override
+  public List<JsonNode> getSeriesMetadata(QueryBuilder queryBuilder) throws DicomFuseException {
+    SeriesPathBuilder seriesPathBuilder = new SeriesPathBuilder(queryBuilder);
+    URIBuilder uriBuilder = new URIBuilder()
+        .setScheme(SCHEME)
+        .setHost(HEALTHCARE_HOST)
+        .setPath(seriesPathBuilder.toPath() + queryBuilder.getSeriesId() + METADATA);
+    return createRequestForObjectList(uriBuilder, new TypeReference<List<JsonNode>>() {});
   }
 
   @Override
@@ -257,7 +358,29 @@ public class FuseDaoImpl implements FuseDao {
         .setScheme(SCHEME)
         .setHost(HEALTHCARE_HOST)
         .setPath(instancePathBuilder.toPath());
-    createRequestToDeleteInstance(uriBuilder);
+    createRequestToDelete(uriBuilder);
+  }
+
+  @Override
+  public void deleteSeries(QueryBuilder queryBuilder) throws DicomFuseException {
+    SeriesPathBuilder seriesPathBuilder = new SeriesPathBuilder(queryBuilder);
+    URIBuilder uriBuilder = new URIBuilder()
+        .setScheme(SCHEME)
+        .setHost(HEALTHCARE_HOST)
+        .setPath(seriesPathBuilder.toPath() + queryBuilder.getSeriesId());
+    JsonNode operation = createRequestToDelete(uriBuilder);
+    waitForOperation(operation, queryBuilder.getCloudConf().getStage(), uriBuilder);
+  }
+
+  @Override
+  public void deleteStudy(QueryBuilder queryBuilder) throws DicomFuseException {
+    StudiesPathBuilder studiesPathBuilder = new StudiesPathBuilder(queryBuilder);
+    URIBuilder uriBuilder = new URIBuilder()
+        .setScheme(SCHEME)
+        .setHost(HEALTHCARE_HOST)
+        .setPath(studiesPathBuilder.toPath() + queryBuilder.getStudyId());
+    JsonNode operation = createRequestToDelete(uriBuilder);
+    waitForOperation(operation, queryBuilder.getCloudConf().getStage(), uriBuilder);
   }
 
   @Override
@@ -326,12 +449,12 @@ public class FuseDaoImpl implements FuseDao {
     return result;
   }
 
-  private void createRequestToDownloadInstance(URIBuilder uriBuilder, Path instanceDataPath)
-      throws DicomFuseException {
+  private void createRequestToDownloadInstance(URIBuilder uriBuilder, String accept,
+      Path instanceDataPath, DownloadListener downloadListener) throws DicomFuseException {
     try (CloseableHttpClient httpclient = httpClientFactory.createHttpClient()) {
       URI uri = uriBuilder.build();
       HttpGet request = new HttpGet(uri);
-      request.addHeader(ACCEPT, APPLICATION_DICOM_TRANSFER_SYNTAX);
+      request.addHeader(ACCEPT, accept);
       request.addHeader(CONTENT_TYPE, APPLICATION_DICOM_JSON_CHARSET_UTF8);
       GoogleCredentials credentials = authAdc.getCredentials();
       String tokenValue = credentials.getAccessToken().getTokenValue();
@@ -339,8 +462,23 @@ public class FuseDaoImpl implements FuseDao {
       try (CloseableHttpResponse response = httpclient.execute(request)) {
         checkStatusCode(response, uri);
         HttpEntity entity = response.getEntity();
-        try (InputStream is = entity.getContent()) {
-          Files.copy(is, instanceDataPath, StandardCopyOption.REPLACE_EXISTING);
+        if (downloadListener != null) {
+          downloadListener.onStart(entity.getContentLength());
+        }
+        // The body is written in chunks, so that the already downloaded part of the file can be
+        // read while the rest of the file is still downloading.
+        try (InputStream is = entity.getContent();
+            OutputStream os = Files.newOutputStream(instanceDataPath)) {
+          byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+          long downloadedBytes = 0;
+          int length;
+          while ((length = is.read(buffer)) != -1) {
+            os.write(buffer, 0, length);
+            downloadedBytes += length;
+            if (downloadListener != null) {
+              downloadListener.onProgress(downloadedBytes);
+            }
+          }
         } catch (IOException e) {
           throw new DicomFuseException(e);
         }
@@ -350,6 +488,26 @@ public class FuseDaoImpl implements FuseDao {
     }
   }
 
+  private long createRequestForInstanceSize(URIBuilder uriBuilder) throws DicomFuseException {
+    try (CloseableHttpClient httpclient = httpClientFactory.createHttpClient()) {
+      URI uri = uriBuilder.build();
+      // Only the headers are needed, so the body is not sent and the connection can be reused
+      HttpHead request = new HttpHead(uri);
+      request.addHeader(ACCEPT, APPLICATION_DICOM_TRANSFER_SYNTAX);
+      request.addHeader(CONTENT_TYPE, APPLICATION_DICOM_JSON_CHARSET_UTF8);
+      GoogleCredentials credentials = authAdc.getCredentials();
+      String tokenValue = credentials.getAccessToken().getTokenValue();
+      request.addHeader(AUTHORIZATION, BEARER + tokenValue);
+      try (CloseableHttpResponse response = httpclient.execute(request)) {
+        checkStatusCode(response, uri);
+        Header contentLength = response.getFirstHeader(CONTENT_LENGTH);
+        return contentLength == null ? -1 : Long.parseLong(contentLength.getValue());
+      }
+    } catch (IOException | URISyntaxException | NumberFormatException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
   private void createRequestToUploadInstance(URIBuilder uriBuilder, Path instanceDataPath,
       DicomPath dicomPath) throws DicomFuseException {
     try (CloseableHttpClient httpclient = httpClientFactory.createHttpClient()) {
@@ -385,7 +543,11 @@ public class FuseDaoImpl implements FuseDao {
     }
   }
 
-  private void createRequestToDeleteInstance(URIBuilder uriBuilder) throws DicomFuseException {
+  /**
+   * Sends the DELETE request and returns the parsed response body, or null if the body is empty.
+   * Deletion of a Study or a Series responds with a long-running operation.
+   */
+  private JsonNode createRequestToDelete(URIBuilder uriBuilder) throws DicomFuseException {
     try (CloseableHttpClient httpclient = httpClientFactory.createHttpClient()) {
       URI uri = uriBuilder.build();
       HttpDelete request = new HttpDelete(uri);
@@ -395,12 +557,57 @@ public class FuseDaoImpl implements FuseDao {
       request.addHeader(AUTHORIZATION, BEARER + tokenValue);
       try (CloseableHttpResponse response = httpclient.execute(request)) {
         checkStatusCode(response, uri);
+        HttpEntity entity = response.getEntity();
+        String responseBody = entity == null ? "" : EntityUtils.toString(entity);
+        if (responseBody.trim().isEmpty()) {
+          return null;
+        }
+        return objectMapper.readTree(responseBody);
       }
     } catch (IOException | URISyntaxException e) {
       throw new DicomFuseException(e);
     }
   }
 
+  /**
+   * Polls the long-running operation until it is done. The deletion is reported as failed if the
+   * operation ends with an error or doesn't end in {@link Constants#OPERATION_TIMEOUT}, so the
+   * deleted objects are not removed from the cache.
+   */
+  private void waitForOperation(JsonNode operation, String stage, URIBuilder deleteUriBuilder)
+      throws DicomFuseException {
+    if (operation == null || !operation.hasNonNull("name")) {
+      // the deletion was done before the response
+      return;
+    }
+    String name = operation.get("name").asText();
+    long deadline = System.currentTimeMillis() + OPERATION_TIMEOUT;
+    long delay = OPERATION_POLL_INITIAL_DELAY;
+    while (!operation.path("done").asBoolean(false)) {
+      if (System.currentTimeMillis() + delay > deadline) {
+        throw new DicomFuseException("Deletion is still running, operation " + name
+            + " - " + deleteUriBuilder);
+      }
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DicomFuseException("Interrupted waiting for operation " + name, e);
+      }
+      delay = Math.min(delay * 2, OPERATION_POLL_MAX_DELAY);
+      URIBuilder uriBuilder = new URIBuilder()
+          .setScheme(SCHEME)
+          .setHost(HEALTHCARE_HOST)
+          .setPath(stage + "/" + name);
+      operation = createRequestForObjectList(uriBuilder, new TypeReference<JsonNode>() {});
+    }
+    JsonNode error = operation.get("error");
+    if (error != null && !error.isNull()) {
+      throw new DicomFuseException("Failed to delete - " + deleteUriBuilder + "\n"
+          + error.path("message").asText(error.toString()));
+    }
+  }
+
   private void checkStatusCode(CloseableHttpResponse response, URI uri) throws DicomFuseException {
     int statusCode = response.getStatusLine().getStatusCode();
     if (statusCode != HttpStatusCodes.STATUS_CODE_OK) {
@@ -14,6 +14,7 @@
 
 package com.google.dicomwebfuse.dao.spec;
 
+import com.google.dicomwebfuse.dao.DownloadListener;
 import com.google.dicomwebfuse.entities.CloudConf;
 import com.google.dicomwebfuse.entities.DicomPath;
 import java.nio.file.Path;
@@ -28,7 +29,11 @@ public class QueryBuilder {
   private String instanceId;
   private Path instanceDataPath;
   private DicomPath dicomPath;
+  private DownloadListener downloadListener;
   private Integer offset = 0;
+  private Integer frameNumber;
+  private Integer viewport;
+  private Integer quality;
 
   private QueryBuilder() {
   }
@@ -69,11 +74,31 @@ public class QueryBuilder {
     return this;
   }
 
+  public QueryBuilder setDownloadListener(DownloadListener downloadListener) {
+    this.downloadListener = downloadListener;
+    return this;
+  }
+
   public QueryBuilder setOffset(Integer offset) {
     this.offset = offset;
     return this;
   }
 
+  public QueryBuilder setFrameNumber(Integer frameNumber) {
+    this.frameNumber = frameNumber;
+    return this;
+  }
+
+  public QueryBuilder setViewport(Integer viewport) {
+    this.viewport = viewport;
+    return this;
+  }
+
+  public QueryBuilder setQuality(Integer quality) {
+    this.quality = quality;
+    return this;
+  }
+
   public CloudConf getCloudConf() {
     return cloudConf;
   }
@@ -102,10 +127,26 @@ public class QueryBuilder {
     return dicomPath;
   }
 
+  public DownloadListener getDownloadListener() {
+    return downloadListener;
+  }
+
   public Integer getOffset() {
     return offset;
   }
 
+  public Integer getFrameNumber() {
+    return frameNumber;
+  }
+
+  public Integer getViewport() {
+    return viewport;
+  }
+
+  public Integer getQuality() {
+    return quality;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -122,13 +163,17 @@ public class QueryBuilder {
         Objects.equals(instanceId, that.instanceId) &&
         Objects.equals(instanceDataPath, that.instanceDataPath) &&
         Objects.equals(dicomPath, that.dicomPath) &&
-        Objects.equals(offset, that.offset);
+        Objects.equals(downloadListener, that.downloadListener) &&
+        Objects.equals(offset, that.offset) &&
+        Objects.equals(frameNumber, that.frameNumber) &&
+        Objects.equals(viewport, that.viewport) &&
+        Objects.equals(quality, that.quality);
   }
 
   @Override
   public int hashCode() {
     return Objects
         .hash(cloudConf, dicomStoreId, studyId, seriesId, instanceId, instanceDataPath, dicomPath,
-            offset);
+            downloadListener, offset, frameNumber, viewport, quality);
   }
 }
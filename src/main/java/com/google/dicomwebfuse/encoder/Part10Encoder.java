@@ -0,0 +1,315 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.encoder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.LittleEndianDataOutputStream;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Encodes DICOM JSON (PS3.18 F.2) to a DICOM Part 10 file in the Explicit VR Little Endian
+ * transfer syntax. Attributes which are referenced by BulkDataURI and the Pixel Data are left out,
+ * so only the header of the Instance is written. Strings are written in UTF-8.
+ */
+public class Part10Encoder {
+
+  private static final String EXPLICIT_VR_LITTLE_ENDIAN = "1.2.840.10008.1.2.1";
+  private static final String IMPLEMENTATION_CLASS_UID = "2.25.93578406287932361871349287436152391";
+  private static final String IMPLEMENTATION_VERSION_NAME = "DICOMFUSE";
+  private static final String UTF_8_CHARACTER_SET = "ISO_IR 192";
+  private static final byte[] MAGIC = "DICM".getBytes(StandardCharsets.US_ASCII);
+  private static final int PREAMBLE_LENGTH = 128;
+  private static final int META_GROUP = 0x0002;
+  private static final int SPECIFIC_CHARACTER_SET = 0x00080005;
+  private static final int SOP_CLASS_UID = 0x00080016;
+  private static final int SOP_INSTANCE_UID = 0x00080018;
+  private static final int PIXEL_DATA = 0x7FE00010;
+  private static final int ITEM = 0xFFFEE000;
+  private static final int MAX_SHORT_LENGTH = 0xFFFF;
+  private static final String KEY_VR = "vr";
+  private static final String KEY_VALUE = "Value";
+  private static final String KEY_INLINE_BINARY = "InlineBinary";
+  private static final String KEY_BULK_DATA_URI = "BulkDataURI";
+  private static final String[] PERSON_NAME_GROUPS = {"Alphabetic", "Ideographic", "Phonetic"};
+  // VRs which have a 4 bytes length in Explicit VR
+  private static final Set<String> LONG_LENGTH_VRS = new HashSet<>(Arrays.asList(
+      "OB", "OD", "OF", "OL", "OV", "OW", "SQ", "SV", "UC", "UN", "UR", "UT", "UV"));
+  private static final Set<String> BINARY_VRS = new HashSet<>(Arrays.asList(
+      "OB", "OD", "OF", "OL", "OV", "OW", "UN"));
+
+  private Part10Encoder() {
+  }
+
+  /**
+   * Encodes the metadata of an Instance returned by WADO-RS to a Part 10 file.
+   */
+  public static byte[] encodeHeader(JsonNode metadata) throws DicomFuseException {
+    if (!metadata.isObject()) {
+      throw new DicomFuseException("Invalid Instance metadata");
+    }
+    try {
+      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+      byteArrayOutputStream.write(new byte[PREAMBLE_LENGTH]);
+      byteArrayOutputStream.write(MAGIC);
+      byteArrayOutputStream.write(encodeFileMetaInformation(metadata));
+      LittleEndianDataOutputStream out = new LittleEndianDataOutputStream(byteArrayOutputStream);
+      encodeDataset(out, metadata, true);
+      out.flush();
+      return byteArrayOutputStream.toByteArray();
+    } catch (IOException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
+  private static byte[] encodeFileMetaInformation(JsonNode metadata) throws IOException {
+    ByteArrayOutputStream group = new ByteArrayOutputStream();
+    LittleEndianDataOutputStream out = new LittleEndianDataOutputStream(group);
+    writeElement(out, 0x00020001, "OB", new byte[]{0, 1});
+    writeElement(out, 0x00020002, "UI", encodeString(getString(metadata, SOP_CLASS_UID), "UI"));
+    writeElement(out, 0x00020003, "UI",
+        encodeString(getString(metadata, SOP_INSTANCE_UID), "UI"));
+    writeElement(out, 0x00020010, "UI", encodeString(EXPLICIT_VR_LITTLE_ENDIAN, "UI"));
+    writeElement(out, 0x00020012, "UI", encodeString(IMPLEMENTATION_CLASS_UID, "UI"));
+    writeElement(out, 0x00020013, "SH", encodeString(IMPLEMENTATION_VERSION_NAME, "SH"));
+    out.flush();
+    ByteArrayOutputStream metaInformation = new ByteArrayOutputStream();
+    LittleEndianDataOutputStream metaOut = new LittleEndianDataOutputStream(metaInformation);
+    writeHeader(metaOut, 0x00020000, "UL", 4);
+    metaOut.writeInt(group.size());
+    metaOut.write(group.toByteArray());
+    metaOut.flush();
+    return metaInformation.toByteArray();
+  }
+
+  private static void encodeDataset(LittleEndianDataOutputStream out, JsonNode dataset,
+      boolean topLevel) throws IOException {
+    // attributes must be sorted by tag, tags are compared as unsigned numbers
+    Map<Long, JsonNode> attributes = new TreeMap<>();
+    Iterator<Map.Entry<String, JsonNode>> fields = dataset.fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      try {
+        attributes.put(Long.parseLong(field.getKey(), 16), field.getValue());
+      } catch (NumberFormatException e) {
+        // not a tag
+      }
+    }
+    if (topLevel) {
+      attributes.putIfAbsent((long) SPECIFIC_CHARACTER_SET, null);
+    }
+    for (Map.Entry<Long, JsonNode> attribute : attributes.entrySet()) {
+      int tag = attribute.getKey().intValue();
+      // group lengths are optional and the values would change
+      if ((tag & 0xFFFF) == 0 || (tag >>> 16) == META_GROUP || tag == PIXEL_DATA) {
+        continue;
+      }
+      if (tag == SPECIFIC_CHARACTER_SET) {
+        writeElement(out, tag, "CS", encodeString(UTF_8_CHARACTER_SET, "CS"));
+        continue;
+      }
+      encodeAttribute(out, tag, attribute.getValue());
+    }
+  }
+
+  private static void encodeAttribute(LittleEndianDataOutputStream out, int tag, JsonNode attribute)
+      throws IOException {
+    if (attribute == null || attribute.has(KEY_BULK_DATA_URI)) {
+      return;
+    }
+    String vr = attribute.path(KEY_VR).asText("UN");
+    if (vr.length() != 2) {
+      vr = "UN";
+    }
+    JsonNode values = attribute.path(KEY_VALUE);
+    if (attribute.has(KEY_INLINE_BINARY)) {
+      byte[] bytes = BaseEncoding.base64().decode(attribute.get(KEY_INLINE_BINARY).asText());
+      writeElement(out, tag, vr, pad(bytes, (byte) 0));
+      return;
+    }
+    if (BINARY_VRS.contains(vr)) {
+      // binary values are sent as InlineBinary or BulkDataURI
+      writeElement(out, tag, vr, new byte[0]);
+      return;
+    }
+    switch (vr) {
+      case "SQ":
+        writeElement(out, tag, vr, encodeItems(values));
+        break;
+      case "PN":
+        writeElement(out, tag, vr, encodeString(joinPersonNames(values), vr));
+        break;
+      case "AT":
+      case "US":
+      case "SS":
+      case "UL":
+      case "SL":
+      case "FL":
+      case "FD":
+      case "SV":
+      case "UV":
+        writeElement(out, tag, vr, encodeNumbers(values, vr));
+        break;
+      default:
+        writeElement(out, tag, vr, encodeString(joinStrings(values), vr));
+    }
+  }
+
+  private static byte[] encodeItems(JsonNode items) throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    LittleEndianDataOutputStream out = new LittleEndianDataOutputStream(byteArrayOutputStream);
+    for (JsonNode item : items) {
+      ByteArrayOutputStream itemBytes = new ByteArrayOutputStream();
+      LittleEndianDataOutputStream itemOut = new LittleEndianDataOutputStream(itemBytes);
+      encodeDataset(itemOut, item, false);
+      itemOut.flush();
+      out.writeShort(ITEM >>> 16);
+      out.writeShort(ITEM & 0xFFFF);
+      out.writeInt(itemBytes.size());
+      out.write(itemBytes.toByteArray());
+    }
+    out.flush();
+    return byteArrayOutputStream.toByteArray();
+  }
+
+  private static byte[] encodeNumbers(JsonNode values, String vr) throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    LittleEndianDataOutputStream out = new LittleEndianDataOutputStream(byteArrayOutputStream);
+    for (JsonNode value : values) {
+      switch (vr) {
+        case "AT":
+          // tags are sent as strings, e.g. "00100010"
+          int tag = (int) Long.parseLong(value.asText(), 16);
+          out.writeShort(tag >>> 16);
+          out.writeShort(tag & 0xFFFF);
+          break;
+        case "US":
+        case "SS":
+          out.writeShort(value.asInt());
+          break;
+        case "UL":
+        case "SL":
+          out.writeInt((int) value.asLong());
+          break;
+        case "FL":
+          out.writeFloat((float) value.asDouble());
+          break;
+        case "FD":
+          out.writeDouble(value.asDouble());
+          break;
+        default:
+          out.writeLong(value.asLong());
+      }
+    }
+    out.flush();
+    return byteArrayOutputStream.toByteArray();
+  }
+
+  private static String joinStrings(JsonNode values) {
+    StringBuilder stringBuilder = new StringBuilder();
+    for (int i = 0; i < values.size(); i++) {
+      if (i > 0) {
+        stringBuilder.append('\\');
+      }
+      JsonNode value = values.get(i);
+      if (value.isBigDecimal()) {
+        stringBuilder.append(value.decimalValue().toString());
+      } else if (!value.isNull()) {
+        stringBuilder.append(value.asText());
+      }
+    }
+    return stringBuilder.toString();
+  }
+
+  private static String joinPersonNames(JsonNode values) {
+    StringBuilder stringBuilder = new StringBuilder();
+    for (int i = 0; i < values.size(); i++) {
+      if (i > 0) {
+        stringBuilder.append('\\');
+      }
+      JsonNode value = values.get(i);
+      if (value.isTextual()) {
+        stringBuilder.append(value.asText());
+        continue;
+      }
+      // component groups are separated by "=", trailing empty groups are left out
+      int end = stringBuilder.length();
+      for (int j = 0; j < PERSON_NAME_GROUPS.length; j++) {
+        if (j > 0) {
+          stringBuilder.append('=');
+        }
+        JsonNode group = value.path(PERSON_NAME_GROUPS[j]);
+        if (!group.isMissingNode() && !group.isNull()) {
+          stringBuilder.append(group.asText());
+          end = stringBuilder.length();
+        }
+      }
+      stringBuilder.setLength(end);
+    }
+    return stringBuilder.toString();
+  }
+
+  private static String getString(JsonNode dataset, int tag) {
+    JsonNode values = dataset.path(String.format("%08X", tag)).path(KEY_VALUE);
+    return values.size() > 0 ? values.get(0).asText() : "";
+  }
+
+  private static byte[] encodeString(String value, String vr) {
+    // UIDs are padded with a null byte, other strings with a space
+    byte padding = "UI".equals(vr) ? (byte) 0 : (byte) ' ';
+    return pad(value.getBytes(StandardCharsets.UTF_8), padding);
+  }
+
+  private static byte[] pad(byte[] bytes, byte padding) {
+    if (bytes.length % 2 == 0) {
+      return bytes;
+    }
+    byte[] padded = Arrays.copyOf(bytes, bytes.length + 1);
+    padded[bytes.length] = padding;
+    return padded;
+  }
+
+  private static void writeElement(LittleEndianDataOutputStream out, int tag, String vr,
+      byte[] value) throws IOException {
+    if (!LONG_LENGTH_VRS.contains(vr) && value.length > MAX_SHORT_LENGTH) {
+      // the value doesn't fit the 2 bytes length
+      vr = "UN";
+    }
+    writeHeader(out, tag, vr, value.length);
+    out.write(value);
+  }
+
+  private static void writeHeader(LittleEndianDataOutputStream out, int tag, String vr,
+      int length) throws IOException {
+    out.writeShort(tag >>> 16);
+    out.writeShort(tag & 0xFFFF);
+    out.write(vr.getBytes(StandardCharsets.US_ASCII));
+    if (LONG_LENGTH_VRS.contains(vr)) {
+      out.writeShort(0);
+      out.writeInt(length);
+    } else {
+      out.writeShort(length);
+    }
+  }
+}
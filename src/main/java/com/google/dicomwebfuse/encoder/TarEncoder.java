@@ -0,0 +1,112 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.encoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the headers of ustar archives. The archive is a sequence of members, each member is a
+ * header block followed by the data padded to whole blocks. The archive ends with two zero blocks.
+ */
+public class TarEncoder {
+
+  public static final int BLOCK_SIZE = 512;
+  public static final int END_OF_ARCHIVE_SIZE = 2 * BLOCK_SIZE;
+  private static final int NAME_OFFSET = 0;
+  private static final int NAME_LENGTH = 100;
+  private static final int MODE_OFFSET = 100;
+  private static final int UID_OFFSET = 108;
+  private static final int GID_OFFSET = 116;
+  private static final int SIZE_OFFSET = 124;
+  private static final int MTIME_OFFSET = 136;
+  private static final int CHECKSUM_OFFSET = 148;
+  private static final int CHECKSUM_LENGTH = 8;
+  private static final int TYPE_FLAG_OFFSET = 156;
+  private static final int MAGIC_OFFSET = 257;
+  private static final int PREFIX_OFFSET = 345;
+  private static final int PREFIX_LENGTH = 155;
+  private static final byte REGULAR_FILE = '0';
+  private static final String USTAR_MAGIC = "ustar\u000000";
+  private static final String READ_ONLY_MODE = "0000444";
+  private static final String ROOT_ID = "0000000";
+  private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+  private TarEncoder() {
+  }
+
+  /**
+   * Returns the header block of a regular read-only file.
+   *
+   * @param name path of the file in the archive, long paths are split into the prefix and the name
+   * @param modificationTime seconds since the epoch
+   */
+  public static byte[] encodeHeader(String name, long size, long modificationTime) {
+    byte[] header = new byte[BLOCK_SIZE];
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    if (nameBytes.length <= NAME_LENGTH) {
+      putBytes(header, NAME_OFFSET, nameBytes);
+    } else {
+      int split = name.lastIndexOf('/');
+      byte[] prefix = split > 0 ? name.substring(0, split).getBytes(StandardCharsets.UTF_8) : null;
+      byte[] shortName = name.substring(split + 1).getBytes(StandardCharsets.UTF_8);
+      if (prefix == null || prefix.length > PREFIX_LENGTH || shortName.length > NAME_LENGTH) {
+        throw new IllegalArgumentException("Too long name in the archive - " + name);
+      }
+      putBytes(header, PREFIX_OFFSET, prefix);
+      putBytes(header, NAME_OFFSET, shortName);
+    }
+    putString(header, MODE_OFFSET, READ_ONLY_MODE);
+    putString(header, UID_OFFSET, ROOT_ID);
+    putString(header, GID_OFFSET, ROOT_ID);
+    if (size <= MAX_OCTAL_SIZE) {
+      putString(header, SIZE_OFFSET, String.format("%011o", size));
+    } else {
+      // GNU base-256 encoding of sizes which don't fit into 11 octal digits
+      header[SIZE_OFFSET] = (byte) 0x80;
+      for (int i = 0; i < 8; i++) {
+        header[SIZE_OFFSET + 11 - i] = (byte) (size >>> (8 * i));
+      }
+    }
+    putString(header, MTIME_OFFSET, String.format("%011o", Math.max(modificationTime, 0)));
+    header[TYPE_FLAG_OFFSET] = REGULAR_FILE;
+    putString(header, MAGIC_OFFSET, USTAR_MAGIC);
+    // the checksum is computed with the checksum field filled with spaces
+    for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+      header[CHECKSUM_OFFSET + i] = ' ';
+    }
+    int checksum = 0;
+    for (byte b : header) {
+      checksum += b & 0xFF;
+    }
+    putString(header, CHECKSUM_OFFSET, String.format("%06o", checksum));
+    header[CHECKSUM_OFFSET + 6] = 0;
+    return header;
+  }
+
+  /**
+   * Returns the size of the data rounded up to whole blocks.
+   */
+  public static long getPaddedSize(long size) {
+    return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+  }
+
+  private static void putString(byte[] header, int offset, String value) {
+    putBytes(header, offset, value.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static void putBytes(byte[] header, int offset, byte[] value) {
+    System.arraycopy(value, 0, header, offset, value.length);
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities;
+
+/**
+ * Files of the control folder. The statistics file is read-only, the other files are commands
+ * which are executed when paths of the mount are written to them, one path per line.
+ */
+public enum ControlFileType {
+  STATS("stats", false),
+  PREFETCH("prefetch", true),
+  INVALIDATE("invalidate", true),
+  DROP_CACHE("drop_cache", true);
+
+  private final String fileName;
+  private final boolean command;
+
+  ControlFileType(String fileName, boolean command) {
+    this.fileName = fileName;
+    this.command = command;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public boolean isCommand() {
+    return command;
+  }
+
+  /**
+   * Returns the type of the control file with the name, or null if there is no such file.
+   */
+  public static ControlFileType fromFileName(String fileName) {
+    for (ControlFileType controlFileType : values()) {
+      if (controlFileType.fileName.equals(fileName)) {
+        return controlFileType;
+      }
+    }
+    return null;
+  }
+}
@@ -17,10 +17,12 @@ package com.google.dicomwebfuse.entities;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
 
 public class DicomAttribute<T> {
 
+  private static final String ALPHABETIC = "Alphabetic";
   private String vr;
   @JsonProperty
   private T[] Value;
@@ -52,6 +54,30 @@ public class DicomAttribute<T> {
     return Value;
   }
 
+  /**
+   * Returns the values separated by backslashes. Person names are returned in the alphabetic
+   * representation.
+   */
+  public String joinValues() {
+    if (Value == null) {
+      return "";
+    }
+    StringBuilder stringBuilder = new StringBuilder();
+    for (int i = 0; i < Value.length; i++) {
+      if (i > 0) {
+        stringBuilder.append('\\');
+      }
+      Object value = Value[i];
+      if (value instanceof Map) {
+        value = ((Map<?, ?>) value).get(ALPHABETIC);
+      }
+      if (value != null) {
+        stringBuilder.append(value);
+      }
+    }
+    return stringBuilder.toString();
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -0,0 +1,107 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Converts DICOM DA (YYYYMMDD) and TM (HH[MM[SS[.FFFFFF]]]) values to an Instant. DICOM dates have
+ * no time zone unless the Timezone Offset From UTC attribute is set, so the values are treated as
+ * UTC.
+ */
+public class DicomDateTime {
+
+  private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.BASIC_ISO_DATE;
+
+  private DicomDateTime() {
+  }
+
+  /**
+   * Returns the Instant of the date and the time, or null if the date is missing or invalid. A
+   * missing or invalid time is treated as midnight.
+   */
+  public static Instant toInstant(DicomAttribute<String> date, DicomAttribute<String> time) {
+    String dateValue = getFirstValue(date);
+    if (dateValue == null) {
+      return null;
+    }
+    LocalDate localDate;
+    try {
+      // ACR-NEMA dates may contain dots, e.g. 1993.08.22
+      localDate = LocalDate.parse(dateValue.replace(".", ""), DATE_FORMATTER);
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+    LocalTime localTime = parseTime(getFirstValue(time));
+    return localDate.atTime(localTime).toInstant(ZoneOffset.UTC);
+  }
+
+  static LocalTime parseTime(String value) {
+    if (value == null) {
+      return LocalTime.MIDNIGHT;
+    }
+    // ACR-NEMA times may contain colons, e.g. 07:09:43
+    String time = value.replace(":", "");
+    String fraction = "";
+    int dotIndex = time.indexOf('.');
+    if (dotIndex >= 0) {
+      fraction = time.substring(dotIndex + 1);
+      time = time.substring(0, dotIndex);
+    }
+    if (time.length() < 2 || time.length() > 6 || time.length() % 2 != 0 || !isDigits(time)
+        || fraction.length() > 6 || !isDigits(fraction)) {
+      return LocalTime.MIDNIGHT;
+    }
+    int hour = Integer.parseInt(time.substring(0, 2));
+    int minute = time.length() >= 4 ? Integer.parseInt(time.substring(2, 4)) : 0;
+    int second = time.length() == 6 ? Integer.parseInt(time.substring(4, 6)) : 0;
+    int nanos = 0;
+    if (!fraction.isEmpty()) {
+      nanos = Integer.parseInt(fraction) * (int) Math.pow(10, 9 - fraction.length());
+    }
+    // a leap second is stored as 60
+    if (hour > 23 || minute > 59 || second > 60) {
+      return LocalTime.MIDNIGHT;
+    }
+    return LocalTime.of(hour, minute, Math.min(second, 59), nanos);
+  }
+
+  private static String getFirstValue(DicomAttribute<String> attribute) {
+    if (attribute == null || attribute.getValue() == null || attribute.getValue().length == 0) {
+      return null;
+    }
+    String value = attribute.getValue1();
+    if (value == null) {
+      return null;
+    }
+    value = value.trim();
+    return value.isEmpty() ? null : value;
+  }
+
+  private static boolean isDigits(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,57 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities;
+
+import com.fasterxml.jackson.annotation.JsonAnySetter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base class of the objects returned by QIDO-RS. The attributes which are not mapped to fields are
+ * kept as formatted values.
+ */
+public abstract class DicomObject {
+
+  private static final String URL_VR = "UR";
+  private Map<String, String> otherAttributes; // key - tag
+
+  @JsonAnySetter
+  public void setOtherAttribute(String tag, DicomAttribute<Object> attribute) {
+    // retrieve URLs are long and can be built from the UIDs
+    if (attribute != null && URL_VR.equals(attribute.getVr())) {
+      return;
+    }
+    if (otherAttributes == null) {
+      otherAttributes = new HashMap<>();
+    }
+    otherAttributes.put(tag, attribute == null ? "" : attribute.joinValues());
+  }
+
+  /**
+   * Adds all attributes of the object as formatted values to the map, key - tag.
+   */
+  public void addAttributes(Map<String, String> attributes) {
+    if (otherAttributes != null) {
+      attributes.putAll(otherAttributes);
+    }
+  }
+
+  static void addAttribute(Map<String, String> attributes, String tag,
+      DicomAttribute<?> attribute) {
+    if (attribute != null) {
+      attributes.put(tag, attribute.joinValues());
+    }
+  }
+}
@@ -18,6 +18,9 @@ import java.util.Objects;
 
 public class DicomPath {
 
+  public static final String FRAMES_FOLDER_SUFFIX = ".frames";
+  // hidden folder in the root with the statistics and command files of the mount
+  public static final String CONTROL_FOLDER_NAME = ".dicomfuse";
   private static final String DCM_EXTENSION = ".dcm";
   private final DicomPathLevel dicomPathLevel;
   private final String dicomStoreId;
@@ -25,7 +28,10 @@ public class DicomPath {
   private final String seriesInstanceUID;
   private final String sopInstanceUID;
   private final String fileName;
-
+  private final VirtualFileType virtualFileType;
+  private final int frameNumber;
+  // the paths are used as keys of the caches, so the hash code is computed once
+  private final int hashCode;
 
   public static class Builder {
 
@@ -35,6 +41,8 @@ public class DicomPath {
     private String seriesInstanceUID = "";
     private String sopInstanceUID = "";
     private String fileName = "";
+    private VirtualFileType virtualFileType;
+    private int frameNumber;
 
     public Builder(DicomPathLevel dicomPathLevel) {
       this.dicomPathLevel = dicomPathLevel;
@@ -65,6 +73,16 @@ public class DicomPath {
       return this;
     }
 
+    public Builder virtualFileType(VirtualFileType virtualFileType) {
+      this.virtualFileType = virtualFileType;
+      return this;
+    }
+
+    public Builder frameNumber(int frameNumber) {
+      this.frameNumber = frameNumber;
+      return this;
+    }
+
     public DicomPath build() {
       return new DicomPath(this);
     }
@@ -77,6 +95,10 @@ public class DicomPath {
     seriesInstanceUID = builder.seriesInstanceUID;
     sopInstanceUID = builder.sopInstanceUID;
     fileName = builder.fileName;
+    virtualFileType = builder.virtualFileType;
+    frameNumber = builder.frameNumber;
+    hashCode = Objects.hash(dicomPathLevel, dicomStoreId, studyInstanceUID, seriesInstanceUID,
+        sopInstanceUID, fileName, frameNumber);
   }
 
   public DicomPathLevel getDicomPathLevel() {
@@ -103,6 +125,76 @@ public class DicomPath {
     return fileName;
   }
 
+  public VirtualFileType getVirtualFileType() {
+    return virtualFileType;
+  }
+
+  /**
+   * Returns the number of the frame, frames are numbered from 1.
+   */
+  public int getFrameNumber() {
+    return frameNumber;
+  }
+
+  /**
+   * Returns the path of the Study which contains the object.
+   */
+  public DicomPath getStudyPath() {
+    return new Builder(DicomPathLevel.STUDY)
+        .dicomStoreId(dicomStoreId)
+        .studyInstanceUID(studyInstanceUID)
+        .build();
+  }
+
+  /**
+   * Returns the path of the Series which contains the object.
+   */
+  public DicomPath getSeriesPath() {
+    return new Builder(DicomPathLevel.SERIES)
+        .dicomStoreId(dicomStoreId)
+        .studyInstanceUID(studyInstanceUID)
+        .seriesInstanceUID(seriesInstanceUID)
+        .build();
+  }
+
+  /**
+   * Returns the path of the Instance which the virtual file or the frame is generated from.
+   */
+  public DicomPath getInstancePath() {
+    return new Builder(DicomPathLevel.INSTANCE)
+        .dicomStoreId(dicomStoreId)
+        .studyInstanceUID(studyInstanceUID)
+        .seriesInstanceUID(seriesInstanceUID)
+        .sopInstanceUID(sopInstanceUID)
+        .build();
+  }
+
+  /**
+   * Checks if the object is the object at the given path or is contained in it.
+   */
+  public boolean isWithin(DicomPath dicomPath) {
+    switch (dicomPath.dicomPathLevel) {
+      case DATASET:
+        return true;
+      case DICOM_STORE:
+        return Objects.equals(dicomStoreId, dicomPath.dicomStoreId);
+      case STUDY:
+        return Objects.equals(dicomStoreId, dicomPath.dicomStoreId)
+            && Objects.equals(studyInstanceUID, dicomPath.studyInstanceUID);
+      case SERIES:
+        return Objects.equals(dicomStoreId, dicomPath.dicomStoreId)
+            && Objects.equals(studyInstanceUID, dicomPath.studyInstanceUID)
+            && Objects.equals(seriesInstanceUID, dicomPath.seriesInstanceUID);
+      case INSTANCE:
+        return Objects.equals(dicomStoreId, dicomPath.dicomStoreId)
+            && Objects.equals(studyInstanceUID, dicomPath.studyInstanceUID)
+            && Objects.equals(seriesInstanceUID, dicomPath.seriesInstanceUID)
+            && Objects.equals(sopInstanceUID, dicomPath.sopInstanceUID);
+      default:
+        return equals(dicomPath);
+    }
+  }
+
   @Override
   public String toString() {
     StringBuilder stringBuilder = new StringBuilder();
@@ -140,12 +232,38 @@ public class DicomPath {
         stringBuilder.append(fileName);
         break;
       case TEMP_FILE_IN_SERIES:
+      case VIRTUAL_FILE:
+        stringBuilder.append(dicomStoreId);
+        stringBuilder.append("/");
+        stringBuilder.append(studyInstanceUID);
+        stringBuilder.append("/");
+        if (!seriesInstanceUID.isEmpty()) {
+          stringBuilder.append(seriesInstanceUID);
+          stringBuilder.append("/");
+        }
+        stringBuilder.append(fileName);
+        break;
+      case FRAMES:
+      case FRAME:
         stringBuilder.append(dicomStoreId);
         stringBuilder.append("/");
         stringBuilder.append(studyInstanceUID);
         stringBuilder.append("/");
         stringBuilder.append(seriesInstanceUID);
         stringBuilder.append("/");
+        stringBuilder.append(sopInstanceUID);
+        stringBuilder.append(FRAMES_FOLDER_SUFFIX);
+        if (dicomPathLevel == DicomPathLevel.FRAME) {
+          stringBuilder.append("/");
+          stringBuilder.append(frameNumber);
+        }
+        break;
+      case CONTROL_FOLDER:
+        stringBuilder.append(CONTROL_FOLDER_NAME);
+        break;
+      case CONTROL_FILE:
+        stringBuilder.append(CONTROL_FOLDER_NAME);
+        stringBuilder.append("/");
         stringBuilder.append(fileName);
         break;
       default:
@@ -162,18 +280,18 @@ public class DicomPath {
       return false;
     }
     DicomPath dicomPath = (DicomPath) o;
-    return dicomPathLevel == dicomPath.dicomPathLevel &&
+    return hashCode == dicomPath.hashCode &&
+        dicomPathLevel == dicomPath.dicomPathLevel &&
         Objects.equals(dicomStoreId, dicomPath.dicomStoreId) &&
         Objects.equals(studyInstanceUID, dicomPath.studyInstanceUID) &&
         Objects.equals(seriesInstanceUID, dicomPath.seriesInstanceUID) &&
         Objects.equals(sopInstanceUID, dicomPath.sopInstanceUID) &&
-        Objects.equals(fileName, dicomPath.fileName);
+        Objects.equals(fileName, dicomPath.fileName) &&
+        frameNumber == dicomPath.frameNumber;
   }
 
   @Override
   public int hashCode() {
-    return Objects
-        .hash(dicomPathLevel, dicomStoreId, studyInstanceUID, seriesInstanceUID, sopInstanceUID,
-            fileName);
+    return hashCode;
   }
 }
@@ -21,5 +21,10 @@ public enum DicomPathLevel {
   SERIES,
   INSTANCE,
   TEMP_FILE_IN_DICOM_STORE,
-  TEMP_FILE_IN_SERIES
+  TEMP_FILE_IN_SERIES,
+  VIRTUAL_FILE,
+  FRAMES,
+  FRAME,
+  CONTROL_FOLDER,
+  CONTROL_FILE
 }
@@ -0,0 +1,112 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Derives stable inode numbers from the IDs and UIDs of the objects, so the same object gets the
+ * same inode number across listings and mounts without keeping a table in memory.
+ */
+public class Inodes {
+
+  public static final long ROOT_INODE = 1;
+  private static final HashFunction HASH_FUNCTION = Hashing.farmHashFingerprint64();
+
+  private Inodes() {
+  }
+
+  public static long getInode(DicomPath dicomPath) {
+    String[] components = getComponents(dicomPath);
+    return getInode(components, components.length, null);
+  }
+
+  /**
+   * Returns the inode number of the folder which contains the object.
+   */
+  public static long getParentInode(DicomPath dicomPath) {
+    String[] components = getComponents(dicomPath);
+    return getInode(components, Math.max(components.length - 1, 0), null);
+  }
+
+  /**
+   * Returns the inode number of the object with the ID or UID in the folder.
+   */
+  public static long getChildInode(DicomPath dicomPath, String childId) {
+    String[] components = getComponents(dicomPath);
+    return getInode(components, components.length, childId);
+  }
+
+  private static long getInode(String[] components, int count, String childId) {
+    if (count == 0 && childId == null) {
+      return ROOT_INODE;
+    }
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    for (int i = 0; i < count; i++) {
+      hasher.putByte((byte) '/').putString(components[i], StandardCharsets.UTF_8);
+    }
+    if (childId != null) {
+      hasher.putByte((byte) '/').putString(childId, StandardCharsets.UTF_8);
+    }
+    long inode = hasher.hash().asLong();
+    // 0 is not a valid inode number and 1 is the root folder
+    return inode == 0 || inode == ROOT_INODE ? inode + 2 : inode;
+  }
+
+  private static String[] getComponents(DicomPath dicomPath) {
+    switch (dicomPath.getDicomPathLevel()) {
+      case DICOM_STORE:
+        return new String[]{dicomPath.getDicomStoreId()};
+      case STUDY:
+        return new String[]{dicomPath.getDicomStoreId(), dicomPath.getStudyInstanceUID()};
+      case SERIES:
+        return new String[]{dicomPath.getDicomStoreId(), dicomPath.getStudyInstanceUID(),
+            dicomPath.getSeriesInstanceUID()};
+      case INSTANCE:
+        return new String[]{dicomPath.getDicomStoreId(), dicomPath.getStudyInstanceUID(),
+            dicomPath.getSeriesInstanceUID(), dicomPath.getSopInstanceUID()};
+      case TEMP_FILE_IN_DICOM_STORE:
+        return new String[]{dicomPath.getDicomStoreId(), dicomPath.getFileName()};
+      case VIRTUAL_FILE:
+        if (dicomPath.getVirtualFileType().getSourceLevel() == DicomPathLevel.STUDY) {
+          return new String[]{dicomPath.getDicomStoreId(), dicomPath.getStudyInstanceUID(),
+              dicomPath.getFileName()};
+        }
+        return new String[]{dicomPath.getDicomStoreId(), dicomPath.getStudyInstanceUID(),
+            dicomPath.getSeriesInstanceUID(), dicomPath.getFileName()};
+      case TEMP_FILE_IN_SERIES:
+        return new String[]{dicomPath.getDicomStoreId(), dicomPath.getStudyInstanceUID(),
+            dicomPath.getSeriesInstanceUID(), dicomPath.getFileName()};
+      case FRAMES:
+        return new String[]{dicomPath.getDicomStoreId(), dicomPath.getStudyInstanceUID(),
+            dicomPath.getSeriesInstanceUID(),
+            dicomPath.getSopInstanceUID() + DicomPath.FRAMES_FOLDER_SUFFIX};
+      case FRAME:
+        return new String[]{dicomPath.getDicomStoreId(), dicomPath.getStudyInstanceUID(),
+            dicomPath.getSeriesInstanceUID(),
+            dicomPath.getSopInstanceUID() + DicomPath.FRAMES_FOLDER_SUFFIX,
+            Integer.toString(dicomPath.getFrameNumber())};
+      case CONTROL_FOLDER:
+        return new String[]{DicomPath.CONTROL_FOLDER_NAME};
+      case CONTROL_FILE:
+        return new String[]{DicomPath.CONTROL_FOLDER_NAME, dicomPath.getFileName()};
+      default:
+        return new String[0];
+    }
+  }
+}
@@ -16,10 +16,11 @@ package com.google.dicomwebfuse.entities;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Map;
 import java.util.Objects;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
-public class Instance {
+public class Instance extends DicomObject {
 
   @JsonProperty("0020000D")
   private DicomAttribute<String> studyInstanceUID;
@@ -27,6 +28,14 @@ public class Instance {
   private DicomAttribute<String> seriesInstanceUID;
   @JsonProperty("00080018")
   private DicomAttribute<String> sopInstanceUID;
+  @JsonProperty("00080012")
+  private DicomAttribute<String> instanceCreationDate;
+  @JsonProperty("00080013")
+  private DicomAttribute<String> instanceCreationTime;
+  @JsonProperty("00200013")
+  private DicomAttribute<Object> instanceNumber;
+  @JsonProperty("00280008")
+  private DicomAttribute<Object> numberOfFrames;
 
   public DicomAttribute<String> getStudyInstanceUID() {
     return studyInstanceUID;
@@ -52,6 +61,50 @@ public class Instance {
     this.sopInstanceUID = sopInstanceUID;
   }
 
+  public DicomAttribute<String> getInstanceCreationDate() {
+    return instanceCreationDate;
+  }
+
+  public void setInstanceCreationDate(DicomAttribute<String> instanceCreationDate) {
+    this.instanceCreationDate = instanceCreationDate;
+  }
+
+  public DicomAttribute<String> getInstanceCreationTime() {
+    return instanceCreationTime;
+  }
+
+  public void setInstanceCreationTime(DicomAttribute<String> instanceCreationTime) {
+    this.instanceCreationTime = instanceCreationTime;
+  }
+
+  public DicomAttribute<Object> getInstanceNumber() {
+    return instanceNumber;
+  }
+
+  public void setInstanceNumber(DicomAttribute<Object> instanceNumber) {
+    this.instanceNumber = instanceNumber;
+  }
+
+  public DicomAttribute<Object> getNumberOfFrames() {
+    return numberOfFrames;
+  }
+
+  public void setNumberOfFrames(DicomAttribute<Object> numberOfFrames) {
+    this.numberOfFrames = numberOfFrames;
+  }
+
+  @Override
+  public void addAttributes(Map<String, String> attributes) {
+    super.addAttributes(attributes);
+    addAttribute(attributes, "0020000D", studyInstanceUID);
+    addAttribute(attributes, "0020000E", seriesInstanceUID);
+    addAttribute(attributes, "00080018", sopInstanceUID);
+    addAttribute(attributes, "00080012", instanceCreationDate);
+    addAttribute(attributes, "00080013", instanceCreationTime);
+    addAttribute(attributes, "00200013", instanceNumber);
+    addAttribute(attributes, "00280008", numberOfFrames);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -15,14 +15,19 @@
 package com.google.dicomwebfuse.entities;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Map;
 import java.util.Objects;
 
-public class Series {
+public class Series extends DicomObject {
 
   @JsonProperty("0020000D")
   private DicomAttribute<String> studyInstanceUID;
   @JsonProperty("0020000E")
   private DicomAttribute<String> seriesInstanceUID;
+  @JsonProperty("00080021")
+  private DicomAttribute<String> seriesDate;
+  @JsonProperty("00080031")
+  private DicomAttribute<String> seriesTime;
 
   public DicomAttribute<String> getStudyInstanceUID() {
     return studyInstanceUID;
@@ -40,6 +45,31 @@ public class Series {
     this.seriesInstanceUID = seriesInstanceUID;
   }
 
+  public DicomAttribute<String> getSeriesDate() {
+    return seriesDate;
+  }
+
+  public void setSeriesDate(DicomAttribute<String> seriesDate) {
+    this.seriesDate = seriesDate;
+  }
+
+  public DicomAttribute<String> getSeriesTime() {
+    return seriesTime;
+  }
+
+  public void setSeriesTime(DicomAttribute<String> seriesTime) {
+    this.seriesTime = seriesTime;
+  }
+
+  @Override
+  public void addAttributes(Map<String, String> attributes) {
+    super.addAttributes(attributes);
+    addAttribute(attributes, "0020000D", studyInstanceUID);
+    addAttribute(attributes, "0020000E", seriesInstanceUID);
+    addAttribute(attributes, "00080021", seriesDate);
+    addAttribute(attributes, "00080031", seriesTime);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -15,12 +15,17 @@
 package com.google.dicomwebfuse.entities;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Map;
 import java.util.Objects;
 
-public class Study {
+public class Study extends DicomObject {
 
   @JsonProperty("0020000D")
   private DicomAttribute<String> studyInstanceUID;
+  @JsonProperty("00080020")
+  private DicomAttribute<String> studyDate;
+  @JsonProperty("00080030")
+  private DicomAttribute<String> studyTime;
 
   public DicomAttribute<String> getStudyInstanceUID() {
     return studyInstanceUID;
@@ -30,6 +35,30 @@ public class Study {
     this.studyInstanceUID = studyInstanceUID;
   }
 
+  public DicomAttribute<String> getStudyDate() {
+    return studyDate;
+  }
+
+  public void setStudyDate(DicomAttribute<String> studyDate) {
+    this.studyDate = studyDate;
+  }
+
+  public DicomAttribute<String> getStudyTime() {
+    return studyTime;
+  }
+
+  public void setStudyTime(DicomAttribute<String> studyTime) {
+    this.studyTime = studyTime;
+  }
+
+  @Override
+  public void addAttributes(Map<String, String> attributes) {
+    super.addAttributes(attributes);
+    addAttribute(attributes, "0020000D", studyInstanceUID);
+    addAttribute(attributes, "00080020", studyDate);
+    addAttribute(attributes, "00080030", studyTime);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
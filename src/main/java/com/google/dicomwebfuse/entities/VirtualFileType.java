@@ -0,0 +1,84 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities;
+
+/**
+ * Read-only files which are generated from an Instance and shown next to the Instance file, or
+ * generated for a whole Series or Study.
+ */
+public enum VirtualFileType {
+  INSTANCE_HEADER(".hdr.dcm", DicomPathLevel.INSTANCE),
+  // must precede INSTANCE_PREVIEW, which has the same suffix
+  SERIES_PREVIEW("series.preview.jpg", DicomPathLevel.SERIES),
+  INSTANCE_PREVIEW(".preview.jpg", DicomPathLevel.INSTANCE),
+  SERIES_ARCHIVE("series.tar", DicomPathLevel.SERIES),
+  STUDY_ARCHIVE("study.tar", DicomPathLevel.STUDY),
+  // must precede INSTANCE_METADATA, which has the same suffix
+  SERIES_METADATA("series.json", DicomPathLevel.SERIES),
+  INSTANCE_METADATA(".json", DicomPathLevel.INSTANCE);
+
+  private final String suffix;
+  private final DicomPathLevel sourceLevel;
+
+  VirtualFileType(String suffix, DicomPathLevel sourceLevel) {
+    this.suffix = suffix;
+    this.sourceLevel = sourceLevel;
+  }
+
+  /**
+   * Returns the suffix which is added to the SOP Instance UID to get the file name, or the whole
+   * file name of a Series or Study file.
+   */
+  public String getSuffix() {
+    return suffix;
+  }
+
+  /**
+   * Returns the level of the object which the file is generated from. Series and Study files are
+   * shown in the folder of the object, Instance files are shown next to the Instance file.
+   */
+  public DicomPathLevel getSourceLevel() {
+    return sourceLevel;
+  }
+
+  public boolean isPreview() {
+    return this == SERIES_PREVIEW || this == INSTANCE_PREVIEW;
+  }
+
+  public boolean isArchive() {
+    return this == SERIES_ARCHIVE || this == STUDY_ARCHIVE;
+  }
+
+  public boolean isMetadata() {
+    return this == SERIES_METADATA || this == INSTANCE_METADATA;
+  }
+
+  /**
+   * Returns the type of the virtual file with the name, or null if it is not a virtual file.
+   */
+  public static VirtualFileType fromFileName(String fileName) {
+    for (VirtualFileType virtualFileType : values()) {
+      if (virtualFileType.sourceLevel != DicomPathLevel.INSTANCE) {
+        if (fileName.equals(virtualFileType.suffix)) {
+          return virtualFileType;
+        }
+      } else if (fileName.endsWith(virtualFileType.suffix)
+          && fileName.length() > virtualFileType.suffix.length()) {
+        return virtualFileType;
+      }
+    }
+    return null;
+  }
+}
@@ -14,28 +14,38 @@
 
 package com.google.dicomwebfuse.entities.cache;
 
-
 import com.google.dicomwebfuse.entities.DicomPath;
 import com.google.dicomwebfuse.entities.DicomPathLevel;
 import com.google.dicomwebfuse.entities.DicomStore;
-import com.google.dicomwebfuse.entities.Instance;
 import com.google.dicomwebfuse.entities.Series;
 import com.google.dicomwebfuse.entities.Study;
 import com.google.dicomwebfuse.exception.DicomFuseException;
 import com.google.dicomwebfuse.fuse.Command;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class Cache {
 
+  // the recently accessed objects are not evicted, they may be in use by an operation
+  private static final long MIN_IDLE_TIME = TimeUnit.SECONDS.toNanos(30);
   private CachedDataset cachedDataset = new CachedDataset();
+  // maximum estimated heap size of the metadata, 0 - not limited
+  private volatile long maxSize;
+  private final AtomicLong evictedSeries = new AtomicLong();
+  private final AtomicLong evictedStudies = new AtomicLong();
 
   public CachedDicomStore getCachedDicomStore(DicomPath dicomPath) throws DicomFuseException {
-    CachedDicomStore cachedDicomStore = cachedDataset.getCachedDicomStores()
-        .get(dicomPath.getDicomStoreId());
+    CachedDicomStore cachedDicomStore = findCachedDicomStore(dicomPath);
     if (cachedDicomStore == null) {
       throw new DicomFuseException("null cached DICOM Store - " + dicomPath);
     }
@@ -49,6 +59,7 @@ public class Cache {
     if (cachedStudy == null) {
       throw new DicomFuseException("null cached Study - " + dicomPath);
     }
+    cachedStudy.touch();
     return cachedStudy;
   }
 
@@ -58,17 +69,18 @@ public class Cache {
     if (cachedSeries == null) {
       throw new DicomFuseException("null cached Series - " + dicomPath);
     }
+    cachedSeries.touch();
     return cachedSeries;
   }
 
-  private InstanceContent getInstanceContent(CachedSeries cachedSeries, DicomPath dicomPath)
-      throws DicomFuseException {
-    InstanceContent instanceContent = cachedSeries.getCachedInstances()
-        .get(dicomPath.getSopInstanceUID());
-    if (instanceContent == null) {
+  private InstanceTable getInstanceTable(DicomPath dicomPath) throws DicomFuseException {
+    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
+    CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
+    InstanceTable instanceTable = getCachedSeries(cachedStudy, dicomPath).getCachedInstances();
+    if (!instanceTable.contains(dicomPath.getSopInstanceUID())) {
       throw new DicomFuseException("null instance content - " + dicomPath);
     }
-    return instanceContent;
+    return instanceTable;
   }
 
   private InstanceContent getTempInstanceContent(CachedDicomStore cachedDicomStore,
@@ -81,6 +93,106 @@ public class Cache {
     return instanceContent;
   }
 
+  // The find methods return null instead of throwing if the object or one of its parents isn't
+  // cached. They are used where a missing object is an expected result, such as the lookups of
+  // getattr, because building an exception with its stack trace costs much more than the lookup.
+
+  public CachedDicomStore findCachedDicomStore(DicomPath dicomPath) {
+    return cachedDataset.getCachedDicomStores().get(dicomPath.getDicomStoreId());
+  }
+
+  public CachedStudy findCachedStudy(DicomPath dicomPath) {
+    CachedDicomStore cachedDicomStore = findCachedDicomStore(dicomPath);
+    if (cachedDicomStore == null) {
+      return null;
+    }
+    CachedStudy cachedStudy = cachedDicomStore.getCachedStudies()
+        .get(dicomPath.getStudyInstanceUID());
+    if (cachedStudy != null) {
+      cachedStudy.touch();
+    }
+    return cachedStudy;
+  }
+
+  public CachedSeries findCachedSeries(DicomPath dicomPath) {
+    CachedStudy cachedStudy = findCachedStudy(dicomPath);
+    if (cachedStudy == null) {
+      return null;
+    }
+    CachedSeries cachedSeries = cachedStudy.getCachedSeries().get(dicomPath.getSeriesInstanceUID());
+    if (cachedSeries != null) {
+      cachedSeries.touch();
+    }
+    return cachedSeries;
+  }
+
+  /**
+   * Returns the state of the Instance or the temp file, or null if it has no state or the path is
+   * not a path to an Instance or a temp file.
+   */
+  public InstanceContent findInstanceContent(DicomPath dicomPath) {
+    switch (dicomPath.getDicomPathLevel()) {
+      case INSTANCE:
+        CachedSeries cachedSeries = findCachedSeries(dicomPath);
+        if (cachedSeries == null) {
+          return null;
+        }
+        return cachedSeries.getCachedInstances().findInstanceContent(
+            dicomPath.getSopInstanceUID());
+      case TEMP_FILE_IN_DICOM_STORE:
+      case TEMP_FILE_IN_SERIES:
+        CachedDicomStore cachedDicomStore = findCachedDicomStore(dicomPath);
+        if (cachedDicomStore == null) {
+          return null;
+        }
+        return cachedDicomStore.getCachedTempInstances().get(dicomPath.getFileName());
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns whether the DICOM Store, Study, Series, Instance or temp file of the path is cached,
+   * or whether only its parent folder is cached and the object itself has to be requested.
+   */
+  public CacheStatus getCacheStatus(DicomPath dicomPath) {
+    switch (dicomPath.getDicomPathLevel()) {
+      case DATASET:
+        return CacheStatus.CACHED;
+      case DICOM_STORE:
+        return findCachedDicomStore(dicomPath) != null ? CacheStatus.CACHED
+            : CacheStatus.PARENT_CACHED;
+      case STUDY:
+        return getCacheStatus(findCachedDicomStore(dicomPath), findCachedStudy(dicomPath));
+      case SERIES:
+        return getCacheStatus(findCachedStudy(dicomPath), findCachedSeries(dicomPath));
+      case INSTANCE:
+        CachedSeries cachedSeries = findCachedSeries(dicomPath);
+        if (cachedSeries == null) {
+          return findCachedStudy(dicomPath) != null ? CacheStatus.PARENT_CACHED
+              : CacheStatus.NOT_CACHED;
+        }
+        return cachedSeries.getCachedInstances().contains(dicomPath.getSopInstanceUID())
+            ? CacheStatus.CACHED : CacheStatus.PARENT_CACHED;
+      case TEMP_FILE_IN_DICOM_STORE:
+      case TEMP_FILE_IN_SERIES:
+        return getCacheStatus(findCachedDicomStore(dicomPath), findInstanceContent(dicomPath));
+      default:
+        return CacheStatus.NOT_CACHED;
+    }
+  }
+
+  private static CacheStatus getCacheStatus(Object parent, Object object) {
+    if (object != null) {
+      return CacheStatus.CACHED;
+    }
+    return parent != null ? CacheStatus.PARENT_CACHED : CacheStatus.NOT_CACHED;
+  }
+
+  CachedDataset getCachedDataset() {
+    return cachedDataset;
+  }
+
   public ConcurrentHashMap<String, CachedDicomStore> getCachedDicomStores() {
     return cachedDataset.getCachedDicomStores();
   }
@@ -96,8 +208,7 @@ public class Cache {
     return getCachedStudy(cachedDicomStore, dicomPath).getCachedSeries();
   }
 
-  public ConcurrentHashMap<String, InstanceContent> getCachedInstances(DicomPath dicomPath)
-      throws DicomFuseException {
+  public InstanceTable getCachedInstances(DicomPath dicomPath) throws DicomFuseException {
     CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
     CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
     return getCachedSeries(cachedStudy, dicomPath).getCachedInstances();
@@ -135,38 +246,417 @@ public class Cache {
     return cachedSeriesList;
   }
 
-  public List<Instance> getCachedInstanceList(DicomPath dicomPath) throws DicomFuseException {
+  public DirectoryListing getDatasetListing(DicomPath dicomPath) {
+    return cachedDataset.getCachedListing().get(dicomPath, () -> new DirectoryListing.Entries()
+        .addFolders(cachedDataset.getCachedDicomStores().keySet(), ""));
+  }
+
+  public DirectoryListing getDicomStoreListing(DicomPath dicomPath) throws DicomFuseException {
+    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
+    return cachedDicomStore.getCachedListing().get(dicomPath, () -> new DirectoryListing.Entries()
+        .addFolders(cachedDicomStore.getCachedStudies().keySet(), ""));
+  }
+
+  /**
+   * Returns the listing of Series folders in the Study.
+   *
+   * @param studyFiles names of the files which belong to the Study
+   */
+  public DirectoryListing getStudyListing(DicomPath dicomPath, List<String> studyFiles)
+      throws DicomFuseException {
+    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
+    CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
+    return cachedStudy.getCachedListing().get(dicomPath, () -> {
+      DirectoryListing.Entries entries = new DirectoryListing.Entries()
+          .addFolders(cachedStudy.getCachedSeries().keySet(), "");
+      for (String studyFile : studyFiles) {
+        entries.addFile(studyFile);
+      }
+      return entries;
+    });
+  }
+
+  /**
+   * Returns the sorted Series Instance UIDs of the cached Series of the Study.
+   */
+  public List<String> getSeriesInstanceUIDs(DicomPath dicomPath) throws DicomFuseException {
+    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
+    List<String> seriesInstanceUIDs =
+        new ArrayList<>(getCachedStudy(cachedDicomStore, dicomPath).getCachedSeries().keySet());
+    Collections.sort(seriesInstanceUIDs);
+    return seriesInstanceUIDs;
+  }
+
+  /**
+   * Returns the listing of Instance files in the Series.
+   *
+   * @param framesFolders true if multi-frame Instances also get a folder with their frames
+   * @param seriesFiles names of the files which belong to the Series and not to an Instance
+   * @param fileSuffixes suffixes which are added to SOP Instance UIDs, each Instance gets a file
+   *     per suffix
+   */
+  public DirectoryListing getSeriesListing(DicomPath dicomPath, boolean framesFolders,
+      List<String> seriesFiles, String... fileSuffixes) throws DicomFuseException {
     CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
     CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
     CachedSeries cachedSeries = getCachedSeries(cachedStudy, dicomPath);
-    List<Instance> cachedInstancesList = new ArrayList<>();
-    for (InstanceContent instanceContent : cachedSeries.getCachedInstances().values()) {
-      cachedInstancesList.add(instanceContent.getInstance());
+    return cachedSeries.getCachedListing().get(dicomPath, () -> {
+      DirectoryListing.Entries entries = new DirectoryListing.Entries()
+          .addObjects(cachedSeries.getCachedInstances().getSopInstanceUIDs(), fileSuffixes);
+      if (framesFolders) {
+        entries.addFolders(cachedSeries.getCachedInstances().getMultiFrameInstances(),
+            DicomPath.FRAMES_FOLDER_SUFFIX);
+      }
+      for (String seriesFile : seriesFiles) {
+        entries.addFile(seriesFile);
+      }
+      return entries;
+    });
+  }
+
+  /**
+   * Returns the listing of the frame files of the Instance, the files are named by frame numbers.
+   */
+  public DirectoryListing getFramesListing(DicomPath dicomPath) throws DicomFuseException {
+    InstanceTable instanceTable = getInstanceTable(dicomPath);
+    String sopInstanceUID = dicomPath.getSopInstanceUID();
+    InstanceContent instanceContent = instanceTable.getInstanceContent(sopInstanceUID);
+    int numberOfFrames = instanceTable.getNumberOfFrames(sopInstanceUID);
+    if (instanceContent == null || numberOfFrames < 0) {
+      throw new DicomFuseException("null instance content - " + dicomPath);
     }
-    return cachedInstancesList;
+    return instanceContent.getFramesListing().get(dicomPath, () -> {
+      List<String> frameNumbers = new ArrayList<>(numberOfFrames);
+      for (int i = 1; i <= numberOfFrames; i++) {
+        frameNumbers.add(Integer.toString(i));
+      }
+      return frameNumbers;
+    }, "");
   }
 
+  /**
+   * Returns the SOP Instance UID of the Instance in the middle of the Series by Instance Number,
+   * or null if no Instances of the Series are cached.
+   */
+  public String getRepresentativeInstance(DicomPath dicomPath) throws DicomFuseException {
+    return getCachedInstances(dicomPath).getRepresentativeInstance();
+  }
+
+  /**
+   * Returns the SOP Instance UIDs of the cached Instances of the Series ordered by Instance Number
+   * and then by SOP Instance UID.
+   */
+  public List<String> getOrderedInstances(DicomPath dicomPath) throws DicomFuseException {
+    return getCachedInstances(dicomPath).getOrderedInstances();
+  }
+
+  /**
+   * Returns the number of frames of the Instance, or 0 if the Instance has no frames.
+   */
+  public int getNumberOfFrames(DicomPath dicomPath) throws DicomFuseException {
+    int numberOfFrames = getCachedInstances(dicomPath)
+        .getNumberOfFrames(dicomPath.getSopInstanceUID());
+    if (numberOfFrames < 0) {
+      throw new DicomFuseException("null instance content - " + dicomPath);
+    }
+    return numberOfFrames;
+  }
+
+  /**
+   * Appends the counts of the cached objects, the estimated size of the metadata and the counts
+   * of the evicted objects.
+   */
+  public void appendStats(StringBuilder stringBuilder) {
+    long studyCount = 0;
+    long seriesCount = 0;
+    long instanceCount = 0;
+    long size = 0;
+    for (CachedDicomStore cachedDicomStore : cachedDataset.getCachedDicomStores().values()) {
+      for (CachedStudy cachedStudy : cachedDicomStore.getCachedStudies().values()) {
+        studyCount++;
+        size += cachedStudy.getObjectSize();
+        for (CachedSeries cachedSeries : cachedStudy.getCachedSeries().values()) {
+          seriesCount++;
+          instanceCount += cachedSeries.getCachedInstances().size();
+          size += cachedSeries.estimateSize();
+        }
+      }
+    }
+    stringBuilder
+        .append("metadata_cache.dicom_stores ")
+        .append(cachedDataset.getCachedDicomStores().size()).append('\n')
+        .append("metadata_cache.studies ").append(studyCount).append('\n')
+        .append("metadata_cache.series ").append(seriesCount).append('\n')
+        .append("metadata_cache.instances ").append(instanceCount).append('\n')
+        .append("metadata_cache.size_bytes ").append(size).append('\n')
+        .append("metadata_cache.max_size_bytes ").append(maxSize).append('\n')
+        .append("metadata_cache.evicted_series ").append(evictedSeries.get()).append('\n')
+        .append("metadata_cache.evicted_studies ").append(evictedStudies.get()).append('\n');
+  }
+
+  /**
+   * Sets the maximum estimated heap size of the metadata which is kept by
+   * {@link #evictColdObjects}.
+   *
+   * @param maxSize size in bytes, 0 if the size is not limited
+   */
+  public void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Evicts the least recently accessed Series and Studies if the estimated size of the metadata
+   * exceeds the maximum size, until the size is a tenth below the maximum. An evicted Series
+   * keeps its folder but loses its Instances, an evicted Study loses its Series. Both are marked
+   * as outdated, so they are requested again on the next access, and the Instances of an evicted
+   * Series are requested at once on the next lookup of any of them. The objects which were accessed
+   * in the last 30 seconds or have Instances being written are not evicted.
+   */
+  public void evictColdObjects() {
+    evictColdObjects(System.nanoTime());
+  }
+
+  void evictColdObjects(long nanoTime) {
+    long maxSize = this.maxSize;
+    if (maxSize <= 0) {
+      return;
+    }
+    long size = 0;
+    List<ColdObject> coldObjects = new ArrayList<>();
+    for (CachedDicomStore cachedDicomStore : cachedDataset.getCachedDicomStores().values()) {
+      for (CachedStudy cachedStudy : cachedDicomStore.getCachedStudies().values()) {
+        size += cachedStudy.getObjectSize();
+        for (CachedSeries cachedSeries : cachedStudy.getCachedSeries().values()) {
+          size += cachedSeries.estimateSize();
+          if (cachedSeries.getCachedInstances().size() > 0) {
+            coldObjects.add(new ColdObject(cachedSeries.getAccessTime(), cachedStudy,
+                cachedSeries));
+          }
+        }
+        // a Study is accessed when its Series are accessed, so it is usually evicted after them
+        if (!cachedStudy.getCachedSeries().isEmpty()) {
+          coldObjects.add(new ColdObject(cachedStudy.getAccessTime(), cachedStudy, null));
+        }
+      }
+    }
+    if (size <= maxSize) {
+      return;
+    }
+    coldObjects.sort(Comparator.comparingLong(ColdObject::getAccessTime));
+    long targetSize = maxSize - maxSize / 10;
+    // the Series of the evicted Studies are already released
+    Set<CachedStudy> evictedStudySet = new HashSet<>();
+    for (ColdObject coldObject : coldObjects) {
+      if (size <= targetSize) {
+        break;
+      }
+      CachedSeries cachedSeries = coldObject.getCachedSeries();
+      CachedStudy cachedStudy = coldObject.getCachedStudy();
+      // the objects may be accessed during the eviction
+      long accessTime = cachedSeries != null ? cachedSeries.getAccessTime()
+          : cachedStudy.getAccessTime();
+      if (nanoTime - accessTime < MIN_IDLE_TIME || evictedStudySet.contains(cachedStudy)) {
+        continue;
+      }
+      if (cachedSeries != null) {
+        size -= evictSeries(cachedSeries);
+      } else {
+        long releasedSize = evictStudy(cachedStudy);
+        if (releasedSize > 0) {
+          evictedStudySet.add(cachedStudy);
+          size -= releasedSize;
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the Instances of the Series and returns the estimated size of the released memory.
+   */
+  private long evictSeries(CachedSeries cachedSeries) {
+    long size = cachedSeries.estimateSize();
+    if (!cachedSeries.getCachedInstances().evict()) {
+      return 0;
+    }
+    cachedSeries.setSeriesCacheTime(Instant.now());
+    cachedSeries.setRestored(false);
+    cachedSeries.setEvicted(true);
+    cachedSeries.getCachedListing().release();
+    evictedSeries.incrementAndGet();
+    return size - cachedSeries.estimateSize();
+  }
+
+  /**
+   * Removes the Series of the Study and returns the estimated size of the released memory.
+   */
+  private long evictStudy(CachedStudy cachedStudy) {
+    for (CachedSeries cachedSeries : cachedStudy.getCachedSeries().values()) {
+      if (cachedSeries.getCachedInstances().hasCommands()) {
+        return 0;
+      }
+    }
+    long size = cachedStudy.estimateSize();
+    // the removed Series may still be referenced by the cached attributes of getattr
+    for (CachedSeries cachedSeries : cachedStudy.getCachedSeries().values()) {
+      cachedSeries.getCachedInstances().evict();
+    }
+    cachedStudy.getCachedSeries().clear();
+    cachedStudy.setStudyCacheTime(Instant.now());
+    cachedStudy.setRestored(false);
+    cachedStudy.setEvicted(true);
+    cachedStudy.getCachedListing().release();
+    evictedStudies.incrementAndGet();
+    return size - cachedStudy.estimateSize();
+  }
+
+  public void invalidateDatasetListing() {
+    cachedDataset.getCachedListing().invalidate();
+  }
+
+  public void invalidateDicomStoreListing(DicomPath dicomPath) throws DicomFuseException {
+    getCachedDicomStore(dicomPath).getCachedListing().invalidate();
+  }
+
+  public void invalidateStudyListing(DicomPath dicomPath) throws DicomFuseException {
+    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
+    getCachedStudy(cachedDicomStore, dicomPath).getCachedListing().invalidate();
+  }
+
+  public void invalidateSeriesListing(DicomPath dicomPath) throws DicomFuseException {
+    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
+    CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
+    getCachedSeries(cachedStudy, dicomPath).getCachedListing().invalidate();
+  }
+
+  /**
+   * Removes the Study with its Series and Instances, and invalidates the listing of the DICOM
+   * Store.
+   */
+  public void removeStudy(DicomPath dicomPath) throws DicomFuseException {
+    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
+    cachedDicomStore.getCachedStudies().remove(dicomPath.getStudyInstanceUID());
+    cachedDicomStore.getCachedListing().invalidate();
+  }
+
+  /**
+   * Removes the Series with its Instances, and invalidates the listing of the Study.
+   */
+  public void removeSeries(DicomPath dicomPath) throws DicomFuseException {
+    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
+    CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
+    cachedStudy.getCachedSeries().remove(dicomPath.getSeriesInstanceUID());
+    cachedStudy.getCachedListing().invalidate();
+  }
+
+  /**
+   * Returns the state of the Instance or the temp file. The state of a cached Instance is created
+   * if the Instance has no state.
+   */
   public InstanceContent getInstanceContent(DicomPath dicomPath) throws DicomFuseException {
     DicomPathLevel dicomPathLevel = dicomPath.getDicomPathLevel();
-    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
     switch (dicomPathLevel) {
       case INSTANCE:
-        CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
-        CachedSeries cachedSeries = getCachedSeries(cachedStudy, dicomPath);
-        return getInstanceContent(cachedSeries, dicomPath);
+        InstanceContent instanceContent = getInstanceTable(dicomPath)
+            .getInstanceContent(dicomPath.getSopInstanceUID());
+        if (instanceContent == null) {
+          throw new DicomFuseException("null instance content - " + dicomPath);
+        }
+        return instanceContent;
       case TEMP_FILE_IN_DICOM_STORE:
       case TEMP_FILE_IN_SERIES:
-        return getTempInstanceContent(cachedDicomStore, dicomPath);
+        return getTempInstanceContent(getCachedDicomStore(dicomPath), dicomPath);
       default:
         throw new DicomFuseException("Invalid dicom path level - " + dicomPath);
     }
   }
 
   public long getInstanceSize(DicomPath dicomPath) throws DicomFuseException {
+    return getInstanceTable(dicomPath).getInstanceSize(dicomPath.getSopInstanceUID());
+  }
+
+  public void setInstanceSize(DicomPath dicomPath, long instanceSize) throws DicomFuseException {
+    getInstanceTable(dicomPath).setInstanceSize(dicomPath.getSopInstanceUID(), instanceSize);
+  }
+
+  public boolean isInstanceSizeRequested(DicomPath dicomPath) throws DicomFuseException {
+    return getInstanceTable(dicomPath).isSizeRequested(dicomPath.getSopInstanceUID());
+  }
+
+  public void setInstanceSizeRequested(DicomPath dicomPath, boolean sizeRequested)
+      throws DicomFuseException {
+    getInstanceTable(dicomPath).setSizeRequested(dicomPath.getSopInstanceUID(), sizeRequested);
+  }
+
+  /**
+   * Returns the modification time of the Study, Series or Instance. A Series or an Instance
+   * without a date gets the date of its parent. Returns null if there is no date.
+   */
+  public Instant getModificationTime(DicomPath dicomPath) throws DicomFuseException {
+    // virtual files and frames have the time of their Instances or Series
+    DicomPathLevel dicomPathLevel = getSourceLevel(dicomPath);
+    if (dicomPathLevel != DicomPathLevel.STUDY && dicomPathLevel != DicomPathLevel.SERIES
+        && dicomPathLevel != DicomPathLevel.INSTANCE) {
+      return null;
+    }
+    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
+    CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
+    Instant modificationTime = null;
+    if (dicomPathLevel == DicomPathLevel.INSTANCE) {
+      CachedSeries cachedSeries = getCachedSeries(cachedStudy, dicomPath);
+      modificationTime = getInstanceTable(dicomPath)
+          .getModificationTime(dicomPath.getSopInstanceUID());
+      if (modificationTime == null) {
+        modificationTime = cachedSeries.getModificationTime();
+      }
+    } else if (dicomPathLevel == DicomPathLevel.SERIES) {
+      modificationTime = getCachedSeries(cachedStudy, dicomPath).getModificationTime();
+    }
+    if (modificationTime == null) {
+      modificationTime = cachedStudy.getModificationTime();
+    }
+    return modificationTime;
+  }
+
+  /**
+   * Returns the attributes of the Study, Series or Instance sorted by tag. An Instance and a Series
+   * also get the attributes of their parents. Returns an empty map for other objects.
+   */
+  public SortedMap<String, String> getDicomAttributes(DicomPath dicomPath)
+      throws DicomFuseException {
+    // virtual files and frames have the attributes of their Instances or Series
+    DicomPathLevel dicomPathLevel = getSourceLevel(dicomPath);
+    SortedMap<String, String> attributes = new TreeMap<>();
+    if (dicomPathLevel != DicomPathLevel.STUDY && dicomPathLevel != DicomPathLevel.SERIES
+        && dicomPathLevel != DicomPathLevel.INSTANCE) {
+      return attributes;
+    }
     CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
     CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
+    cachedStudy.getStudy().addAttributes(attributes);
+    if (dicomPathLevel == DicomPathLevel.STUDY) {
+      return attributes;
+    }
     CachedSeries cachedSeries = getCachedSeries(cachedStudy, dicomPath);
-    return getInstanceContent(cachedSeries, dicomPath).getInstanceSize();
+    cachedSeries.getSeries().addAttributes(attributes);
+    if (dicomPathLevel == DicomPathLevel.INSTANCE) {
+      getInstanceTable(dicomPath).addAttributes(dicomPath.getSopInstanceUID(), attributes);
+    }
+    return attributes;
+  }
+
+  /**
+   * Returns the level of the object which the virtual file or the frame is generated from.
+   */
+  private static DicomPathLevel getSourceLevel(DicomPath dicomPath) {
+    switch (dicomPath.getDicomPathLevel()) {
+      case VIRTUAL_FILE:
+        return dicomPath.getVirtualFileType().getSourceLevel();
+      case FRAMES:
+      case FRAME:
+        return DicomPathLevel.INSTANCE;
+      default:
+        return dicomPath.getDicomPathLevel();
+    }
   }
 
   public Command getInstanceCommand(DicomPath dicomPath) throws DicomFuseException {
@@ -175,10 +665,10 @@ public class Cache {
     InstanceContent instanceContent;
     switch (dicomPathLevel) {
       case INSTANCE:
-        CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
-        CachedSeries cachedSeries = getCachedSeries(cachedStudy, dicomPath);
-        instanceContent = getInstanceContent(cachedSeries, dicomPath);
-        return instanceContent.getCommand();
+        // the Instances which were not written have no state
+        instanceContent = getInstanceTable(dicomPath)
+            .findInstanceContent(dicomPath.getSopInstanceUID());
+        return instanceContent == null ? null : instanceContent.getCommand();
       case TEMP_FILE_IN_DICOM_STORE:
       case TEMP_FILE_IN_SERIES:
         instanceContent = getTempInstanceContent(cachedDicomStore, dicomPath);
@@ -194,10 +684,13 @@ public class Cache {
     InstanceContent instanceContent;
     switch (dicomPathLevel) {
       case INSTANCE:
-        CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
-        CachedSeries cachedSeries = getCachedSeries(cachedStudy, dicomPath);
-        instanceContent = getInstanceContent(cachedSeries, dicomPath);
-        instanceContent.setCommand(command);
+        InstanceTable instanceTable = getInstanceTable(dicomPath);
+        instanceContent = command == null
+            ? instanceTable.findInstanceContent(dicomPath.getSopInstanceUID())
+            : instanceTable.getInstanceContent(dicomPath.getSopInstanceUID());
+        if (instanceContent != null) {
+          instanceContent.setCommand(command);
+        }
         break;
       case TEMP_FILE_IN_DICOM_STORE:
       case TEMP_FILE_IN_SERIES:
@@ -274,6 +767,47 @@ public class Cache {
         cachedSeries.getSeriesCacheTime().equals(instantNow);
   }
 
+  /**
+   * Returns true if the Dataset, DICOM Store, Study or Series of the path was loaded from the
+   * metadata index and was not requested from the server since. The flag is cleared, so the
+   * object is refreshed only once by the first caller.
+   */
+  public boolean clearRestored(DicomPath dicomPath) {
+    boolean restored;
+    switch (dicomPath.getDicomPathLevel()) {
+      case DATASET:
+        restored = cachedDataset.isRestored();
+        cachedDataset.setRestored(false);
+        return restored;
+      case DICOM_STORE:
+        CachedDicomStore cachedDicomStore = findCachedDicomStore(dicomPath);
+        if (cachedDicomStore == null) {
+          return false;
+        }
+        restored = cachedDicomStore.isRestored();
+        cachedDicomStore.setRestored(false);
+        return restored;
+      case STUDY:
+        CachedStudy cachedStudy = findCachedStudy(dicomPath);
+        if (cachedStudy == null) {
+          return false;
+        }
+        restored = cachedStudy.isRestored();
+        cachedStudy.setRestored(false);
+        return restored;
+      case SERIES:
+        CachedSeries cachedSeries = findCachedSeries(dicomPath);
+        if (cachedSeries == null) {
+          return false;
+        }
+        restored = cachedSeries.isRestored();
+        cachedSeries.setRestored(false);
+        return restored;
+      default:
+        return false;
+    }
+  }
+
   public boolean isDicomStoreNotExist(DicomPath dicomPath) {
     return !cachedDataset.getCachedDicomStores().containsKey(dicomPath.getDicomStoreId());
   }
@@ -296,7 +830,7 @@ public class Cache {
       case INSTANCE:
         CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
         CachedSeries cachedSeries = getCachedSeries(cachedStudy, dicomPath);
-        return !cachedSeries.getCachedInstances().containsKey(dicomPath.getSopInstanceUID());
+        return !cachedSeries.getCachedInstances().contains(dicomPath.getSopInstanceUID());
       case TEMP_FILE_IN_DICOM_STORE:
       case TEMP_FILE_IN_SERIES:
         return !cachedDicomStore.getCachedTempInstances()
@@ -329,8 +863,45 @@ public class Cache {
     cachedSeries.setSeriesCacheTime(instant);
   }
 
+  public void clearStudyEvicted(DicomPath dicomPath) throws DicomFuseException {
+    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
+    getCachedStudy(cachedDicomStore, dicomPath).setEvicted(false);
+  }
+
+  public void clearSeriesEvicted(DicomPath dicomPath) throws DicomFuseException {
+    CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
+    CachedStudy cachedStudy = getCachedStudy(cachedDicomStore, dicomPath);
+    getCachedSeries(cachedStudy, dicomPath).setEvicted(false);
+  }
+
   public AtomicLong getOffset(DicomPath dicomPath) throws DicomFuseException {
     CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
     return getTempInstanceContent(cachedDicomStore, dicomPath).getOffset();
   }
+
+  private static class ColdObject {
+
+    private final long accessTime;
+    private final CachedStudy cachedStudy;
+    // null if the whole Study is evicted
+    private final CachedSeries cachedSeries;
+
+    ColdObject(long accessTime, CachedStudy cachedStudy, CachedSeries cachedSeries) {
+      this.accessTime = accessTime;
+      this.cachedStudy = cachedStudy;
+      this.cachedSeries = cachedSeries;
+    }
+
+    long getAccessTime() {
+      return accessTime;
+    }
+
+    CachedStudy getCachedStudy() {
+      return cachedStudy;
+    }
+
+    CachedSeries getCachedSeries() {
+      return cachedSeries;
+    }
+  }
 }
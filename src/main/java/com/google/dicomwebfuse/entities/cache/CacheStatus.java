@@ -0,0 +1,27 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+/**
+ * Result of a lookup of an object in the {@link Cache}.
+ */
+public enum CacheStatus {
+  // the object is cached
+  CACHED,
+  // the object isn't cached, but its parent folder is, so the object can be requested
+  PARENT_CACHED,
+  // neither the object nor its parent folder is cached
+  NOT_CACHED
+}
@@ -21,6 +21,9 @@ public class CachedDataset {
 
   private ConcurrentHashMap<String, CachedDicomStore> cachedDicomStores; // key - dicomStoreId
   private Instant datasetCacheTime;
+  private final CachedListing cachedListing = new CachedListing();
+  // true if the object was loaded from the metadata index and was not requested since
+  private volatile boolean restored;
 
   public CachedDataset() {
     cachedDicomStores = new ConcurrentHashMap<>();
@@ -38,4 +41,16 @@ public class CachedDataset {
   public void setDatasetCacheTime(Instant datasetCacheTime) {
     this.datasetCacheTime = datasetCacheTime;
   }
+
+  public CachedListing getCachedListing() {
+    return cachedListing;
+  }
+
+  public boolean isRestored() {
+    return restored;
+  }
+
+  public void setRestored(boolean restored) {
+    this.restored = restored;
+  }
 }
@@ -24,6 +24,9 @@ public class CachedDicomStore {
   private ConcurrentHashMap<String, CachedStudy> cachedStudies; // key - studyInstanceUID
   private Instant dicomStoreCacheTime;
   private ConcurrentHashMap<String, InstanceContent> cachedTempInstances; // key - sopInstanceUID
+  private final CachedListing cachedListing = new CachedListing();
+  // true if the object was loaded from the metadata index and was not requested since
+  private volatile boolean restored;
 
   public CachedDicomStore(DicomStore dicomStore) {
     this.dicomStore = dicomStore;
@@ -56,4 +59,16 @@ public class CachedDicomStore {
       InstanceContent> cachedTempInstances) {
     this.cachedTempInstances = cachedTempInstances;
   }
+
+  public CachedListing getCachedListing() {
+    return cachedListing;
+  }
+
+  public boolean isRestored() {
+    return restored;
+  }
+
+  public void setRestored(boolean restored) {
+    this.restored = restored;
+  }
 }
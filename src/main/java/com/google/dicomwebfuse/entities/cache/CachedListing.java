@@ -0,0 +1,64 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the listing of a cached folder until the content of the folder is changed.
+ */
+public class CachedListing {
+
+  private final AtomicLong version = new AtomicLong();
+  private volatile DirectoryListing directoryListing;
+
+  /**
+   * Returns the current listing or builds a new one from the IDs of the objects in the folder.
+   */
+  DirectoryListing get(DicomPath dicomPath, Supplier<Collection<String>> entryIds,
+      String... suffixes) {
+    return get(dicomPath,
+        () -> new DirectoryListing.Entries().addObjects(entryIds.get(), suffixes));
+  }
+
+  /**
+   * Returns the current listing or builds a new one from the entries.
+   */
+  DirectoryListing get(DicomPath dicomPath, Supplier<DirectoryListing.Entries> entries) {
+    long currentVersion = version.get();
+    DirectoryListing listing = directoryListing;
+    if (listing == null || listing.getVersion() != currentVersion) {
+      // if the folder is changed during building, the listing will be rebuilt on the next call
+      listing = new DirectoryListing(dicomPath, entries.get(), currentVersion);
+      directoryListing = listing;
+    }
+    return listing;
+  }
+
+  void invalidate() {
+    version.incrementAndGet();
+  }
+
+  /**
+   * Invalidates the listing and releases its memory.
+   */
+  void release() {
+    version.incrementAndGet();
+    directoryListing = null;
+  }
+}
@@ -14,27 +14,43 @@
 
 package com.google.dicomwebfuse.entities.cache;
 
+import com.google.dicomwebfuse.entities.DicomDateTime;
 import com.google.dicomwebfuse.entities.Series;
 import java.time.Instant;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class CachedSeries {
 
   private final Series series;
-  private ConcurrentHashMap<String, InstanceContent> cachedInstances; //key - sopInstanceUID
+  // null if the object has no date
+  private final Instant modificationTime;
+  private final InstanceTable cachedInstances = new InstanceTable();
   private Instant seriesCacheTime;
+  private final CachedListing cachedListing = new CachedListing();
+  // true if the object was loaded from the metadata index and was not requested since
+  private volatile boolean restored;
+  // true if the Instances were evicted and were not requested since
+  private volatile boolean evicted;
+  // estimated heap size of the Series without its Instances
+  private final long objectSize;
+  // in System.nanoTime, the least recently accessed Series are evicted first
+  private volatile long accessTime = System.nanoTime();
 
   public CachedSeries(Series series) {
     this.series = series;
-    cachedInstances = new ConcurrentHashMap<>();
+    modificationTime = DicomDateTime.toInstant(series.getSeriesDate(), series.getSeriesTime());
     seriesCacheTime = Instant.now();
+    objectSize = HeapSize.of(series);
   }
 
   public Series getSeries() {
     return series;
   }
 
-  public ConcurrentHashMap<String, InstanceContent> getCachedInstances() {
+  public Instant getModificationTime() {
+    return modificationTime;
+  }
+
+  public InstanceTable getCachedInstances() {
     return cachedInstances;
   }
 
@@ -45,4 +61,39 @@ public class CachedSeries {
   public void setSeriesCacheTime(Instant cachedTime) {
     this.seriesCacheTime = cachedTime;
   }
+
+  public CachedListing getCachedListing() {
+    return cachedListing;
+  }
+
+  public boolean isRestored() {
+    return restored;
+  }
+
+  public void setRestored(boolean restored) {
+    this.restored = restored;
+  }
+
+  public boolean isEvicted() {
+    return evicted;
+  }
+
+  public void setEvicted(boolean evicted) {
+    this.evicted = evicted;
+  }
+
+  long getAccessTime() {
+    return accessTime;
+  }
+
+  public void touch() {
+    accessTime = System.nanoTime();
+  }
+
+  /**
+   * Returns the estimated heap size of the Series with its Instances in bytes.
+   */
+  long estimateSize() {
+    return objectSize + cachedInstances.estimateSize();
+  }
 }
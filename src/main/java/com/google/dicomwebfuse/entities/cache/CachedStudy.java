@@ -14,6 +14,7 @@
 
 package com.google.dicomwebfuse.entities.cache;
 
+import com.google.dicomwebfuse.entities.DicomDateTime;
 import com.google.dicomwebfuse.entities.Study;
 import java.time.Instant;
 import java.util.concurrent.ConcurrentHashMap;
@@ -21,19 +22,36 @@ import java.util.concurrent.ConcurrentHashMap;
 public class CachedStudy {
 
   private final Study study;
+  // null if the object has no date
+  private final Instant modificationTime;
   private ConcurrentHashMap<String, CachedSeries> cachedSeries; // key - seriesInstanceUID
   private Instant studyCacheTime;
+  private final CachedListing cachedListing = new CachedListing();
+  // true if the object was loaded from the metadata index and was not requested since
+  private volatile boolean restored;
+  // true if the Series were evicted and were not requested since
+  private volatile boolean evicted;
+  // estimated heap size of the Study without its Series
+  private final long objectSize;
+  // in System.nanoTime, the least recently accessed Studies are evicted first
+  private volatile long accessTime = System.nanoTime();
 
   public CachedStudy(Study study) {
     this.study = study;
+    modificationTime = DicomDateTime.toInstant(study.getStudyDate(), study.getStudyTime());
     cachedSeries = new ConcurrentHashMap<>();
     studyCacheTime = Instant.now();
+    objectSize = HeapSize.of(study);
   }
 
   public Study getStudy() {
     return study;
   }
 
+  public Instant getModificationTime() {
+    return modificationTime;
+  }
+
   public ConcurrentHashMap<String, CachedSeries> getCachedSeries() {
     return cachedSeries;
   }
@@ -45,4 +63,47 @@ public class CachedStudy {
   public void setStudyCacheTime(Instant studyCacheTime) {
     this.studyCacheTime = studyCacheTime;
   }
+
+  public CachedListing getCachedListing() {
+    return cachedListing;
+  }
+
+  public boolean isRestored() {
+    return restored;
+  }
+
+  public void setRestored(boolean restored) {
+    this.restored = restored;
+  }
+
+  public boolean isEvicted() {
+    return evicted;
+  }
+
+  public void setEvicted(boolean evicted) {
+    this.evicted = evicted;
+  }
+
+  long getAccessTime() {
+    return accessTime;
+  }
+
+  public void touch() {
+    accessTime = System.nanoTime();
+  }
+
+  long getObjectSize() {
+    return objectSize;
+  }
+
+  /**
+   * Returns the estimated heap size of the Study with its Series in bytes.
+   */
+  long estimateSize() {
+    long size = objectSize;
+    for (CachedSeries series : cachedSeries.values()) {
+      size += series.estimateSize();
+    }
+    return size;
+  }
 }
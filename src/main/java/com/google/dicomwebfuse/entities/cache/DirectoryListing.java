@@ -0,0 +1,171 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.Inodes;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable sorted snapshot of the entry names in a cached folder. The names are packed as
+ * null-terminated UTF-8 strings into one direct buffer, so they can be passed to FUSE without
+ * encoding. The inode numbers of the entries are computed once per snapshot.
+ */
+public class DirectoryListing {
+
+  private static final byte[] CURRENT_FOLDER = ".".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] PARENT_FOLDER = "..".getBytes(StandardCharsets.UTF_8);
+  private final ByteBuffer names;
+  // the name of the entry is between its offset and the offset of the next entry
+  private final int[] nameOffsets;
+  private final long[] inodes;
+  // subfolders in a listing of files, "." and ".." are always folders
+  private final boolean[] folders;
+  private final long version;
+
+  DirectoryListing(DicomPath dicomPath, Entries entries, long version) {
+    int count = entries.names.size();
+    Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparing(entries.names::get));
+    byte[][] encodedNames = new byte[count + 2][];
+    inodes = new long[count + 2];
+    folders = new boolean[count + 2];
+    encodedNames[0] = CURRENT_FOLDER;
+    encodedNames[1] = PARENT_FOLDER;
+    inodes[0] = Inodes.getInode(dicomPath);
+    inodes[1] = Inodes.getParentInode(dicomPath);
+    folders[0] = true;
+    folders[1] = true;
+    for (int i = 0; i < count; i++) {
+      int entry = order[i];
+      encodedNames[i + 2] = entries.names.get(entry).getBytes(StandardCharsets.UTF_8);
+      inodes[i + 2] = Inodes.getChildInode(dicomPath, entries.inodeKeys.get(entry));
+      folders[i + 2] = entries.folders.get(entry);
+    }
+    nameOffsets = new int[count + 3];
+    for (int i = 0; i < encodedNames.length; i++) {
+      nameOffsets[i + 1] = nameOffsets[i] + encodedNames[i].length + 1;
+    }
+    ByteBuffer packedNames = ByteBuffer.allocateDirect(nameOffsets[count + 2]);
+    for (byte[] encodedName : encodedNames) {
+      packedNames.put(encodedName).put((byte) 0);
+    }
+    packedNames.flip();
+    names = packedNames.asReadOnlyBuffer();
+    this.version = version;
+  }
+
+  /**
+   * Returns the listing of a folder which contains only files, like the control folder.
+   */
+  public static DirectoryListing ofFiles(DicomPath dicomPath, Collection<String> fileNames) {
+    Entries entries = new Entries();
+    for (String fileName : fileNames) {
+      entries.addFile(fileName);
+    }
+    return new DirectoryListing(dicomPath, entries, 0);
+  }
+
+  /**
+   * Returns the count of the entries including "." and "..".
+   */
+  public int size() {
+    return inodes.length;
+  }
+
+  /**
+   * Returns a view of the packed entry names for one reader, the view is positioned at an entry
+   * by {@link #getName}.
+   */
+  public ByteBuffer getNames() {
+    return names.duplicate();
+  }
+
+  /**
+   * Positions the view of the names at the encoded name of the entry and returns it. Entries 0
+   * and 1 are "." and "..".
+   */
+  public ByteBuffer getName(ByteBuffer nameView, int index) {
+    // the limit is set first, so the position never exceeds it
+    nameView.limit(nameOffsets[index + 1]);
+    nameView.position(nameOffsets[index]);
+    return nameView;
+  }
+
+  public long getInode(int index) {
+    return inodes[index];
+  }
+
+  public boolean isFolder(int index) {
+    return folders[index];
+  }
+
+  long getVersion() {
+    return version;
+  }
+
+  /**
+   * Entries of a folder which a listing is built from.
+   */
+  static class Entries {
+
+    private final List<String> names = new ArrayList<>();
+    // IDs or names which the inode numbers are derived from
+    private final List<String> inodeKeys = new ArrayList<>();
+    private final BitSet folders = new BitSet();
+
+    /**
+     * Adds an entry per suffix for each object. The ID of the object is the inode key of the first
+     * entry, the other entries are keyed by their names.
+     */
+    Entries addObjects(Collection<String> ids, String... suffixes) {
+      for (String id : ids) {
+        for (int i = 0; i < suffixes.length; i++) {
+          names.add(id + suffixes[i]);
+          inodeKeys.add(i == 0 ? id : id + suffixes[i]);
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Adds a subfolder for each object.
+     */
+    Entries addFolders(Collection<String> ids, String suffix) {
+      for (String id : ids) {
+        folders.set(names.size());
+        names.add(id + suffix);
+        inodeKeys.add(id + suffix);
+      }
+      return this;
+    }
+
+    Entries addFile(String name) {
+      names.add(name);
+      inodeKeys.add(name);
+      return this;
+    }
+  }
+}
@@ -0,0 +1,57 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+import com.google.dicomwebfuse.entities.DicomObject;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Estimates the heap size of the cached metadata for a 64-bit JVM with compressed references. The
+ * estimates don't have to be exact, they are used to compare the size with the limit of the
+ * metadata cache.
+ */
+final class HeapSize {
+
+  // the cached object with its maps, listing and times
+  static final long CACHED_OBJECT = 512;
+  private static final long ARRAY_HEADER = 16;
+  // a map entry with the key and the value strings without their characters
+  private static final long ATTRIBUTE = 120;
+
+  private HeapSize() {
+  }
+
+  static long ofArray(byte[] array) {
+    return array == null ? 0 : align(ARRAY_HEADER + array.length);
+  }
+
+  /**
+   * Returns the estimated size of the Study or the Series with its attributes.
+   */
+  static long of(DicomObject dicomObject) {
+    Map<String, String> attributes = new HashMap<>();
+    dicomObject.addAttributes(attributes);
+    long size = CACHED_OBJECT;
+    for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+      size += ATTRIBUTE + attribute.getKey().length() + attribute.getValue().length();
+    }
+    return size;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7;
+  }
+}
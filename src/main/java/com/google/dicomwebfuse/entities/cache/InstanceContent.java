@@ -15,32 +15,25 @@
 package com.google.dicomwebfuse.entities.cache;
 
 import com.google.dicomwebfuse.fuse.Command;
-import com.google.dicomwebfuse.entities.Instance;
+import java.time.Instant;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Mutable state of a temp file or of a cached Instance. The cached Instances get the state only
+ * when they are written or their frames are listed, see {@link InstanceTable}.
+ */
 public class InstanceContent {
 
-  private final Instance instance;
+  private final CachedListing framesListing = new CachedListing();
   // offset for macOS for to prevent the following error:
   // https://github.com/osxfuse/osxfuse/issues/587
   private final AtomicLong offset = new AtomicLong();
-  private long instanceSize;
   private volatile Command command;
+  // the last time when the size was reported as 0 before the Instance was downloaded
+  private volatile Instant unknownSizeReportTime;
 
-  public InstanceContent(Instance instance) {
-    this.instance = instance;
-  }
-
-  public Instance getInstance() {
-    return instance;
-  }
-
-  public long getInstanceSize() {
-    return instanceSize;
-  }
-
-  public void setInstanceSize(long instanceSize) {
-    this.instanceSize = instanceSize;
+  CachedListing getFramesListing() {
+    return framesListing;
   }
 
   public Command getCommand() {
@@ -51,6 +44,14 @@ public class InstanceContent {
     this.command = command;
   }
 
+  public Instant getUnknownSizeReportTime() {
+    return unknownSizeReportTime;
+  }
+
+  public void setUnknownSizeReportTime(Instant unknownSizeReportTime) {
+    this.unknownSizeReportTime = unknownSizeReportTime;
+  }
+
   public AtomicLong getOffset() {
     return offset;
   }
@@ -0,0 +1,484 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+import com.google.dicomwebfuse.entities.DicomAttribute;
+import com.google.dicomwebfuse.entities.DicomDateTime;
+import com.google.dicomwebfuse.entities.Instance;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Instances of a Series kept in flat arrays, one element per Instance. SOP Instance UIDs and
+ * attributes are packed by {@link PackedUid}, and the Instances are found by an open addressing
+ * index of the UIDs. Only the Instances which are written or whose frames are listed get an
+ * {@link InstanceContent} with the mutable state.
+ */
+public class InstanceTable {
+
+  private static final int INITIAL_CAPACITY = 4;
+  private static final long NO_TIME = Long.MIN_VALUE;
+  private static final String SOP_INSTANCE_UID_TAG = "00080018";
+  // the UIDs of the Study and the Series are the same for all Instances and are taken from the
+  // Series
+  private static final String STUDY_INSTANCE_UID_TAG = "0020000D";
+  private static final String SERIES_INSTANCE_UID_TAG = "0020000E";
+  // the table with its arrays and the state map
+  private static final long TABLE_SIZE = 256;
+  // the elements of the columns of an Instance without the packed values
+  private static final long COLUMNS_SIZE = 45;
+  private static final long INSTANCE_CONTENT_SIZE = 200;
+
+  private byte[][] sopInstanceUIDs = new byte[INITIAL_CAPACITY][];
+  private int[] hashCodes = new int[INITIAL_CAPACITY];
+  private byte[][] attributes = new byte[INITIAL_CAPACITY][];
+  // 0 if the Instance has no number
+  private int[] instanceNumbers = new int[INITIAL_CAPACITY];
+  // 0 if the Instance has no frames
+  private int[] numbersOfFrames = new int[INITIAL_CAPACITY];
+  // in microseconds, NO_TIME if the Instance has no date
+  private long[] modificationTimes = new long[INITIAL_CAPACITY];
+  private long[] instanceSizes = new long[INITIAL_CAPACITY];
+  // true if the size was requested from the server, the size may still be unknown
+  private boolean[] sizesRequested = new boolean[INITIAL_CAPACITY];
+  private int size;
+  // positions of the Instances + 1, 0 - empty slot
+  private int[] index = new int[INITIAL_CAPACITY * 2];
+  // estimated heap size of the packed UIDs and attributes
+  private long packedSize;
+  // the Instance shown by the Series preview, null if it has to be chosen again
+  private String representativeInstance;
+  private final ConcurrentHashMap<String, InstanceContent> instanceContents =
+      new ConcurrentHashMap<>(); // key - sopInstanceUID
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public synchronized boolean contains(String sopInstanceUID) {
+    return indexOf(sopInstanceUID) >= 0;
+  }
+
+  /**
+   * Adds the Instance or replaces the Instance with the same SOP Instance UID. The size of a
+   * replaced Instance is requested again.
+   */
+  public synchronized void put(Instance instance) {
+    String sopInstanceUID = instance.getSopInstanceUID().getValue1();
+    int position = indexOf(sopInstanceUID);
+    int instanceNumber = parseInteger(instance.getInstanceNumber());
+    if (position < 0) {
+      position = add(sopInstanceUID);
+      representativeInstance = null;
+    } else if (instanceNumbers[position] != instanceNumber) {
+      representativeInstance = null;
+    }
+    Map<String, String> instanceAttributes = new HashMap<>();
+    instance.addAttributes(instanceAttributes);
+    instanceAttributes.remove(SOP_INSTANCE_UID_TAG);
+    instanceAttributes.remove(STUDY_INSTANCE_UID_TAG);
+    instanceAttributes.remove(SERIES_INSTANCE_UID_TAG);
+    packedSize -= HeapSize.ofArray(attributes[position]);
+    attributes[position] = PackedAttributes.pack(instanceAttributes);
+    packedSize += HeapSize.ofArray(attributes[position]);
+    instanceNumbers[position] = instanceNumber;
+    numbersOfFrames[position] = parseInteger(instance.getNumberOfFrames());
+    Instant modificationTime = DicomDateTime.toInstant(instance.getInstanceCreationDate(),
+        instance.getInstanceCreationTime());
+    modificationTimes[position] = modificationTime == null ? NO_TIME
+        : ChronoUnit.MICROS.between(Instant.EPOCH, modificationTime);
+    instanceSizes[position] = 0;
+    sizesRequested[position] = false;
+  }
+
+  private static int parseInteger(DicomAttribute<Object> attribute) {
+    if (attribute == null || attribute.getValue() == null || attribute.getValue().length == 0
+        || attribute.getValue1() == null) {
+      return 0;
+    }
+    // IS values may be returned as numbers or as strings
+    try {
+      return Math.max(Integer.parseInt(attribute.getValue1().toString().trim()), 0);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  public synchronized boolean remove(String sopInstanceUID) {
+    int position = indexOf(sopInstanceUID);
+    if (position < 0) {
+      return false;
+    }
+    removeAt(position);
+    return true;
+  }
+
+  /**
+   * Removes the Instances which are not in the set.
+   *
+   * @return true if any Instance was removed
+   */
+  public synchronized boolean retainAll(Set<String> sopInstanceUIDs) {
+    boolean removed = false;
+    for (int position = size - 1; position >= 0; position--) {
+      if (!sopInstanceUIDs.contains(PackedUid.unpack(this.sopInstanceUIDs[position]))) {
+        removeAt(position);
+        removed = true;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Returns true if any Instance is being written.
+   */
+  public boolean hasCommands() {
+    for (InstanceContent instanceContent : instanceContents.values()) {
+      if (instanceContent.getCommand() != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes all Instances with their state unless any Instance is being written, and releases the
+   * memory of the table.
+   *
+   * @return true if the Instances were removed
+   */
+  synchronized boolean evict() {
+    if (hasCommands()) {
+      return false;
+    }
+    sopInstanceUIDs = new byte[INITIAL_CAPACITY][];
+    hashCodes = new int[INITIAL_CAPACITY];
+    attributes = new byte[INITIAL_CAPACITY][];
+    instanceNumbers = new int[INITIAL_CAPACITY];
+    numbersOfFrames = new int[INITIAL_CAPACITY];
+    modificationTimes = new long[INITIAL_CAPACITY];
+    instanceSizes = new long[INITIAL_CAPACITY];
+    sizesRequested = new boolean[INITIAL_CAPACITY];
+    size = 0;
+    index = new int[INITIAL_CAPACITY * 2];
+    packedSize = 0;
+    representativeInstance = null;
+    instanceContents.clear();
+    return true;
+  }
+
+  /**
+   * Returns the estimated heap size of the table in bytes.
+   */
+  synchronized long estimateSize() {
+    return TABLE_SIZE + sopInstanceUIDs.length * COLUMNS_SIZE + index.length * 4L + packedSize
+        + instanceContents.size() * INSTANCE_CONTENT_SIZE;
+  }
+
+  public synchronized List<String> getSopInstanceUIDs() {
+    List<String> uids = new ArrayList<>(size);
+    for (int position = 0; position < size; position++) {
+      uids.add(PackedUid.unpack(sopInstanceUIDs[position]));
+    }
+    return uids;
+  }
+
+  /**
+   * Returns the SOP Instance UIDs of the Instances with more than one frame.
+   */
+  public synchronized Collection<String> getMultiFrameInstances() {
+    List<String> uids = new ArrayList<>();
+    for (int position = 0; position < size; position++) {
+      if (numbersOfFrames[position] > 1) {
+        uids.add(PackedUid.unpack(sopInstanceUIDs[position]));
+      }
+    }
+    return uids;
+  }
+
+  /**
+   * Returns the SOP Instance UIDs ordered by Instance Number and then by SOP Instance UID.
+   */
+  public synchronized List<String> getOrderedInstances() {
+    Integer[] positions = new Integer[size];
+    for (int position = 0; position < size; position++) {
+      positions[position] = position;
+    }
+    Arrays.sort(positions, (position1, position2) -> {
+      int result = Integer.compare(instanceNumbers[position1], instanceNumbers[position2]);
+      if (result != 0) {
+        return result;
+      }
+      return PackedUid.compare(sopInstanceUIDs[position1], sopInstanceUIDs[position2]);
+    });
+    List<String> uids = new ArrayList<>(size);
+    for (Integer position : positions) {
+      uids.add(PackedUid.unpack(sopInstanceUIDs[position]));
+    }
+    return uids;
+  }
+
+  /**
+   * Returns the SOP Instance UID of the Instance in the middle of the Series by Instance Number,
+   * or null if the table is empty. The Instance is chosen once until the Instances change.
+   */
+  public synchronized String getRepresentativeInstance() {
+    if (representativeInstance == null && size > 0) {
+      List<String> instances = getOrderedInstances();
+      representativeInstance = instances.get(instances.size() / 2);
+    }
+    return representativeInstance;
+  }
+
+  /**
+   * Returns the number of frames of the Instance, 0 if the Instance has no frames, or -1 if the
+   * Instance is not in the table.
+   */
+  public synchronized int getNumberOfFrames(String sopInstanceUID) {
+    int position = indexOf(sopInstanceUID);
+    return position < 0 ? -1 : numbersOfFrames[position];
+  }
+
+  /**
+   * Returns the creation time of the Instance, or null if the Instance has no date or is not in
+   * the table.
+   */
+  public synchronized Instant getModificationTime(String sopInstanceUID) {
+    int position = indexOf(sopInstanceUID);
+    if (position < 0 || modificationTimes[position] == NO_TIME) {
+      return null;
+    }
+    return Instant.EPOCH.plus(modificationTimes[position], ChronoUnit.MICROS);
+  }
+
+  /**
+   * Returns the size of the Instance, 0 if the size is unknown or the Instance is not in the
+   * table.
+   */
+  public synchronized long getInstanceSize(String sopInstanceUID) {
+    int position = indexOf(sopInstanceUID);
+    return position < 0 ? 0 : instanceSizes[position];
+  }
+
+  public synchronized void setInstanceSize(String sopInstanceUID, long instanceSize) {
+    int position = indexOf(sopInstanceUID);
+    if (position >= 0) {
+      instanceSizes[position] = instanceSize;
+    }
+  }
+
+  public synchronized boolean isSizeRequested(String sopInstanceUID) {
+    int position = indexOf(sopInstanceUID);
+    return position >= 0 && sizesRequested[position];
+  }
+
+  public synchronized void setSizeRequested(String sopInstanceUID, boolean sizeRequested) {
+    int position = indexOf(sopInstanceUID);
+    if (position >= 0) {
+      sizesRequested[position] = sizeRequested;
+    }
+  }
+
+  /**
+   * Adds the attributes of the Instance as formatted values to the map, key - tag.
+   */
+  public synchronized void addAttributes(String sopInstanceUID, Map<String, String> attributes) {
+    int position = indexOf(sopInstanceUID);
+    if (position >= 0) {
+      PackedAttributes.unpack(this.attributes[position], attributes);
+      attributes.put(SOP_INSTANCE_UID_TAG, sopInstanceUID);
+    }
+  }
+
+  /**
+   * Returns the mutable state of the Instance, or null if the Instance has no state.
+   */
+  public InstanceContent findInstanceContent(String sopInstanceUID) {
+    return instanceContents.get(sopInstanceUID);
+  }
+
+  /**
+   * Returns the mutable state of the Instance and creates it if the Instance has no state, or
+   * returns null if the Instance is not in the table.
+   */
+  public synchronized InstanceContent getInstanceContent(String sopInstanceUID) {
+    if (indexOf(sopInstanceUID) < 0) {
+      return null;
+    }
+    return instanceContents.computeIfAbsent(sopInstanceUID, uid -> new InstanceContent());
+  }
+
+  /**
+   * Writes the Instances to the metadata index. The mutable state of the Instances is not written.
+   */
+  synchronized void writeTo(DataOutputStream outputStream) throws IOException {
+    outputStream.writeInt(size);
+    for (int position = 0; position < size; position++) {
+      MetadataIndex.writeBytes(outputStream, sopInstanceUIDs[position]);
+      MetadataIndex.writeBytes(outputStream, attributes[position]);
+      outputStream.writeInt(instanceNumbers[position]);
+      outputStream.writeInt(numbersOfFrames[position]);
+      outputStream.writeLong(modificationTimes[position]);
+      outputStream.writeLong(instanceSizes[position]);
+      outputStream.writeBoolean(sizesRequested[position]);
+    }
+  }
+
+  /**
+   * Reads the Instances written by {@link #writeTo} into the empty table. The packed values are
+   * copied as they are, and the index is built once for all Instances.
+   */
+  synchronized void readFrom(ByteBuffer buffer) {
+    if (size != 0) {
+      throw new IllegalStateException("Invalid Instance table");
+    }
+    int count = MetadataIndex.readCount(buffer, MetadataIndex.MIN_INSTANCE_BYTES);
+    int capacity = Math.max(count, INITIAL_CAPACITY);
+    sopInstanceUIDs = new byte[capacity][];
+    hashCodes = new int[capacity];
+    attributes = new byte[capacity][];
+    instanceNumbers = new int[capacity];
+    numbersOfFrames = new int[capacity];
+    modificationTimes = new long[capacity];
+    instanceSizes = new long[capacity];
+    sizesRequested = new boolean[capacity];
+    for (int position = 0; position < count; position++) {
+      sopInstanceUIDs[position] = MetadataIndex.readBytes(buffer);
+      hashCodes[position] = PackedUid.hashCode(sopInstanceUIDs[position]);
+      attributes[position] = MetadataIndex.readBytes(buffer);
+      instanceNumbers[position] = buffer.getInt();
+      numbersOfFrames[position] = buffer.getInt();
+      modificationTimes[position] = buffer.getLong();
+      instanceSizes[position] = buffer.getLong();
+      sizesRequested[position] = buffer.get() != 0;
+      packedSize += HeapSize.ofArray(sopInstanceUIDs[position])
+          + HeapSize.ofArray(attributes[position]);
+    }
+    size = count;
+    representativeInstance = null;
+    rebuildIndex(Integer.highestOneBit(capacity * 2 - 1) * 2);
+  }
+
+  private int indexOf(String sopInstanceUID) {
+    int mask = index.length - 1;
+    for (int slot = mix(sopInstanceUID.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+      int position = index[slot] - 1;
+      if (position < 0) {
+        return -1;
+      }
+      if (PackedUid.equals(sopInstanceUIDs[position], sopInstanceUID)) {
+        return position;
+      }
+    }
+  }
+
+  private int add(String sopInstanceUID) {
+    if (size == sopInstanceUIDs.length) {
+      int capacity = size * 2;
+      sopInstanceUIDs = Arrays.copyOf(sopInstanceUIDs, capacity);
+      hashCodes = Arrays.copyOf(hashCodes, capacity);
+      attributes = Arrays.copyOf(attributes, capacity);
+      instanceNumbers = Arrays.copyOf(instanceNumbers, capacity);
+      numbersOfFrames = Arrays.copyOf(numbersOfFrames, capacity);
+      modificationTimes = Arrays.copyOf(modificationTimes, capacity);
+      instanceSizes = Arrays.copyOf(instanceSizes, capacity);
+      sizesRequested = Arrays.copyOf(sizesRequested, capacity);
+    }
+    // the index is kept at most half full
+    if ((size + 1) * 2 > index.length) {
+      rebuildIndex(index.length * 2);
+    }
+    int position = size++;
+    sopInstanceUIDs[position] = PackedUid.pack(sopInstanceUID);
+    packedSize += HeapSize.ofArray(sopInstanceUIDs[position]);
+    hashCodes[position] = sopInstanceUID.hashCode();
+    insertIntoIndex(position);
+    return position;
+  }
+
+  private void removeAt(int position) {
+    representativeInstance = null;
+    instanceContents.remove(PackedUid.unpack(sopInstanceUIDs[position]));
+    packedSize -= HeapSize.ofArray(sopInstanceUIDs[position])
+        + HeapSize.ofArray(attributes[position]);
+    removeFromIndex(position);
+    int last = size - 1;
+    if (position != last) {
+      // the last Instance is moved to the free position
+      removeFromIndex(last);
+      sopInstanceUIDs[position] = sopInstanceUIDs[last];
+      hashCodes[position] = hashCodes[last];
+      attributes[position] = attributes[last];
+      instanceNumbers[position] = instanceNumbers[last];
+      numbersOfFrames[position] = numbersOfFrames[last];
+      modificationTimes[position] = modificationTimes[last];
+      instanceSizes[position] = instanceSizes[last];
+      sizesRequested[position] = sizesRequested[last];
+      insertIntoIndex(position);
+    }
+    sopInstanceUIDs[last] = null;
+    attributes[last] = null;
+    size--;
+  }
+
+  private void rebuildIndex(int length) {
+    index = new int[length];
+    for (int position = 0; position < size; position++) {
+      insertIntoIndex(position);
+    }
+  }
+
+  private void insertIntoIndex(int position) {
+    int mask = index.length - 1;
+    int slot = mix(hashCodes[position]) & mask;
+    while (index[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    index[slot] = position + 1;
+  }
+
+  private void removeFromIndex(int position) {
+    int mask = index.length - 1;
+    int hole = mix(hashCodes[position]) & mask;
+    while (index[hole] != position + 1) {
+      hole = (hole + 1) & mask;
+    }
+    // the following entries are shifted back, so the lookups don't stop at the hole
+    for (int slot = (hole + 1) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+      int home = mix(hashCodes[index[slot] - 1]) & mask;
+      if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+        index[hole] = index[slot];
+        hole = slot;
+      }
+    }
+    index[hole] = 0;
+  }
+
+  private static int mix(int hashCode) {
+    int hash = hashCode * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+}
@@ -0,0 +1,283 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+import com.google.dicomwebfuse.entities.DicomAttribute;
+import com.google.dicomwebfuse.entities.DicomObject;
+import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the cached metadata tree in a file, so a restarted mount lists the DICOM Stores, Studies,
+ * Series and Instances of the previous run without requesting them again. The Studies, Series and
+ * Instances are kept packed by {@link PackedAttributes}, the Instances of a Series are written as
+ * the columns of their {@link InstanceTable}. The file is read into a heap buffer on load, and the
+ * loaded objects keep their cache times and are marked as restored. The evicted Studies and Series
+ * are loaded as evicted and not restored, so their first listing waits for the server.
+ */
+public final class MetadataIndex {
+
+  private static final int MAGIC = 0x44464D49; // DFMI
+  private static final int VERSION = 2;
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final String UID_VR = "UI";
+  private static final String DATE_VR = "DA";
+  private static final String TIME_VR = "TM";
+  private static final String STUDY_INSTANCE_UID_TAG = "0020000D";
+  private static final String SERIES_INSTANCE_UID_TAG = "0020000E";
+  private static final String STUDY_DATE_TAG = "00080020";
+  private static final String STUDY_TIME_TAG = "00080030";
+  private static final String SERIES_DATE_TAG = "00080021";
+  private static final String SERIES_TIME_TAG = "00080031";
+  // the sizes of the records with empty strings and attributes, they limit the counts of the
+  // records before the arrays for them are allocated
+  private static final int MIN_DICOM_STORE_BYTES = 16;
+  private static final int MIN_STUDY_BYTES = 17;
+  private static final int MIN_SERIES_BYTES = 17;
+  static final int MIN_INSTANCE_BYTES = 33;
+
+  private MetadataIndex() {
+  }
+
+  /**
+   * Writes the cached metadata to the index file. The file is written next to the index and then
+   * moved over it, so a failed write keeps the previous index.
+   *
+   * @param datasetName name of the Dataset, an index of another Dataset is not loaded
+   */
+  public static void save(Cache cache, Path indexPath, String datasetName) throws IOException {
+    Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + TEMP_SUFFIX);
+    try (DataOutputStream outputStream = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+      outputStream.writeInt(MAGIC);
+      outputStream.writeInt(VERSION);
+      writeString(outputStream, datasetName);
+      CachedDataset cachedDataset = cache.getCachedDataset();
+      outputStream.writeLong(cachedDataset.getDatasetCacheTime().toEpochMilli());
+      // the maps are copied, so the counts match the written objects
+      Map<String, CachedDicomStore> cachedDicomStores =
+          new HashMap<>(cachedDataset.getCachedDicomStores());
+      outputStream.writeInt(cachedDicomStores.size());
+      for (CachedDicomStore cachedDicomStore : cachedDicomStores.values()) {
+        writeString(outputStream, cachedDicomStore.getDicomStore().getDicomStoreId());
+        outputStream.writeLong(cachedDicomStore.getDicomStoreCacheTime().toEpochMilli());
+        Map<String, CachedStudy> cachedStudies =
+            new HashMap<>(cachedDicomStore.getCachedStudies());
+        outputStream.writeInt(cachedStudies.size());
+        for (CachedStudy cachedStudy : cachedStudies.values()) {
+          writeObject(outputStream, cachedStudy.getStudy());
+          outputStream.writeLong(cachedStudy.getStudyCacheTime().toEpochMilli());
+          outputStream.writeBoolean(cachedStudy.isEvicted());
+          Map<String, CachedSeries> cachedSeries = new HashMap<>(cachedStudy.getCachedSeries());
+          outputStream.writeInt(cachedSeries.size());
+          for (CachedSeries series : cachedSeries.values()) {
+            writeObject(outputStream, series.getSeries());
+            outputStream.writeLong(series.getSeriesCacheTime().toEpochMilli());
+            outputStream.writeBoolean(series.isEvicted());
+            series.getCachedInstances().writeTo(outputStream);
+          }
+        }
+      }
+    }
+    Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Loads the index file into the cache. The DICOM Stores of the cache are replaced only if the
+   * whole index is read.
+   *
+   * @param datasetName name of the Dataset, an index of another Dataset is not loaded
+   * @return false if the file doesn't exist or belongs to another Dataset
+   * @throws IOException if the file can't be read or is not a valid index
+   */
+  public static boolean load(Cache cache, Path indexPath, String datasetName) throws IOException {
+    if (!Files.exists(indexPath)) {
+      return false;
+    }
+    if (Files.size(indexPath) > Integer.MAX_VALUE) {
+      throw new IOException("Metadata index is too large - " + indexPath);
+    }
+    // a mapping would keep the file open until the buffer is collected
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+    try {
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IOException("Invalid metadata index - " + indexPath);
+      }
+      if (!datasetName.equals(readString(buffer))) {
+        return false;
+      }
+      Instant datasetCacheTime = Instant.ofEpochMilli(buffer.getLong());
+      Map<String, CachedDicomStore> cachedDicomStores = new HashMap<>();
+      int dicomStoreCount = readCount(buffer, MIN_DICOM_STORE_BYTES);
+      for (int i = 0; i < dicomStoreCount; i++) {
+        CachedDicomStore cachedDicomStore = readDicomStore(buffer);
+        cachedDicomStores.put(cachedDicomStore.getDicomStore().getDicomStoreId(),
+            cachedDicomStore);
+      }
+      CachedDataset cachedDataset = cache.getCachedDataset();
+      cachedDataset.getCachedDicomStores().clear();
+      cachedDataset.getCachedDicomStores().putAll(cachedDicomStores);
+      cachedDataset.setDatasetCacheTime(datasetCacheTime);
+      cachedDataset.setRestored(true);
+      cachedDataset.getCachedListing().invalidate();
+      return true;
+    } catch (RuntimeException e) {
+      // a truncated or damaged file fails on reading past the end or on invalid lengths
+      throw new IOException("Invalid metadata index - " + indexPath, e);
+    }
+  }
+
+  private static CachedDicomStore readDicomStore(ByteBuffer buffer) {
+    DicomStore dicomStore = new DicomStore();
+    dicomStore.setDicomStoreId(readString(buffer));
+    CachedDicomStore cachedDicomStore = new CachedDicomStore(dicomStore);
+    cachedDicomStore.setDicomStoreCacheTime(Instant.ofEpochMilli(buffer.getLong()));
+    cachedDicomStore.setRestored(true);
+    int studyCount = readCount(buffer, MIN_STUDY_BYTES);
+    for (int i = 0; i < studyCount; i++) {
+      CachedStudy cachedStudy = readStudy(buffer);
+      cachedDicomStore.getCachedStudies().put(
+          cachedStudy.getStudy().getStudyInstanceUID().getValue1(), cachedStudy);
+    }
+    return cachedDicomStore;
+  }
+
+  private static CachedStudy readStudy(ByteBuffer buffer) {
+    Map<String, String> attributes = readAttributes(buffer);
+    Study study = new Study();
+    study.setStudyInstanceUID(toAttribute(UID_VR, attributes.remove(STUDY_INSTANCE_UID_TAG)));
+    study.setStudyDate(toAttribute(DATE_VR, attributes.remove(STUDY_DATE_TAG)));
+    study.setStudyTime(toAttribute(TIME_VR, attributes.remove(STUDY_TIME_TAG)));
+    setOtherAttributes(study, attributes);
+    if (study.getStudyInstanceUID() == null) {
+      throw new IllegalStateException("Study without UID");
+    }
+    CachedStudy cachedStudy = new CachedStudy(study);
+    cachedStudy.setStudyCacheTime(Instant.ofEpochMilli(buffer.getLong()));
+    // an evicted Study has no Series, so it is not listed from the index
+    boolean evicted = buffer.get() != 0;
+    cachedStudy.setEvicted(evicted);
+    cachedStudy.setRestored(!evicted);
+    int seriesCount = readCount(buffer, MIN_SERIES_BYTES);
+    for (int i = 0; i < seriesCount; i++) {
+      CachedSeries cachedSeries = readSeries(buffer);
+      cachedStudy.getCachedSeries().put(
+          cachedSeries.getSeries().getSeriesInstanceUID().getValue1(), cachedSeries);
+    }
+    return cachedStudy;
+  }
+
+  private static CachedSeries readSeries(ByteBuffer buffer) {
+    Map<String, String> attributes = readAttributes(buffer);
+    Series series = new Series();
+    series.setStudyInstanceUID(toAttribute(UID_VR, attributes.remove(STUDY_INSTANCE_UID_TAG)));
+    series.setSeriesInstanceUID(toAttribute(UID_VR, attributes.remove(SERIES_INSTANCE_UID_TAG)));
+    series.setSeriesDate(toAttribute(DATE_VR, attributes.remove(SERIES_DATE_TAG)));
+    series.setSeriesTime(toAttribute(TIME_VR, attributes.remove(SERIES_TIME_TAG)));
+    setOtherAttributes(series, attributes);
+    if (series.getStudyInstanceUID() == null || series.getSeriesInstanceUID() == null) {
+      throw new IllegalStateException("Series without UID");
+    }
+    CachedSeries cachedSeries = new CachedSeries(series);
+    cachedSeries.setSeriesCacheTime(Instant.ofEpochMilli(buffer.getLong()));
+    // an evicted Series has no Instances, so it is not listed from the index
+    boolean evicted = buffer.get() != 0;
+    cachedSeries.setEvicted(evicted);
+    cachedSeries.setRestored(!evicted);
+    cachedSeries.getCachedInstances().readFrom(buffer);
+    return cachedSeries;
+  }
+
+  private static void writeObject(DataOutputStream outputStream, DicomObject dicomObject)
+      throws IOException {
+    Map<String, String> attributes = new HashMap<>();
+    dicomObject.addAttributes(attributes);
+    writeBytes(outputStream, PackedAttributes.pack(attributes));
+  }
+
+  private static Map<String, String> readAttributes(ByteBuffer buffer) {
+    Map<String, String> attributes = new HashMap<>();
+    PackedAttributes.unpack(readBytes(buffer), attributes);
+    return attributes;
+  }
+
+  private static DicomAttribute<String> toAttribute(String vr, String value) {
+    if (value == null) {
+      return null;
+    }
+    DicomAttribute<String> attribute = new DicomAttribute<>();
+    attribute.setVr(vr);
+    attribute.setValue(new String[]{value});
+    return attribute;
+  }
+
+  private static void setOtherAttributes(DicomObject dicomObject, Map<String, String> attributes) {
+    // the attributes are kept as formatted values, so the VR is not needed
+    for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+      DicomAttribute<Object> dicomAttribute = new DicomAttribute<>();
+      dicomAttribute.setValue(new Object[]{attribute.getValue()});
+      dicomObject.setOtherAttribute(attribute.getKey(), dicomAttribute);
+    }
+  }
+
+  private static void writeString(DataOutputStream outputStream, String value)
+      throws IOException {
+    writeBytes(outputStream, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    return new String(readBytes(buffer), StandardCharsets.UTF_8);
+  }
+
+  static void writeBytes(DataOutputStream outputStream, byte[] bytes) throws IOException {
+    outputStream.writeInt(bytes.length);
+    outputStream.write(bytes);
+  }
+
+  /**
+   * Reads the count of the records which follow in the buffer. The count is checked against the
+   * remaining bytes, so a damaged count fails before the records are allocated.
+   */
+  static int readCount(ByteBuffer buffer, int minRecordBytes) {
+    int count = buffer.getInt();
+    if (count < 0 || count > buffer.remaining() / minRecordBytes) {
+      throw new IllegalStateException("Invalid count - " + count);
+    }
+    return count;
+  }
+
+  static byte[] readBytes(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalStateException("Invalid length - " + length);
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+
+/**
+ * Packs the formatted attributes of an object into a byte array. Each attribute is kept as the tag
+ * in 4 bytes, the length of the packed value and the value packed by {@link PackedUid}.
+ */
+final class PackedAttributes {
+
+  private PackedAttributes() {
+  }
+
+  /**
+   * Returns the packed attributes, the tags which are not 8 hexadecimal digits are skipped.
+   */
+  static byte[] pack(Map<String, String> attributes) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+      String tag = attribute.getKey();
+      if (tag.length() != 8) {
+        continue;
+      }
+      int tagValue;
+      try {
+        tagValue = Integer.parseUnsignedInt(tag, 16);
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      byte[] value = PackedUid.pack(attribute.getValue());
+      outputStream.write(tagValue >>> 24);
+      outputStream.write(tagValue >>> 16);
+      outputStream.write(tagValue >>> 8);
+      outputStream.write(tagValue);
+      writeLength(outputStream, value.length);
+      outputStream.write(value, 0, value.length);
+    }
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * Adds the packed attributes to the map, key - tag.
+   */
+  static void unpack(byte[] packed, Map<String, String> attributes) {
+    int position = 0;
+    while (position < packed.length) {
+      int tagValue = (packed[position] & 0xFF) << 24 | (packed[position + 1] & 0xFF) << 16
+          | (packed[position + 2] & 0xFF) << 8 | packed[position + 3] & 0xFF;
+      position += 4;
+      int length = 0;
+      int shift = 0;
+      byte lengthByte;
+      do {
+        lengthByte = packed[position++];
+        length |= (lengthByte & 0x7F) << shift;
+        shift += 7;
+      } while (lengthByte < 0);
+      byte[] value = new byte[length];
+      System.arraycopy(packed, position, value, 0, length);
+      position += length;
+      attributes.put(String.format("%08X", tagValue), PackedUid.unpack(value));
+    }
+  }
+
+  // the length is written in 7-bit groups, most values are shorter than 128 bytes
+  private static void writeLength(ByteArrayOutputStream outputStream, int length) {
+    while (length >= 0x80) {
+      outputStream.write(length & 0x7F | 0x80);
+      length >>>= 7;
+    }
+    outputStream.write(length);
+  }
+}
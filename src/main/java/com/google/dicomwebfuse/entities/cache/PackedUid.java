@@ -0,0 +1,134 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Packs UIDs and other values of digits and dots into byte arrays with two characters per byte.
+ * The values with other characters are kept as UTF-8 bytes after a marker byte.
+ */
+public final class PackedUid {
+
+  private static final String ALPHABET = "0123456789.\\-+ ";
+  private static final int PADDING = 0xF;
+  private static final byte UTF8_MARKER = (byte) 0xFF;
+
+  private PackedUid() {
+  }
+
+  public static byte[] pack(String value) {
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      if (ALPHABET.indexOf(value.charAt(i)) < 0) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        byte[] packed = new byte[bytes.length + 1];
+        packed[0] = UTF8_MARKER;
+        System.arraycopy(bytes, 0, packed, 1, bytes.length);
+        return packed;
+      }
+    }
+    byte[] packed = new byte[(length + 1) / 2];
+    for (int i = 0; i < length; i += 2) {
+      int high = ALPHABET.indexOf(value.charAt(i));
+      int low = i + 1 < length ? ALPHABET.indexOf(value.charAt(i + 1)) : PADDING;
+      packed[i / 2] = (byte) (high << 4 | low);
+    }
+    return packed;
+  }
+
+  public static String unpack(byte[] packed) {
+    if (isUtf8(packed)) {
+      return new String(packed, 1, packed.length - 1, StandardCharsets.UTF_8);
+    }
+    int length = getLength(packed);
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = charAt(packed, i);
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Returns true if the packed value is equal to the value. Packed digits and dots are compared
+   * without unpacking.
+   */
+  public static boolean equals(byte[] packed, String value) {
+    if (isUtf8(packed)) {
+      return unpack(packed).equals(value);
+    }
+    int length = getLength(packed);
+    if (length != value.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (charAt(packed, i) != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the hash code of the unpacked value, the same as {@link String#hashCode()}.
+   */
+  public static int hashCode(byte[] packed) {
+    if (isUtf8(packed)) {
+      return unpack(packed).hashCode();
+    }
+    int hash = 0;
+    int length = getLength(packed);
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + charAt(packed, i);
+    }
+    return hash;
+  }
+
+  /**
+   * Compares the unpacked values in the same order as {@link String#compareTo(String)}.
+   */
+  public static int compare(byte[] packed1, byte[] packed2) {
+    if (isUtf8(packed1) || isUtf8(packed2)) {
+      return unpack(packed1).compareTo(unpack(packed2));
+    }
+    int length1 = getLength(packed1);
+    int length2 = getLength(packed2);
+    for (int i = 0; i < Math.min(length1, length2); i++) {
+      int result = Character.compare(charAt(packed1, i), charAt(packed2, i));
+      if (result != 0) {
+        return result;
+      }
+    }
+    return Integer.compare(length1, length2);
+  }
+
+  private static boolean isUtf8(byte[] packed) {
+    // a packed value never starts with the padding
+    return packed.length > 0 && packed[0] == UTF8_MARKER;
+  }
+
+  private static int getLength(byte[] packed) {
+    int length = packed.length * 2;
+    if (length > 0 && (packed[packed.length - 1] & PADDING) == PADDING) {
+      length--;
+    }
+    return length;
+  }
+
+  private static char charAt(byte[] packed, int index) {
+    int nibble = index % 2 == 0 ? (packed[index / 2] >> 4) & 0xF : packed[index / 2] & 0xF;
+    return ALPHABET.charAt(nibble);
+  }
+}
@@ -18,11 +18,16 @@ import static jnr.ffi.Platform.OS.DARWIN;
 import static jnr.ffi.Platform.OS.LINUX;
 import static jnr.ffi.Platform.OS.WINDOWS;
 
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.dicomwebfuse.entities.ControlFileType;
 import com.google.dicomwebfuse.entities.DicomPath;
 import com.google.dicomwebfuse.entities.DicomPathLevel;
 import com.google.dicomwebfuse.entities.cache.Cache;
+import com.google.dicomwebfuse.entities.cache.DirectoryListing;
 import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.OperationStats.Operation;
 import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
+import java.io.IOException;
 import jnr.ffi.Platform.OS;
 import jnr.ffi.Pointer;
 import jnr.ffi.types.off_t;
@@ -42,33 +47,69 @@ public class DicomFuse extends FuseStubFS {
   private final DicomFuseHelper dicomFuseHelper;
   private final Parameters parameters;
   private final DicomPathParser dicomPathParser;
+  private final FileHandleTable<FileHandle> fileHandleTable;
+  private final FileHandleTable<DirectoryHandle> directoryHandleTable;
+  private final OperationStats operationStats;
   private final OS os;
 
   public DicomFuse(Parameters parameters) {
+    this(parameters, new DicomPathCacher(), new Cache());
+  }
+
+  DicomFuse(Parameters parameters, DicomPathCacher dicomPathCacher, Cache cache) {
     this.parameters = parameters;
-    DicomPathCacher dicomPathCacher = new DicomPathCacher();
-    Cache cache = new Cache();
     dicomFuseHelper = new DicomFuseHelper(parameters, dicomPathCacher, cache);
+    dicomFuseHelper.loadMetadataIndex();
+    dicomFuseHelper.scheduleMetadataEviction();
     dicomPathParser = new DicomPathParser(dicomPathCacher);
+    fileHandleTable = new FileHandleTable<>();
+    directoryHandleTable = new FileHandleTable<>();
+    operationStats = dicomFuseHelper.getOperationStats();
     os = parameters.getOs();
   }
 
   @Override
   public int getattr(String path, FileStat fileStat) {
-    LOGGER.debug("getattr " + path);
+    long startTime = System.nanoTime();
+    return operationStats.record(Operation.GETATTR, startTime, doGetattr(path, fileStat));
+  }
+
+  private int doGetattr(String path, FileStat fileStat) {
+    LOGGER.debug("getattr {}", path);
+    // the attributes of the recently resolved paths are set without parsing the path
+    StatTemplate statTemplate = dicomFuseHelper.getStatTemplate(path);
+    if (statTemplate != null) {
+      if (!statTemplate.exists()) {
+        return -ErrorCodes.ENOENT();
+      }
+      dicomFuseHelper.applyStat(statTemplate, this, fileStat);
+      return 0;
+    }
+    if (dicomFuseHelper.isForbiddenPath(path)) {
+      dicomFuseHelper.putMissingStat(path);
+      return -ErrorCodes.ENOENT();
+    }
     DicomPath dicomPath;
     try {
-      dicomFuseHelper.checkPath(path);
       dicomPath = dicomPathParser.parsePath(path);
     } catch (DicomFuseException e) {
+      dicomFuseHelper.putMissingStat(path);
       return -ErrorCodes.ENOENT();
     }
     try {
-      dicomFuseHelper.checkExistingObject(dicomPath);
-      dicomFuseHelper.setAttr(dicomPath, this, fileStat);
+      if (!dicomFuseHelper.isExistingObject(dicomPath)) {
+        dicomFuseHelper.putMissingStat(path);
+        return -ErrorCodes.ENOENT();
+      }
+      dicomFuseHelper.setAttr(path, dicomPath, this, fileStat);
     } catch (DicomFuseException e) {
       LOGGER.debug("getattr error", e);
-      return -ErrorCodes.ENOENT();
+      // only a missing object is remembered, a failed request is tried again by the next call
+      if (e.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+        dicomFuseHelper.putMissingStat(path);
+        return -ErrorCodes.ENOENT();
+      }
+      return -ErrorCodes.EIO();
     }
     return 0;
   }
@@ -76,12 +117,31 @@ public class DicomFuse extends FuseStubFS {
   @Override
   public int readdir(String path, Pointer buf, FuseFillDir filler, @off_t long offset,
       FuseFileInfo fi) {
+    long startTime = System.nanoTime();
+    return operationStats.record(Operation.READDIR, startTime,
+        doReaddir(path, buf, filler, offset, fi));
+  }
+
+  private int doReaddir(String path, Pointer buf, FuseFillDir filler, long offset,
+      FuseFileInfo fi) {
     LOGGER.debug("readdir " + path);
-    filler.apply(buf, ".", null, 0); // add default folder
-    filler.apply(buf, "..", null, 0); // add default folder
     try {
-      DicomPath dicomPath = dicomPathParser.parsePath(path);
-      dicomFuseHelper.fillFolder(dicomPath, buf, filler);
+      DirectoryHandle directoryHandle = directoryHandleTable.get(fi.fh.get());
+      DicomPath dicomPath;
+      DirectoryListing directoryListing;
+      if (directoryHandle == null) {
+        dicomPath = dicomPathParser.parsePath(path);
+        directoryListing = dicomFuseHelper.getDirectoryListing(dicomPath);
+      } else {
+        dicomPath = directoryHandle.getDicomPath();
+        directoryListing = directoryHandle.getDirectoryListing();
+        // the listing is taken again if the folder is read from the beginning
+        if (directoryListing == null || offset == 0) {
+          directoryListing = dicomFuseHelper.getDirectoryListing(dicomPath);
+          directoryHandle.setDirectoryListing(directoryListing);
+        }
+      }
+      dicomFuseHelper.fillFolder(dicomPath, directoryListing, this, buf, filler, offset);
     } catch (DicomFuseException e) {
       LOGGER.error("readdir error", e);
       return -ErrorCodes.ENOENT();
@@ -91,10 +151,16 @@ public class DicomFuse extends FuseStubFS {
 
   @Override
   public int opendir(String path, FuseFileInfo fi) {
+    long startTime = System.nanoTime();
+    return operationStats.record(Operation.OPENDIR, startTime, doOpendir(path, fi));
+  }
+
+  private int doOpendir(String path, FuseFileInfo fi) {
     LOGGER.debug("opendir " + path);
     try {
       DicomPath dicomPath = dicomPathParser.parsePath(path);
       dicomFuseHelper.updateDir(dicomPath);
+      fi.fh.set(directoryHandleTable.put(new DirectoryHandle(dicomPath)));
     } catch (DicomFuseException e) {
       LOGGER.error("opendir error", e);
       return -ErrorCodes.ENOENT();
@@ -102,12 +168,28 @@ public class DicomFuse extends FuseStubFS {
     return 0;
   }
 
+  @Override
+  public int releasedir(String path, FuseFileInfo fi) {
+    LOGGER.debug("releasedir " + path);
+    directoryHandleTable.remove(fi.fh.get());
+    return 0;
+  }
+
   @Override
   public int read(String path, Pointer buf, @size_t long size, @off_t long offset,
       FuseFileInfo fi) {
+    long startTime = System.nanoTime();
+    return operationStats.record(Operation.READ, startTime, doRead(path, buf, size, offset, fi));
+  }
+
+  private int doRead(String path, Pointer buf, long size, long offset, FuseFileInfo fi) {
+    FileHandle fileHandle = fileHandleTable.get(fi.fh.get());
+    if (fileHandle == null) {
+      LOGGER.error("read error - file is not opened " + path);
+      return -ErrorCodes.EBADF();
+    }
     try {
-      DicomPath dicomPath = dicomPathParser.parsePath(path);
-      return dicomFuseHelper.readInstance(dicomPath, buf, (int) size, offset);
+      return dicomFuseHelper.readInstance(fileHandle, buf, (int) size, offset);
     } catch (DicomFuseException e) {
       LOGGER.error("read error", e);
       return -ErrorCodes.EIO();
@@ -116,21 +198,113 @@ public class DicomFuse extends FuseStubFS {
 
   @Override
   public int write(String path, Pointer buf, long size, long offset, FuseFileInfo fi) {
+    long startTime = System.nanoTime();
+    return operationStats.record(Operation.WRITE, startTime, doWrite(path, buf, size, offset, fi));
+  }
+
+  private int doWrite(String path, Pointer buf, long size, long offset, FuseFileInfo fi) {
+    FileHandle fileHandle = fileHandleTable.get(fi.fh.get());
+    if (fileHandle == null) {
+      LOGGER.error("write error - file is not opened " + path);
+      return -ErrorCodes.EBADF();
+    }
+    if (isReadOnly(fileHandle.getDicomPath())) {
+      return -ErrorCodes.EACCES();
+    }
+    if (isControlFile(fileHandle)) {
+      return writeControlFile(fileHandle, buf, (int) size);
+    }
     try {
-      DicomPath dicomPath = dicomPathParser.parsePath(path);
-      return dicomFuseHelper.writeInstance(dicomPath, buf, (int) size, offset);
+      return dicomFuseHelper.writeInstance(fileHandle, buf, (int) size, offset);
     } catch (DicomFuseException e) {
       LOGGER.error("write error", e);
       return -ErrorCodes.EIO();
     }
   }
 
+  private static boolean isControlFile(FileHandle fileHandle) {
+    return fileHandle.getDicomPath().getDicomPathLevel() == DicomPathLevel.CONTROL_FILE;
+  }
+
+  private static boolean isReadOnly(DicomPath dicomPath) {
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.CONTROL_FILE) {
+      return !ControlFileType.fromFileName(dicomPath.getFileName()).isCommand();
+    }
+    return dicomPath.getDicomPathLevel() == DicomPathLevel.VIRTUAL_FILE
+        || dicomPath.getDicomPathLevel() == DicomPathLevel.FRAME;
+  }
+
+  // Each line written to a command file is a path from the root of the mount, like
+  // "/dicomStore/studyInstanceUID". The lines are buffered per opened file, the command is executed
+  // for each complete line before write returns and for the last line without a newline on flush.
+  private int writeControlFile(FileHandle fileHandle, Pointer buf, int size) {
+    ControlFileType controlFileType =
+        ControlFileType.fromFileName(fileHandle.getDicomPath().getFileName());
+    try {
+      if (controlFileType == ControlFileType.DROP_CACHE) {
+        dicomFuseHelper.executeControlCommand(controlFileType, null);
+        return size;
+      }
+      byte[] bytes = new byte[size];
+      buf.get(0, bytes, 0, size);
+      for (String line : fileHandle.appendLines(bytes)) {
+        executeControlLine(controlFileType, line);
+      }
+    } catch (DicomFuseException e) {
+      LOGGER.error("Control command error", e);
+      return -ErrorCodes.EINVAL();
+    }
+    return size;
+  }
+
+  private int flushControlFile(FileHandle fileHandle) {
+    String line = fileHandle.takePendingLine();
+    if (line == null) {
+      return 0;
+    }
+    try {
+      executeControlLine(ControlFileType.fromFileName(fileHandle.getDicomPath().getFileName()),
+          line);
+    } catch (DicomFuseException e) {
+      LOGGER.error("Control command error", e);
+      return -ErrorCodes.EINVAL();
+    }
+    return 0;
+  }
+
+  private void executeControlLine(ControlFileType controlFileType, String line)
+      throws DicomFuseException {
+    String path = line.trim();
+    if (path.isEmpty()) {
+      return;
+    }
+    if (!path.startsWith("/")) {
+      path = "/" + path;
+    }
+    dicomFuseHelper.executeControlCommand(controlFileType, dicomPathParser.parsePath(path));
+  }
+
   @Override
   public int open(String path, FuseFileInfo fi) {
+    long startTime = System.nanoTime();
+    return operationStats.record(Operation.OPEN, startTime, doOpen(path, fi));
+  }
+
+  private int doOpen(String path, FuseFileInfo fi) {
     LOGGER.debug("open " + path);
     try {
       DicomPath dicomPath = dicomPathParser.parsePath(path);
-      dicomFuseHelper.cacheInstanceData(dicomPath);
+      if (isReadOnly(dicomPath) && FuseFileInfoFlags.isWriteAccess(fi)) {
+        LOGGER.debug("Virtual files are read-only " + path);
+        return -ErrorCodes.EACCES();
+      }
+      FileHandle fileHandle = dicomFuseHelper.openFileHandle(dicomPath);
+      fi.fh.set(fileHandleTable.put(fileHandle));
+      if (dicomFuseHelper.isDirectIo(dicomPath)) {
+        FuseFileInfoFlags.setDirectIo(fi);
+      } else if (dicomFuseHelper.isKeepCache(dicomPath)) {
+        FuseFileInfoFlags.setKeepCache(fi);
+      }
     } catch (DicomFuseException e) {
       LOGGER.error("open error", e);
       return -ErrorCodes.EIO();
@@ -138,8 +312,36 @@ public class DicomFuse extends FuseStubFS {
     return 0;
   }
 
+  @Override
+  public int release(String path, FuseFileInfo fi) {
+    long startTime = System.nanoTime();
+    return operationStats.record(Operation.RELEASE, startTime, doRelease(path, fi));
+  }
+
+  private int doRelease(String path, FuseFileInfo fi) {
+    LOGGER.debug("release " + path);
+    FileHandle fileHandle = fileHandleTable.remove(fi.fh.get());
+    if (fileHandle != null) {
+      if (isControlFile(fileHandle)) {
+        // the line is left only if the file was closed without flush
+        flushControlFile(fileHandle);
+      }
+      try {
+        fileHandle.close();
+      } catch (IOException e) {
+        LOGGER.error("release error", e);
+      }
+    }
+    return 0;
+  }
+
   @Override
   public int flush(String path, FuseFileInfo fi) {
+    long startTime = System.nanoTime();
+    return operationStats.record(Operation.FLUSH, startTime, doFlush(path, fi));
+  }
+
+  private int doFlush(String path, FuseFileInfo fi) {
     LOGGER.debug("flush " + path);
     try {
       dicomFuseHelper.checkPath(path);
@@ -147,9 +349,19 @@ public class DicomFuse extends FuseStubFS {
       LOGGER.debug(e);
       return -ErrorCodes.ENOENT();
     }
+    FileHandle fileHandle = fileHandleTable.get(fi.fh.get());
+    if (fileHandle != null && isControlFile(fileHandle)) {
+      return flushControlFile(fileHandle);
+    }
     try {
+      if (fileHandle != null) {
+        fileHandle.closeWriteChannel();
+      }
       DicomPath dicomPath = dicomPathParser.parsePath(path);
       dicomFuseHelper.flushInstance(dicomPath);
+    } catch (IOException e) {
+      LOGGER.error("flush error", e);
+      return -ErrorCodes.EIO();
     } catch (DicomFuseException e) {
       LOGGER.error("flush error", e);
       if (os == LINUX) {
@@ -175,6 +387,8 @@ public class DicomFuse extends FuseStubFS {
     try {
       DicomPath dicomPath = dicomPathParser.parsePath(path, Command.CREATE);
       dicomFuseHelper.createTemporaryInstance(dicomPath);
+      FileHandle fileHandle = dicomFuseHelper.openFileHandle(dicomPath);
+      fi.fh.set(fileHandleTable.put(fileHandle));
     } catch (DicomFuseException e) {
       LOGGER.error("create error", e);
       return -ErrorCodes.EIO();
@@ -208,6 +422,33 @@ public class DicomFuse extends FuseStubFS {
     return 0;
   }
 
+  @Override
+  public int rmdir(String path) {
+    LOGGER.debug("rmdir " + path);
+    if (!parameters.isEnableDeletion()) {
+      return -ErrorCodes.EPERM();
+    }
+    try {
+      dicomFuseHelper.checkPath(path);
+    } catch (DicomFuseException e) {
+      LOGGER.debug(e);
+      return -ErrorCodes.ENOENT();
+    }
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path);
+      // only the whole Studies and Series can be deleted on the server by a single request
+      if (dicomPath.getDicomPathLevel() != DicomPathLevel.STUDY
+          && dicomPath.getDicomPathLevel() != DicomPathLevel.SERIES) {
+        return -ErrorCodes.EPERM();
+      }
+      dicomFuseHelper.deleteFolder(dicomPath);
+    } catch (DicomFuseException e) {
+      LOGGER.error("rmdir error", e);
+      return -ErrorCodes.EIO();
+    }
+    return 0;
+  }
+
   @Override
   public int mkdir(String path, long mode) {
     LOGGER.debug("mkdir " + path);
@@ -258,7 +499,7 @@ public class DicomFuse extends FuseStubFS {
 
   // When auto_xattr option used may cause the error in the terminal - "Could not copy extended
   // attributes. Operation not permitted". Instead auto_xattr option, these methods were implemented
-  // but do nothing.
+  // but do nothing for the attributes outside the user.dicom namespace.
   // See: https://github.com/osxfuse/osxfuse/issues/363
   @Override
   public int setxattr(String path, String name, Pointer value, long size, int flags) {
@@ -266,13 +507,38 @@ public class DicomFuse extends FuseStubFS {
   }
 
   @Override
-  public int getxattr(String path, String name, Pointer value, long size) {
-    return super.getxattr(path, name, value, size);
+  public int getxattr(String path, String name, Pointer value, @size_t long size) {
+    String tag = DicomXattrs.toTag(name);
+    if (tag == null) {
+      return super.getxattr(path, name, value, size);
+    }
+    LOGGER.debug("getxattr " + path + " " + name);
+    byte[] attribute;
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path);
+      attribute = dicomFuseHelper.getXattr(dicomPath, tag);
+    } catch (DicomFuseException e) {
+      LOGGER.debug("getxattr error", e);
+      return -ErrorCodes.ENOENT();
+    }
+    if (attribute == null) {
+      return -ErrorCodes.ENODATA();
+    }
+    return copyXattr(attribute, value, size);
   }
 
   @Override
-  public int listxattr(String path, Pointer list, long size) {
-    return super.listxattr(path, list, size);
+  public int listxattr(String path, Pointer list, @size_t long size) {
+    LOGGER.debug("listxattr " + path);
+    byte[] names;
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path);
+      names = dicomFuseHelper.listXattr(dicomPath);
+    } catch (DicomFuseException e) {
+      LOGGER.debug("listxattr error", e);
+      return -ErrorCodes.ENOENT();
+    }
+    return copyXattr(names, list, size);
   }
 
   @Override
@@ -280,6 +546,12 @@ public class DicomFuse extends FuseStubFS {
     return super.removexattr(path, name);
   }
 
+  @Override
+  public void destroy(Pointer initResult) {
+    // the filesystem is unmounted, the cached metadata is kept for the next mount
+    dicomFuseHelper.saveMetadataIndex();
+  }
+
   // methods do nothing, but needs to be implemented for correct work some programs
   @Override
   public int truncate(String path, long size) {
@@ -295,4 +567,16 @@ public class DicomFuse extends FuseStubFS {
   public int chmod(String path, long mode) {
     return super.chmod(path, mode);
   }
+
+  // If the size is 0, only the size of the value is returned
+  private static int copyXattr(byte[] bytes, Pointer buffer, long size) {
+    if (size == 0) {
+      return bytes.length;
+    }
+    if (size < bytes.length) {
+      return -ErrorCodes.ERANGE();
+    }
+    buffer.put(0, bytes, 0, bytes.length);
+    return bytes.length;
+  }
 }
@@ -22,32 +22,53 @@ import static com.google.dicomwebfuse.fuse.FuseConstants.LINUX_FORBIDDEN_PATHS;
 import static com.google.dicomwebfuse.fuse.FuseConstants.MAC_OS_FORBIDDEN_PATHS;
 import static com.google.dicomwebfuse.fuse.FuseConstants.WINDOWS_FORBIDDEN_PATHS;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.dicomwebfuse.dao.FuseDaoHelper;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.entities.ControlFileType;
 import com.google.dicomwebfuse.entities.DicomPath;
 import com.google.dicomwebfuse.entities.DicomPathLevel;
 import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.Inodes;
 import com.google.dicomwebfuse.entities.Instance;
 import com.google.dicomwebfuse.entities.Series;
 import com.google.dicomwebfuse.entities.Study;
+import com.google.dicomwebfuse.entities.VirtualFileType;
 import com.google.dicomwebfuse.entities.cache.Cache;
+import com.google.dicomwebfuse.entities.cache.CacheStatus;
 import com.google.dicomwebfuse.entities.cache.CachedDicomStore;
 import com.google.dicomwebfuse.entities.cache.CachedSeries;
 import com.google.dicomwebfuse.entities.cache.CachedStudy;
+import com.google.dicomwebfuse.entities.cache.DirectoryListing;
 import com.google.dicomwebfuse.entities.cache.InstanceContent;
+import com.google.dicomwebfuse.entities.cache.InstanceTable;
+import com.google.dicomwebfuse.entities.cache.MetadataIndex;
 import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.cacher.ArchiveStream;
 import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
 import com.google.dicomwebfuse.fuse.cacher.DownloadCacher;
+import com.google.dicomwebfuse.fuse.cacher.DownloadedFile;
 import com.google.dicomwebfuse.fuse.cacher.UploadCacher;
+import com.google.dicomwebfuse.fuse.cacher.VirtualFileCacher;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import jnr.ffi.Platform.OS;
 import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+import jnr.ffi.Struct;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ru.serce.jnrfuse.FuseFillDir;
@@ -56,85 +77,227 @@ import ru.serce.jnrfuse.struct.FileStat;
 class DicomFuseHelper {
 
   private static final Logger LOGGER = LogManager.getLogger();
+  // the same as the negative_timeout mount option
+  private static final long NEGATIVE_STAT_TIME = 4; // in seconds
+  private static final int MAX_STAT_TEMPLATES = 100_000;
+  private static final long METADATA_INDEX_SAVE_TIME = 300; // in seconds
+  private static final long METADATA_EVICTION_TIME = 5; // in seconds
+  // count of the Instance sizes which are requested concurrently
+  private static final int SIZE_REQUEST_THREAD_COUNT = 4;
+  // attributes of folders and Instance files filled by readdir
+  private static final ThreadLocal<FileStat[]> READDIR_STAT_TEMPLATES = ThreadLocal.withInitial(
+      () -> new FileStat[]{new FileStat(Runtime.getSystemRuntime()),
+          new FileStat(Runtime.getSystemRuntime())});
   private final Parameters parameters;
   private final DownloadCacher downloadCacher;
   private final UploadCacher uploadCacher;
+  private final VirtualFileCacher virtualFileCacher;
+  // names of the enabled files in Study and Series folders
+  private final String[] instanceFileSuffixes;
+  private final List<String> seriesFiles;
+  private final List<String> studyFiles;
   private final Cache cache;
   private final DicomPathCacher dicomPathCacher;
   private final OS os;
   private final Instant defaultInstant;
+  // Instances changed by this process, their page cache is dropped on the next open
+  private final Set<DicomPath> modifiedInstances = ConcurrentHashMap.newKeySet();
+  private final OperationStats operationStats = new OperationStats();
+  private final Instant mountTime = Instant.now();
+  private final DirectoryListing controlListing;
+  // attributes of the paths resolved by getattr, key - path
+  private final ConcurrentHashMap<String, StatTemplate> statTemplates =
+      new ConcurrentHashMap<>();
+  private final long statTime;
+  private final String[] forbiddenPaths;
+  // refreshes the folders loaded from the metadata index, writes the index and evicts the
+  // metadata over the limit
+  private final ScheduledExecutorService metadataExecutor =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("metadata-%d")
+          .setDaemon(true)
+          .build());
+  // requests the sizes of the Instances for getattr
+  private final ExecutorService sizeExecutor =
+      Executors.newFixedThreadPool(SIZE_REQUEST_THREAD_COUNT, new ThreadFactoryBuilder()
+          .setNameFormat("instance-size-%d")
+          .setDaemon(true)
+          .build());
+  private volatile long uid = -1;
+  private volatile long gid = -1;
 
 
   DicomFuseHelper(Parameters parameters, DicomPathCacher dicomPathCacher, Cache cache) {
     this.parameters = parameters;
     downloadCacher = new DownloadCacher(parameters);
     uploadCacher = new UploadCacher();
+    virtualFileCacher = new VirtualFileCacher(parameters);
+    List<String> suffixes = new ArrayList<>();
+    suffixes.add(DCM_EXTENSION);
+    seriesFiles = new ArrayList<>();
+    studyFiles = new ArrayList<>();
+    for (VirtualFileType virtualFileType : VirtualFileType.values()) {
+      if (!isEnabled(virtualFileType)) {
+        continue;
+      }
+      switch (virtualFileType.getSourceLevel()) {
+        case STUDY:
+          studyFiles.add(virtualFileType.getSuffix());
+          break;
+        case SERIES:
+          seriesFiles.add(virtualFileType.getSuffix());
+          break;
+        default:
+          suffixes.add(virtualFileType.getSuffix());
+      }
+    }
+    instanceFileSuffixes = suffixes.toArray(new String[0]);
     this.cache = cache;
     this.dicomPathCacher = dicomPathCacher;
     os = parameters.getOs();
+    statTime = TimeUnit.SECONDS.toNanos(parameters.getCacheTime().getObjectsCacheTime());
+    List<String> osForbiddenPaths = getForbiddenPaths(os);
+    forbiddenPaths = osForbiddenPaths == null ? null : osForbiddenPaths.toArray(new String[0]);
     defaultInstant = Instant.EPOCH.plusSeconds(60 * 60 * 24).plusNanos(1000);
+    List<String> controlFiles = new ArrayList<>();
+    for (ControlFileType controlFileType : ControlFileType.values()) {
+      controlFiles.add(controlFileType.getFileName());
+    }
+    controlListing = DirectoryListing.ofFiles(
+        new DicomPath.Builder(DicomPathLevel.CONTROL_FOLDER).build(), controlFiles);
+  }
+
+  OperationStats getOperationStats() {
+    return operationStats;
   }
 
   void checkExistingObject(DicomPath dicomPath) throws DicomFuseException {
+    if (!isExistingObject(dicomPath)) {
+      throw new DicomFuseException("Object not found - " + dicomPath);
+    }
+  }
+
+  /**
+   * Returns whether the object of the path exists. The Studies, Series and Instances which are not
+   * cached are requested from the server if their parent folders are cached, and are cached if
+   * they are found.
+   *
+   * @return false if the object is not found on the server or its parent folder is not cached
+   * @throws DicomFuseException if the object can't be requested
+   */
+  boolean isExistingObject(DicomPath dicomPath) throws DicomFuseException {
     switch (dicomPath.getDicomPathLevel()) {
       case DATASET:
-        break;
+      case CONTROL_FOLDER:
+      case CONTROL_FILE:
+        // the control files are checked by the parser
+        return true;
       case DICOM_STORE:
-        if (cache.isDicomStoreNotExist(dicomPath)) {
+        if (cache.getCacheStatus(dicomPath) == CacheStatus.PARENT_CACHED) {
           cacheDicomStoreIfPresent(dicomPath);
         }
-        break;
+        return true;
       case STUDY:
-        if (cache.isStudyNotExist(dicomPath)) {
-          cacheStudyIfPresent(dicomPath);
-        }
-        break;
       case SERIES:
-        if (cache.isSeriesNotExist(dicomPath)) {
-          cacheSeriesIfPresent(dicomPath);
-        }
-        break;
       case INSTANCE:
-        if (cache.isInstanceNotExist(dicomPath)) {
-          cacheInstanceIfPresent(dicomPath);
+        return isExistingObject(dicomPath, cache.getCacheStatus(dicomPath));
+      case VIRTUAL_FILE:
+        VirtualFileType virtualFileType = dicomPath.getVirtualFileType();
+        if (!isEnabled(virtualFileType)) {
+          return false;
         }
-        break;
+        switch (virtualFileType.getSourceLevel()) {
+          case STUDY:
+            return isExistingObject(dicomPath.getStudyPath());
+          case SERIES:
+            return isExistingObject(dicomPath.getSeriesPath());
+          default:
+            return isExistingObject(dicomPath.getInstancePath());
+        }
+      case FRAMES:
+      case FRAME:
+        if (!parameters.isVirtualFiles()) {
+          return false;
+        }
+        DicomPath instancePath = dicomPath.getInstancePath();
+        if (!isExistingObject(instancePath)) {
+          return false;
+        }
+        int numberOfFrames = cache.getNumberOfFrames(instancePath);
+        return numberOfFrames > 1 && dicomPath.getFrameNumber() <= numberOfFrames;
       case TEMP_FILE_IN_DICOM_STORE:
       case TEMP_FILE_IN_SERIES:
-        if (cache.isInstanceNotExist(dicomPath)) {
-          throw new DicomFuseException("Invalid path to the temp instance - " + dicomPath);
+        return cache.getCacheStatus(dicomPath) == CacheStatus.CACHED;
+      default:
+        return false;
+    }
+  }
+
+  private boolean isExistingObject(DicomPath dicomPath, CacheStatus cacheStatus)
+      throws DicomFuseException {
+    switch (cacheStatus) {
+      case CACHED:
+        return true;
+      case PARENT_CACHED:
+        switch (dicomPath.getDicomPathLevel()) {
+          case STUDY:
+            return cacheStudyIfPresent(dicomPath);
+          case SERIES:
+            return cacheSeriesIfPresent(dicomPath);
+          default:
+            return cacheInstanceIfPresent(dicomPath);
         }
-        break;
       default:
-        throw new DicomFuseException("Invalid path - " + dicomPath);
+        return false;
+    }
+  }
+
+  private boolean isEnabled(VirtualFileType virtualFileType) {
+    if (virtualFileType.isPreview()) {
+      return parameters.getPreviewSize() > 0;
+    }
+    if (virtualFileType.isMetadata()) {
+      return parameters.isMetadataFiles();
     }
+    return parameters.isVirtualFiles();
   }
 
   void checkPath(String path) throws DicomFuseException {
+    if (forbiddenPaths == null) {
+      throw new DicomFuseException("Invalid OS - " + path);
+    }
+    if (isForbiddenPath(path)) {
+      throw new DicomFuseException("Invalid path - " + path);
+    }
+  }
+
+  /**
+   * Checks if the path contains one of the names which are probed by the OS and never exist. The
+   * names of the OS are selected once, and no exception is created for the forbidden paths.
+   */
+  boolean isForbiddenPath(String path) {
+    if (forbiddenPaths == null) {
+      return true;
+    }
+    for (String partPath : forbiddenPaths) {
+      if (path.contains(partPath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // null if the OS is not supported
+  private static List<String> getForbiddenPaths(OS os) {
     switch (os) {
       case LINUX:
-        for (String partPath : LINUX_FORBIDDEN_PATHS) {
-          if (path.contains(partPath)) {
-            throw new DicomFuseException("Invalid path - " + path);
-          }
-        }
-        break;
+        return LINUX_FORBIDDEN_PATHS;
       case WINDOWS:
-        for (String partPath : WINDOWS_FORBIDDEN_PATHS) {
-          if (path.contains(partPath)) {
-            throw new DicomFuseException("Invalid path - " + path);
-          }
-        }
-        break;
+        return WINDOWS_FORBIDDEN_PATHS;
       case DARWIN:
-        for (String partPath : MAC_OS_FORBIDDEN_PATHS) {
-          if (path.contains(partPath)) {
-            throw new DicomFuseException("Invalid path - " + path);
-          }
-        }
-        break;
+        return MAC_OS_FORBIDDEN_PATHS;
       default:
-        throw new DicomFuseException("Invalid OS - " + path);
+        return null;
     }
   }
 
@@ -142,186 +305,436 @@ class DicomFuseHelper {
     switch (dicomPath.getDicomPathLevel()) {
       case DATASET:
         if (cache.isDatasetOutdated()) {
-          updateDicomStoresInDataset();
+          refreshDir(dicomPath);
         }
         break;
       case DICOM_STORE:
         if (cache.isDicomStoreOutdated(dicomPath)) {
-          updateStudiesInDicomStore(dicomPath);
+          refreshDir(dicomPath);
         }
         break;
       case STUDY:
         if (cache.isStudyOutdated(dicomPath)) {
-          updateSeriesInStudy(dicomPath);
+          refreshDir(dicomPath);
         }
         break;
       case SERIES:
         if (cache.isSeriesOutdated(dicomPath)) {
-          updateInstancesInSeries(dicomPath);
+          refreshDir(dicomPath);
         }
         break;
+      case FRAMES:
+        // the frames are known from the Instance
+        checkExistingObject(dicomPath);
+        break;
+      case CONTROL_FOLDER:
+        break;
       default:
         throw new DicomFuseException("Invalid path - " + dicomPath);
     }
   }
 
-  void setAttr(DicomPath dicomPath, DicomFuse dicomFuse, FileStat fileStat)
-      throws DicomFuseException {
+  private void refreshDir(DicomPath dicomPath) throws DicomFuseException {
+    // the folders loaded from the metadata index are listed at once and requested in the
+    // background, the next listings get the objects from the server
+    if (cache.clearRestored(dicomPath)) {
+      metadataExecutor.execute(() -> {
+        try {
+          requestDir(dicomPath);
+        } catch (DicomFuseException e) {
+          LOGGER.error("Restored folder can't be refreshed - " + dicomPath, e);
+        }
+      });
+      return;
+    }
+    requestDir(dicomPath);
+  }
+
+  private void requestDir(DicomPath dicomPath) throws DicomFuseException {
     switch (dicomPath.getDicomPathLevel()) {
       case DATASET:
-        setStat(dicomFuse, fileStat, FileStat.S_IFDIR | 0777);
+        updateDicomStoresInDataset();
         break;
       case DICOM_STORE:
-        setStat(dicomFuse, fileStat, FileStat.S_IFDIR | 0777);
+        updateStudiesInDicomStore(dicomPath);
         break;
       case STUDY:
-        setStat(dicomFuse, fileStat, FileStat.S_IFDIR | 0777);
+        updateSeriesInStudy(dicomPath);
         break;
       case SERIES:
-        setStat(dicomFuse, fileStat, FileStat.S_IFDIR | 0777);
+        updateInstancesInSeries(dicomPath);
         break;
+      default:
+        throw new DicomFuseException("Invalid path - " + dicomPath);
+    }
+  }
+
+  /**
+   * Loads the cached objects of the previous mounts from the metadata index if it's enabled, and
+   * schedules writing of the index.
+   */
+  void loadMetadataIndex() {
+    Path indexPath = parameters.getMetadataIndexPath();
+    if (indexPath == null) {
+      return;
+    }
+    try {
+      if (MetadataIndex.load(cache, indexPath, getDatasetName())) {
+        LOGGER.info("Metadata index was loaded - " + indexPath);
+      }
+    } catch (IOException e) {
+      LOGGER.error("Metadata index can't be loaded - " + indexPath, e);
+    }
+    metadataExecutor.scheduleWithFixedDelay(this::saveMetadataIndex, METADATA_INDEX_SAVE_TIME,
+        METADATA_INDEX_SAVE_TIME, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Schedules the eviction of the least recently accessed Series and Studies when the cached
+   * metadata exceeds the limit.
+   */
+  void scheduleMetadataEviction() {
+    cache.setMaxSize(parameters.getMetadataCacheSize());
+    metadataExecutor.scheduleWithFixedDelay(cache::evictColdObjects, METADATA_EVICTION_TIME,
+        METADATA_EVICTION_TIME, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Writes the cached objects to the metadata index if it's enabled.
+   */
+  synchronized void saveMetadataIndex() {
+    Path indexPath = parameters.getMetadataIndexPath();
+    if (indexPath == null) {
+      return;
+    }
+    try {
+      MetadataIndex.save(cache, indexPath, getDatasetName());
+      LOGGER.debug("Metadata index was saved - " + indexPath);
+    } catch (IOException e) {
+      LOGGER.error("Metadata index can't be saved - " + indexPath, e);
+    }
+  }
+
+  private String getDatasetName() {
+    CloudConf cloudConf = parameters.getCloudConf();
+    return cloudConf.getStage() + "/" + cloudConf.getProject() + "/" + cloudConf.getLocation()
+        + "/" + cloudConf.getDataSet();
+  }
+
+  /**
+   * Returns the cached attributes of the path, or null if the path has to be resolved again. The
+   * lookup doesn't allocate, so repeated getattr calls of the same paths are cheap.
+   */
+  StatTemplate getStatTemplate(String path) {
+    StatTemplate statTemplate = statTemplates.get(path);
+    if (statTemplate == null || statTemplate.isExpired(System.nanoTime())) {
+      return null;
+    }
+    // the Study and the Series stay recently accessed while they are used only through getattr
+    statTemplate.touch();
+    return statTemplate;
+  }
+
+  /**
+   * Remembers that the path doesn't exist for the time of a negative lookup.
+   */
+  void putMissingStat(String path) {
+    putStatTemplate(path, StatTemplate.missing(
+        System.nanoTime() + TimeUnit.SECONDS.toNanos(NEGATIVE_STAT_TIME)));
+  }
+
+  void applyStat(StatTemplate statTemplate, DicomFuse dicomFuse, FileStat fileStat) {
+    statTemplate.apply(fileStat, getUid(dicomFuse), getGid(dicomFuse), os);
+  }
+
+  /**
+   * Sets the attributes of the object and caches them for the path if they don't change until the
+   * object is modified by this process.
+   */
+  void setAttr(String path, DicomPath dicomPath, DicomFuse dicomFuse, FileStat fileStat)
+      throws DicomFuseException {
+    StatTemplate statTemplate = createStatTemplate(dicomPath);
+    applyStat(statTemplate, dicomFuse, fileStat);
+    if (isStatCacheable(dicomPath, statTemplate)) {
+      putStatTemplate(path, statTemplate);
+    }
+  }
+
+  private StatTemplate createStatTemplate(DicomPath dicomPath) throws DicomFuseException {
+    switch (dicomPath.getDicomPathLevel()) {
+      case DATASET:
+      case DICOM_STORE:
+      case STUDY:
+      case SERIES:
+        return createStatTemplate(FileStat.S_IFDIR | 0777, dicomPath,
+            getModificationTime(dicomPath));
       case INSTANCE:
       case TEMP_FILE_IN_DICOM_STORE:
       case TEMP_FILE_IN_SERIES:
-        setStat(dicomFuse, fileStat, FileStat.S_IFREG | 0666, dicomPath);
-        break;
+        return createStatTemplate(FileStat.S_IFREG | 0666, dicomPath,
+            getModificationTime(dicomPath));
+      case FRAMES:
+        return createStatTemplate(FileStat.S_IFDIR | 0555, dicomPath,
+            getModificationTime(dicomPath));
+      case VIRTUAL_FILE:
+      case FRAME:
+        return createStatTemplate(FileStat.S_IFREG | 0444, dicomPath,
+            getModificationTime(dicomPath));
+      case CONTROL_FOLDER:
+        return createStatTemplate(FileStat.S_IFDIR | 0555, dicomPath, mountTime);
+      case CONTROL_FILE:
+        boolean command = ControlFileType.fromFileName(dicomPath.getFileName()).isCommand();
+        return createStatTemplate(FileStat.S_IFREG | (command ? 0222 : 0444), dicomPath,
+            mountTime);
       default:
         throw new DicomFuseException("Error level");
     }
   }
 
-  private void setStat(DicomFuse dicomFuse, FileStat fileStat, int perm) throws DicomFuseException {
-    setStat(dicomFuse, fileStat, perm, null);
+  // The sizes of temp, virtual and control files and of the Instances with unknown sizes change
+  // without the changes of the objects, so their attributes are always taken again.
+  private static boolean isStatCacheable(DicomPath dicomPath, StatTemplate statTemplate) {
+    switch (dicomPath.getDicomPathLevel()) {
+      case DATASET:
+      case DICOM_STORE:
+      case STUDY:
+      case SERIES:
+      case FRAMES:
+        return true;
+      case INSTANCE:
+        return statTemplate.getSize() != 0;
+      default:
+        return false;
+    }
+  }
+
+  private void putStatTemplate(String path, StatTemplate statTemplate) {
+    if (statTemplates.size() >= MAX_STAT_TEMPLATES) {
+      statTemplates.clear();
+    }
+    statTemplates.put(path, statTemplate);
   }
 
-  private void setStat(DicomFuse dicomFuse, FileStat fileStat, int perm, DicomPath dicomPath)
+  /**
+   * Drops the cached attributes of the object and of its parent folder. Called when this process
+   * changes the object, so a new, deleted or modified object and the modification time of its
+   * folder are resolved again.
+   */
+  private void invalidateStatTemplates(DicomPath dicomPath) {
+    String path = "/" + dicomPath;
+    statTemplates.remove(path);
+    statTemplates.remove(path.substring(0, Math.max(path.lastIndexOf('/'), 1)));
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.INSTANCE) {
+      // the Instance can be opened without the extension, and its frames folder is cached too
+      String pathWithoutExtension = path.substring(0, path.length() - DCM_EXTENSION.length());
+      statTemplates.remove(pathWithoutExtension);
+      statTemplates.remove(pathWithoutExtension + DicomPath.FRAMES_FOLDER_SUFFIX);
+    }
+  }
+
+  /**
+   * Drops the cached attributes of the folder, of the objects in it and of its parent folder. All
+   * cached paths are checked, so it's used only for the changes of whole folders.
+   */
+  private void invalidateFolderStatTemplates(DicomPath dicomPath) {
+    String folderPrefix = dicomPath.getDicomPathLevel() == DicomPathLevel.DATASET
+        ? "/" : "/" + dicomPath + "/";
+    statTemplates.keySet().removeIf(path -> path.startsWith(folderPrefix));
+    invalidateStatTemplates(dicomPath);
+  }
+
+  private Instant getModificationTime(DicomPath dicomPath) throws DicomFuseException {
+    Instant modificationTime = cache.getModificationTime(dicomPath);
+    return modificationTime != null ? modificationTime : defaultInstant;
+  }
+
+  private StatTemplate createStatTemplate(int perm, DicomPath dicomPath, Instant modificationTime)
       throws DicomFuseException {
-    fileStat.st_mode.set(perm);
-    fileStat.st_nlink.set(1);
-    // set file size if exists
-    if (dicomPath != null) {
-      if (dicomPath.getDicomPathLevel() == DicomPathLevel.INSTANCE) {
-        long instanceSize = cache.getInstanceSize(dicomPath);
-        if (instanceSize != 0) {
-          fileStat.st_size.set(instanceSize);
-        } else {
-          fileStat.st_size.set(0);
-        }
-      } else {
-        fileStat.st_size.set(0);
+    long size = 0;
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.INSTANCE) {
+      size = resolveInstanceSize(dicomPath);
+      if (size == 0 && parameters.getKernelCacheTime() > 0) {
+        cache.getInstanceContent(dicomPath).setUnknownSizeReportTime(Instant.now());
       }
+    } else if (dicomPath.getDicomPathLevel() == DicomPathLevel.VIRTUAL_FILE
+        || dicomPath.getDicomPathLevel() == DicomPathLevel.FRAME) {
+      // the size is known after the file was generated or downloaded, these files are read
+      // with direct I/O
+      size = getGeneratedFileSize(dicomPath);
+    }
+    CachedStudy cachedStudy = null;
+    CachedSeries cachedSeries = null;
+    switch (dicomPath.getDicomPathLevel()) {
+      case STUDY:
+        cachedStudy = cache.findCachedStudy(dicomPath);
+        break;
+      case SERIES:
+      case INSTANCE:
+      case FRAMES:
+        cachedStudy = cache.findCachedStudy(dicomPath);
+        cachedSeries = cache.findCachedSeries(dicomPath);
+        break;
+      default:
+        break;
     }
+    return new StatTemplate(perm, size, Inodes.getInode(dicomPath), modificationTime,
+        System.nanoTime() + statTime, cachedStudy, cachedSeries);
+  }
 
-    // set uid and gid
-    fileStat.st_uid.set(dicomFuse.getContext().uid.get());
-    fileStat.st_gid.set(dicomFuse.getContext().gid.get());
+  private void setStat(DicomFuse dicomFuse, FileStat fileStat, int perm) {
+    // the inode numbers are set from the listing
+    applyStat(new StatTemplate(perm, 0, 0, defaultInstant, 0), dicomFuse, fileStat);
+  }
 
-    // set default data, it needs to be implemented because
-    // FileStat contains garbage from uninitialized memory in getattr.
-    // See: https://github.com/SerCeMan/jnr-fuse/issues/68
-    if (os == OS.DARWIN || os == OS.WINDOWS) {
-      fileStat.st_birthtime.tv_sec.set(defaultInstant.getEpochSecond());
-      fileStat.st_birthtime.tv_nsec.set(defaultInstant.getNano());
+  // The owner is the user who calls the operation. On Linux and macOS the mount sets the uid and gid
+  // options, which replace the owner returned by getattr, so the owner is taken only once there.
+  private long getUid(DicomFuse dicomFuse) {
+    if (!isOwnerSetByMount()) {
+      return dicomFuse.getContext().uid.get();
     }
+    long uid = this.uid;
+    if (uid < 0) {
+      uid = dicomFuse.getContext().uid.get();
+      this.uid = uid;
+    }
+    return uid;
+  }
 
-    fileStat.st_dev.set(0);
-    fileStat.st_ino.set(0);
-    fileStat.st_rdev.set(0);
-    fileStat.st_blksize.set(1024 * 64);
-    fileStat.st_blocks.set(0);
-
-    fileStat.st_mtim.tv_sec.set(defaultInstant.getEpochSecond());
-    fileStat.st_mtim.tv_nsec.set(defaultInstant.getNano());
+  private long getGid(DicomFuse dicomFuse) {
+    if (!isOwnerSetByMount()) {
+      return dicomFuse.getContext().gid.get();
+    }
+    long gid = this.gid;
+    if (gid < 0) {
+      gid = dicomFuse.getContext().gid.get();
+      this.gid = gid;
+    }
+    return gid;
+  }
 
-    fileStat.st_ctim.tv_sec.set(defaultInstant.getEpochSecond());
-    fileStat.st_ctim.tv_nsec.set(defaultInstant.getNano());
+  // See MountOptions
+  private boolean isOwnerSetByMount() {
+    return os == OS.LINUX || os == OS.DARWIN;
+  }
 
-    fileStat.st_atim.tv_sec.set(defaultInstant.getEpochSecond());
-    fileStat.st_atim.tv_nsec.set(defaultInstant.getNano());
+  /**
+   * Returns the size of the Instance without downloading it. The size is taken from the downloaded
+   * file, or it is requested from the server once in the background and kept in the cache, so
+   * getattr doesn't wait for the server. Returns 0 until the size is known.
+   */
+  private long resolveInstanceSize(DicomPath dicomPath) throws DicomFuseException {
+    long instanceSize = cache.getInstanceSize(dicomPath);
+    if (instanceSize != 0 || cache.isInstanceSizeRequested(dicomPath)) {
+      return instanceSize;
+    }
+    // a failed request is not repeated until the Instance is modified
+    cache.setInstanceSizeRequested(dicomPath, true);
+    DownloadedFile downloadedFile = downloadCacher.getFileIfPresent(dicomPath);
+    if (downloadedFile != null && downloadedFile.getSize() > 0) {
+      cache.setInstanceSize(dicomPath, downloadedFile.getSize());
+      return downloadedFile.getSize();
+    }
+    sizeExecutor.execute(() -> requestInstanceSize(dicomPath));
+    return 0;
+  }
 
-    if (os == OS.DARWIN) {
-      fileStat.st_flags.set(0);
-      fileStat.st_gen.set(0);
+  private void requestInstanceSize(DicomPath dicomPath) {
+    try {
+      long instanceSize = FuseDaoHelper.getInstanceSize(parameters.getFuseDAO(),
+          parameters.getCloudConf(), dicomPath);
+      // the size is -1 if the server doesn't send Content-Length
+      if (instanceSize > 0) {
+        cache.setInstanceSize(dicomPath, instanceSize);
+      }
+    } catch (DicomFuseException e) {
+      LOGGER.error("Error getting instance size - " + dicomPath, e);
     }
   }
 
-  void fillFolder(DicomPath dicomPath, Pointer buf, FuseFillDir filler) throws DicomFuseException {
+  DirectoryListing getDirectoryListing(DicomPath dicomPath) throws DicomFuseException {
     switch (dicomPath.getDicomPathLevel()) {
       case DATASET:
-        fillDatasetFolder(buf, filler);
-        break;
+        return cache.getDatasetListing(dicomPath);
       case DICOM_STORE:
-        fillDicomStoreFolder(dicomPath, buf, filler);
-        break;
+        return cache.getDicomStoreListing(dicomPath);
       case STUDY:
-        fillStudyFolder(dicomPath, buf, filler);
-        break;
+        return cache.getStudyListing(dicomPath, studyFiles);
       case SERIES:
-        fillSeriesFolder(dicomPath, buf, filler);
-        break;
+        return cache.getSeriesListing(dicomPath, parameters.isVirtualFiles(), seriesFiles,
+            instanceFileSuffixes);
+      case FRAMES:
+        return cache.getFramesListing(dicomPath);
+      case CONTROL_FOLDER:
+        return controlListing;
       default:
         throw new DicomFuseException("Error level");
     }
   }
 
-  private void fillDatasetFolder(Pointer buf, FuseFillDir filler) {
-    List<DicomStore> dicomStoreList = cache.getCachedDicomStoreList();
-    for (DicomStore dicomStore : dicomStoreList) {
-      String dicomStoreId = dicomStore.getDicomStoreId();
-      filler.apply(buf, dicomStoreId, null, 0);
+  /**
+   * Fills the entries starting from the offset. The offset of each entry is its index + 1, so the
+   * next readdir call continues after the last entry accepted by the filler. The attributes of
+   * entries are filled from the templates with the inode numbers of the listing, so they are not
+   * requested by getattr for the file type.
+   */
+  void fillFolder(DicomPath dicomPath, DirectoryListing directoryListing, DicomFuse dicomFuse,
+      Pointer buf, FuseFillDir filler, long offset) throws DicomFuseException {
+    FileStat[] statTemplates = READDIR_STAT_TEMPLATES.get();
+    FileStat folderStat = statTemplates[0];
+    setStat(dicomFuse, folderStat, FileStat.S_IFDIR | 0777);
+    folderStat.st_size.set(0);
+    FileStat entryStat = statTemplates[1];
+    setStat(dicomFuse, entryStat, FileStat.S_IFREG
+        | (dicomPath.getDicomPathLevel() == DicomPathLevel.FRAMES ? 0444 : 0666));
+    entryStat.st_size.set(0);
+    // the filler gets the address of the name at the position of the view
+    ByteBuffer names = directoryListing.getNames();
+    for (int i = (int) offset; i < directoryListing.size(); i++) {
+      // entries 0 and 1 are "." and "..", files of Study and Series folders are marked in listings
+      FileStat stat = directoryListing.isFolder(i) ? folderStat : entryStat;
+      stat.st_ino.set(directoryListing.getInode(i));
+      if (filler.apply(buf, directoryListing.getName(names, i), Struct.getMemory(stat), i + 1)
+          != 0) {
+        break; // the buffer is full
+      }
     }
   }
 
-  private void fillDicomStoreFolder(DicomPath dicomPath, Pointer buf, FuseFillDir filler)
-      throws DicomFuseException {
-    List<Study> studyList = cache.getCachedStudyList(dicomPath);
-    for (Study study : studyList) {
-      String studyInstanceUID = study.getStudyInstanceUID().getValue1();
-      filler.apply(buf, studyInstanceUID, null, 0);
-    }
+  /**
+   * Returns the value of the attribute with the tag, or null if the object has no such attribute.
+   */
+  byte[] getXattr(DicomPath dicomPath, String tag) throws DicomFuseException {
+    checkExistingObject(dicomPath);
+    String value = cache.getDicomAttributes(dicomPath).get(tag);
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
   }
 
-  private void fillStudyFolder(DicomPath dicomPath, Pointer buf, FuseFillDir filler)
-      throws DicomFuseException {
-    List<Series> seriesList = cache.getCachedSeriesList(dicomPath);
-    for (Series series : seriesList) {
-      String seriesInstanceUID = series.getSeriesInstanceUID().getValue1();
-      filler.apply(buf, seriesInstanceUID, null, 0);
-    }
+  byte[] listXattr(DicomPath dicomPath) throws DicomFuseException {
+    checkExistingObject(dicomPath);
+    return DicomXattrs.toNameList(cache.getDicomAttributes(dicomPath).keySet());
   }
 
-  private void fillSeriesFolder(DicomPath dicomPath, Pointer buf, FuseFillDir filler)
+  int readInstance(FileHandle fileHandle, Pointer buf, int size, long offset)
       throws DicomFuseException {
-    List<Instance> instanceList = cache.getCachedInstanceList(dicomPath);
-    for (Instance instance : instanceList) {
-      String sopInstanceUID = instance.getSopInstanceUID().getValue1();
-      filler.apply(buf, sopInstanceUID + DCM_EXTENSION, null, 0);
+    DownloadedFile downloadedFile = fileHandle.getDownloadedFile();
+    if (downloadedFile != null) {
+      // the file may still be downloading
+      downloadedFile.awaitRange(offset + size);
+    } else if (!fileHandle.isVirtual()) {
+      throw new DicomFuseException("Error reading file. Try open the file again. "
+          + fileHandle.getDicomPath());
     }
-  }
-
-  int readInstance(DicomPath dicomPath, Pointer buf, int size, long offset)
-      throws DicomFuseException {
-    Path instancePath = downloadCacher.getPathIfPresent(dicomPath);
-    if (instancePath == null) {
-      throw new DicomFuseException("Error reading file. Try open the file again. " + dicomPath);
-    }
-    int length = 0;
-    try (RandomAccessFile raf = new RandomAccessFile(instancePath.toFile(), "r")) {
-      raf.seek(offset);
-      byte[] buffer = new byte[size];
-      if ((length = raf.read(buffer)) != -1) {
-        buf.put(0, buffer, 0, length);
-      } else {
-        length = 0;
-      }
+    try {
+      return fileHandle.read(buf, size, offset);
     } catch (IOException e) {
       LOGGER.error("Error reading file", e);
+      return 0;
     }
-    return length;
   }
 
-  int writeInstance(DicomPath dicomPath, Pointer buf, int size, long offset)
+  int writeInstance(FileHandle fileHandle, Pointer buf, int size, long offset)
       throws DicomFuseException {
+    DicomPath dicomPath = fileHandle.getDicomPath();
     AtomicLong instanceOffset = cache.getOffset(dicomPath);
     if (offset == 0) {
       // Double check for macOS.
@@ -338,32 +751,308 @@ class DicomFuseHelper {
       cache.setInstanceCommand(dicomPath, Command.WRITE);
     }
     Path instancePath = uploadCacher.getPath(dicomPath);
-    try (RandomAccessFile raf = new RandomAccessFile(instancePath.toFile(), "rw")) {
-      raf.seek(offset);
-      byte[] buffer = new byte[size];
-      buf.get(0, buffer, 0, size);
-      raf.write(buffer);
+    try {
+      fileHandle.write(instancePath, buf, size, offset);
     } catch (IOException e) {
-      LOGGER.error("Random access file write error", e);
+      LOGGER.error("File channel write error", e);
       return 0;
     }
     instanceOffset.set(offset + size); // for macOS
     return size;
   }
 
-  void cacheInstanceData(DicomPath dicomPath) throws DicomFuseException {
+  boolean isKeepCache(DicomPath dicomPath) {
+    return parameters.isImmutableInstances()
+        && dicomPath.getDicomPathLevel() == DicomPathLevel.INSTANCE
+        && !modifiedInstances.remove(dicomPath);
+  }
+
+  /**
+   * Checks if the kernel may still have the size 0 of the Instance in its attribute cache. The
+   * kernel doesn't read beyond the cached size unless direct I/O is used.
+   */
+  boolean isDirectIo(DicomPath dicomPath) throws DicomFuseException {
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.VIRTUAL_FILE
+        || dicomPath.getDicomPathLevel() == DicomPathLevel.FRAME
+        || dicomPath.getDicomPathLevel() == DicomPathLevel.CONTROL_FILE) {
+      // the size of a virtual file or a frame isn't known before it is generated or downloaded
+      return true;
+    }
+    if (parameters.getKernelCacheTime() == 0
+        || dicomPath.getDicomPathLevel() != DicomPathLevel.INSTANCE) {
+      return false;
+    }
+    // only the Instances whose size was reported as 0 have the report time in their state
+    InstanceContent instanceContent = cache.findInstanceContent(dicomPath);
+    Instant reportTime = instanceContent == null ? null
+        : instanceContent.getUnknownSizeReportTime();
+    return reportTime != null
+        && reportTime.plusSeconds(parameters.getKernelCacheTime()).isAfter(Instant.now());
+  }
+
+  private long getGeneratedFileSize(DicomPath dicomPath) throws DicomFuseException {
+    DownloadedFile downloadedFile;
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.FRAME) {
+      downloadedFile = downloadCacher.getFileIfPresent(dicomPath);
+    } else if (dicomPath.getVirtualFileType().isArchive()) {
+      // archives are streamed, their size is known only after they are read to the end
+      return 0;
+    } else if (dicomPath.getVirtualFileType().isPreview()) {
+      DicomPath previewPath = getPreviewPath(dicomPath, false);
+      downloadedFile = previewPath != null ? downloadCacher.getFileIfPresent(previewPath) : null;
+    } else {
+      return virtualFileCacher.getFileSizeIfPresent(dicomPath);
+    }
+    return downloadedFile != null ? Math.max(downloadedFile.getSize(), 0) : 0;
+  }
+
+  /**
+   * Returns the path of the preview of the Instance which the preview file shows. The preview of a
+   * Series shows its representative Instance, the first frame of a multi-frame Instance is shown.
+   * Previews are cached by these paths, so a Series preview shares the cache with the Instance.
+   *
+   * @param update true if the Instances of the Series can be requested from the server
+   * @return the path or null if the Instances of the Series are not cached
+   */
+  private DicomPath getPreviewPath(DicomPath dicomPath, boolean update)
+      throws DicomFuseException {
+    String sopInstanceUID = dicomPath.getSopInstanceUID();
+    if (dicomPath.getVirtualFileType().getSourceLevel() == SERIES) {
+      if (update) {
+        updateDir(dicomPath.getSeriesPath());
+      }
+      sopInstanceUID = cache.getRepresentativeInstance(dicomPath);
+      if (sopInstanceUID == null) {
+        if (update) {
+          throw new DicomFuseException("Series has no Instances - " + dicomPath);
+        }
+        return null;
+      }
+    }
+    DicomPath instancePath = new DicomPath.Builder(DicomPathLevel.INSTANCE)
+        .dicomStoreId(dicomPath.getDicomStoreId())
+        .studyInstanceUID(dicomPath.getStudyInstanceUID())
+        .seriesInstanceUID(dicomPath.getSeriesInstanceUID())
+        .sopInstanceUID(sopInstanceUID)
+        .build();
+    int frameNumber = cache.getNumberOfFrames(instancePath) > 1 ? 1 : 0;
+    return new DicomPath.Builder(DicomPathLevel.VIRTUAL_FILE)
+        .dicomStoreId(dicomPath.getDicomStoreId())
+        .studyInstanceUID(dicomPath.getStudyInstanceUID())
+        .seriesInstanceUID(dicomPath.getSeriesInstanceUID())
+        .sopInstanceUID(sopInstanceUID)
+        .fileName(sopInstanceUID + VirtualFileType.INSTANCE_PREVIEW.getSuffix())
+        .virtualFileType(VirtualFileType.INSTANCE_PREVIEW)
+        .frameNumber(frameNumber)
+        .build();
+  }
+
+  FileHandle openFileHandle(DicomPath dicomPath) throws DicomFuseException {
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.CONTROL_FILE) {
+      // the statistics are taken on open, the command files are empty
+      boolean stats = ControlFileType.fromFileName(dicomPath.getFileName())
+          == ControlFileType.STATS;
+      return new FileHandle(dicomPath, stats ? getStats() : new byte[0]);
+    }
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.VIRTUAL_FILE
+        && dicomPath.getVirtualFileType().isArchive()) {
+      return new FileHandle(dicomPath, new ArchiveStream(downloadCacher,
+          getArchiveMembers(dicomPath)));
+    }
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.VIRTUAL_FILE
+        && !dicomPath.getVirtualFileType().isPreview()) {
+      return new FileHandle(dicomPath, virtualFileCacher.getFile(dicomPath));
+    }
+    DownloadedFile downloadedFile = cacheInstanceData(dicomPath);
+    try {
+      return new FileHandle(dicomPath, downloadedFile);
+    } catch (IOException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
+  /**
+   * Returns the Instances of the archive. The Instances of a Series are ordered by InstanceNumber,
+   * the Series of a Study are ordered by SeriesInstanceUID and stored in their own folders.
+   */
+  private List<ArchiveStream.Member> getArchiveMembers(DicomPath dicomPath)
+      throws DicomFuseException {
+    List<ArchiveStream.Member> members = new ArrayList<>();
+    if (dicomPath.getVirtualFileType().getSourceLevel() == DicomPathLevel.STUDY) {
+      for (DicomPath seriesPath : getSeriesPaths(dicomPath.getStudyPath())) {
+        addArchiveMembers(members, seriesPath, seriesPath.getSeriesInstanceUID() + "/");
+      }
+    } else {
+      addArchiveMembers(members, dicomPath.getSeriesPath(), "");
+    }
+    return members;
+  }
+
+  private void addArchiveMembers(List<ArchiveStream.Member> members, DicomPath seriesPath,
+      String folder) throws DicomFuseException {
+    for (DicomPath instancePath : getInstancePaths(seriesPath)) {
+      long modificationTime = getModificationTime(instancePath).getEpochSecond();
+      members.add(new ArchiveStream.Member(
+          folder + instancePath.getSopInstanceUID() + DCM_EXTENSION, instancePath,
+          modificationTime));
+    }
+  }
+
+  /**
+   * Returns the paths of the Instances of the Series ordered by InstanceNumber. The Instances are
+   * requested from the server if the cached list is outdated.
+   */
+  private List<DicomPath> getInstancePaths(DicomPath seriesPath) throws DicomFuseException {
+    updateDir(seriesPath);
+    List<DicomPath> instancePaths = new ArrayList<>();
+    for (String sopInstanceUID : cache.getOrderedInstances(seriesPath)) {
+      instancePaths.add(new DicomPath.Builder(DicomPathLevel.INSTANCE)
+          .dicomStoreId(seriesPath.getDicomStoreId())
+          .studyInstanceUID(seriesPath.getStudyInstanceUID())
+          .seriesInstanceUID(seriesPath.getSeriesInstanceUID())
+          .sopInstanceUID(sopInstanceUID)
+          .build());
+    }
+    return instancePaths;
+  }
+
+  /**
+   * Returns the paths of the Series of the Study ordered by SeriesInstanceUID. The Series are
+   * requested from the server if the cached list is outdated.
+   */
+  private List<DicomPath> getSeriesPaths(DicomPath studyPath) throws DicomFuseException {
+    updateDir(studyPath);
+    List<DicomPath> seriesPaths = new ArrayList<>();
+    for (String seriesInstanceUID : cache.getSeriesInstanceUIDs(studyPath)) {
+      seriesPaths.add(new DicomPath.Builder(SERIES)
+          .dicomStoreId(studyPath.getDicomStoreId())
+          .studyInstanceUID(studyPath.getStudyInstanceUID())
+          .seriesInstanceUID(seriesInstanceUID)
+          .build());
+    }
+    return seriesPaths;
+  }
+
+  /**
+   * Executes the command of the control file for the object at the path.
+   */
+  void executeControlCommand(ControlFileType controlFileType, DicomPath dicomPath)
+      throws DicomFuseException {
+    switch (controlFileType) {
+      case PREFETCH:
+        prefetch(dicomPath);
+        break;
+      case INVALIDATE:
+        invalidate(dicomPath);
+        break;
+      case DROP_CACHE:
+        downloadCacher.removeAll();
+        LOGGER.info("Download cache was dropped");
+        break;
+      default:
+        throw new DicomFuseException("Not a command - " + controlFileType.getFileName());
+    }
+  }
+
+  /**
+   * Downloads the Instances of the Study, the Series or the Instance to the cache in the
+   * background.
+   */
+  private void prefetch(DicomPath dicomPath) throws DicomFuseException {
+    checkExistingObject(dicomPath);
+    List<DicomPath> instancePaths = new ArrayList<>();
+    switch (dicomPath.getDicomPathLevel()) {
+      case STUDY:
+        for (DicomPath seriesPath : getSeriesPaths(dicomPath)) {
+          instancePaths.addAll(getInstancePaths(seriesPath));
+        }
+        break;
+      case SERIES:
+        instancePaths.addAll(getInstancePaths(dicomPath));
+        break;
+      case INSTANCE:
+        instancePaths.add(dicomPath);
+        break;
+      default:
+        throw new DicomFuseException("Only Studies, Series and Instances can be prefetched - "
+            + dicomPath);
+    }
+    downloadCacher.prefetch(instancePaths);
+    LOGGER.info("Prefetching " + instancePaths.size() + " Instances - " + dicomPath);
+  }
+
+  /**
+   * Marks the cached folders of the object and of the objects contained in it as outdated, and
+   * removes their cached files.
+   */
+  private void invalidate(DicomPath dicomPath) throws DicomFuseException {
+    switch (dicomPath.getDicomPathLevel()) {
+      case DATASET:
+        cache.setDatasetCacheTime(Instant.now());
+        for (String dicomStoreId : cache.getCachedDicomStores().keySet()) {
+          invalidateDicomStoreCache(new DicomPath.Builder(DICOM_STORE)
+              .dicomStoreId(dicomStoreId)
+              .build());
+        }
+        break;
+      case DICOM_STORE:
+        checkExistingObject(dicomPath);
+        invalidateDicomStoreCache(dicomPath);
+        break;
+      case STUDY:
+        checkExistingObject(dicomPath);
+        invalidateStudyCache(dicomPath);
+        break;
+      case SERIES:
+        checkExistingObject(dicomPath);
+        cache.setSeriesCacheTime(dicomPath, Instant.now());
+        break;
+      case INSTANCE:
+        checkExistingObject(dicomPath);
+        addModifiedInstance(dicomPath);
+        break;
+      default:
+        throw new DicomFuseException("Only folders and Instances can be invalidated - "
+            + dicomPath);
+    }
+    downloadCacher.removeSubtree(dicomPath);
+    virtualFileCacher.removeSubtree(dicomPath);
+    invalidateFolderStatTemplates(dicomPath);
+    LOGGER.info("Cache was invalidated - " + dicomPath);
+  }
+
+  private byte[] getStats() {
+    StringBuilder stringBuilder = new StringBuilder();
+    stringBuilder.append("uptime_seconds ")
+        .append(Instant.now().getEpochSecond() - mountTime.getEpochSecond()).append('\n');
+    cache.appendStats(stringBuilder);
+    downloadCacher.appendStats(stringBuilder);
+    operationStats.appendStats(stringBuilder);
+    return stringBuilder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private DownloadedFile cacheInstanceData(DicomPath dicomPath) throws DicomFuseException {
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.FRAME) {
+      // frames are cached separately, so only the frames which are read are downloaded
+      return downloadCacher.getFile(dicomPath);
+    }
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.VIRTUAL_FILE) {
+      return downloadCacher.getFile(getPreviewPath(dicomPath, true));
+    }
     if (dicomPath.getDicomPathLevel() == DicomPathLevel.INSTANCE) {
-      Path path = downloadCacher.getPath(dicomPath);
+      DownloadedFile downloadedFile = downloadCacher.getFile(dicomPath);
       long instanceSize = cache.getInstanceSize(dicomPath);
       if (instanceSize == 0) {
-        InstanceContent instanceContent = cache.getInstanceContent(dicomPath);
-        try {
-          instanceContent.setInstanceSize(Files.size(path));
-        } catch (IOException e) {
-          throw new DicomFuseException(e);
+        // Content-Length is known as soon as the download starts, otherwise the whole file
+        // is needed to report the correct size.
+        if (downloadedFile.getSize() < 0) {
+          downloadedFile.awaitCompletion();
         }
+        cache.setInstanceSize(dicomPath, downloadedFile.getSize());
       }
+      return downloadedFile;
     }
+    return null;
   }
 
   void flushInstance(DicomPath dicomPath) throws DicomFuseException {
@@ -375,7 +1064,11 @@ class DicomFuseHelper {
     }
     if (command == Command.WRITE) {
       cache.setInstanceCommand(dicomPath, null);
-      saveInstance(dicomPath);
+      try {
+        saveInstance(dicomPath);
+      } finally {
+        invalidateStatTemplates(dicomPath);
+      }
       LOGGER.info("Instance was uploaded - " + dicomPath);
     }
   }
@@ -394,7 +1087,7 @@ class DicomFuseHelper {
               TimeUnit.SECONDS.sleep(3);
               cache.getCachedTempInstances(dicomPath).remove(dicomPath.getFileName());
               uploadCacher.removePath(dicomPath);
-              dicomPathCacher.removeDicomPath(dicomPath.getFileName());
+              dicomPathCacher.removeDicomPath("/" + dicomPath);
             } catch (DicomFuseException | InterruptedException e) {
               LOGGER.error("Clear resources error", e);
             }
@@ -405,13 +1098,19 @@ class DicomFuseHelper {
         invalidateDicomStoreCache(dicomPath);
         break;
       case INSTANCE:
+        addModifiedInstance(dicomPath);
         try {
           FuseDaoHelper.deleteInstance(parameters.getFuseDAO(), parameters.getCloudConf(),
               dicomPath);
         } finally {
           downloadCacher.removePath(dicomPath);
+          downloadCacher.removeGeneratedFiles(dicomPath);
+          virtualFileCacher.removeInstance(dicomPath);
         }
         LOGGER.info("Instance was deleted - " + dicomPath);
+        // the size of the uploaded Instance will be requested again
+        cache.setInstanceSize(dicomPath, 0);
+        cache.setInstanceSizeRequested(dicomPath, false);
         try {
           FuseDaoHelper.uploadInstance(parameters.getFuseDAO(), parameters.getCloudConf(),
               dicomPath, instanceDataPath);
@@ -425,18 +1124,78 @@ class DicomFuseHelper {
   }
 
   void createTemporaryInstance(DicomPath dicomPath) throws DicomFuseException {
-    InstanceContent instanceContent = new InstanceContent(new Instance());
+    InstanceContent instanceContent = new InstanceContent();
     cache.getCachedTempInstances(dicomPath).put(dicomPath.getFileName(), instanceContent);
+    invalidateStatTemplates(dicomPath);
     LOGGER.debug("Temporary instance was created " + dicomPath);
   }
 
   void unlinkInstance(DicomPath dicomPath) throws DicomFuseException {
     FuseDaoHelper.deleteInstance(parameters.getFuseDAO(), parameters.getCloudConf(), dicomPath);
     LOGGER.info("Instance was deleted - " + dicomPath);
+    addModifiedInstance(dicomPath);
     downloadCacher.removePath(dicomPath);
+    downloadCacher.removeGeneratedFiles(dicomPath);
+    virtualFileCacher.removeInstance(dicomPath);
+    invalidateStatTemplates(dicomPath);
     invalidateDicomStoreCache(dicomPath);
   }
 
+  /**
+   * Deletes the Study or the Series with all its Instances by a single request, and removes them
+   * from the caches.
+   */
+  void deleteFolder(DicomPath dicomPath) throws DicomFuseException {
+    checkExistingObject(dicomPath);
+    switch (dicomPath.getDicomPathLevel()) {
+      case STUDY:
+        FuseDaoHelper.deleteStudy(parameters.getFuseDAO(), parameters.getCloudConf(), dicomPath);
+        for (String seriesInstanceUID : cache.getCachedSeries(dicomPath).keySet()) {
+          addModifiedInstances(new DicomPath.Builder(SERIES)
+              .dicomStoreId(dicomPath.getDicomStoreId())
+              .studyInstanceUID(dicomPath.getStudyInstanceUID())
+              .seriesInstanceUID(seriesInstanceUID)
+              .build());
+        }
+        cache.removeStudy(dicomPath);
+        break;
+      case SERIES:
+        FuseDaoHelper.deleteSeries(parameters.getFuseDAO(), parameters.getCloudConf(), dicomPath);
+        addModifiedInstances(dicomPath);
+        cache.removeSeries(dicomPath);
+        break;
+      default:
+        throw new DicomFuseException("Only Study and Series folders can be deleted - "
+            + dicomPath);
+    }
+    LOGGER.info("Folder was deleted - " + dicomPath);
+    downloadCacher.removeSubtree(dicomPath);
+    virtualFileCacher.removeSubtree(dicomPath);
+    invalidateFolderStatTemplates(dicomPath);
+  }
+
+  // The set is read only by isKeepCache, so it is filled only with immutable Instances and
+  // doesn't grow when the kernel cache is not kept.
+  private void addModifiedInstance(DicomPath dicomPath) {
+    if (parameters.isImmutableInstances()) {
+      modifiedInstances.add(dicomPath);
+    }
+  }
+
+  private void addModifiedInstances(DicomPath seriesPath) throws DicomFuseException {
+    if (!parameters.isImmutableInstances()) {
+      return;
+    }
+    for (String sopInstanceUID : cache.getCachedInstances(seriesPath).getSopInstanceUIDs()) {
+      addModifiedInstance(new DicomPath.Builder(DicomPathLevel.INSTANCE)
+          .dicomStoreId(seriesPath.getDicomStoreId())
+          .studyInstanceUID(seriesPath.getStudyInstanceUID())
+          .seriesInstanceUID(seriesPath.getSeriesInstanceUID())
+          .sopInstanceUID(sopInstanceUID)
+          .build());
+    }
+  }
+
   void createDicomStoreInDataset(DicomPath dicomPath) throws DicomFuseException {
     if (dicomPath.getDicomPathLevel() == DICOM_STORE) {
       FuseDaoHelper.createDicomStore(parameters.getFuseDAO(), parameters.getCloudConf(), dicomPath);
@@ -445,6 +1204,8 @@ class DicomFuseHelper {
       dicomStore.setDicomStoreId(dicomStoreId);
       CachedDicomStore newCachedDicomStore = new CachedDicomStore(dicomStore);
       cache.getCachedDicomStores().put(dicomStoreId, newCachedDicomStore);
+      cache.invalidateDatasetListing();
+      invalidateStatTemplates(dicomPath);
       LOGGER.info("DICOM Store was created - " + dicomPath);
     } else {
       throw new DicomFuseException("You can only create DICOM Store folder");
@@ -459,6 +1220,8 @@ class DicomFuseHelper {
             .deleteDicomStore(parameters.getFuseDAO(), parameters.getCloudConf(), oldDicomPath);
         LOGGER.info("DICOM Store was deleted - " + oldDicomPath);
         cache.getCachedDicomStores().remove(oldDicomPath.getDicomStoreId());
+        cache.invalidateDatasetListing();
+        invalidateFolderStatTemplates(oldDicomPath);
         FuseDaoHelper
             .createDicomStore(parameters.getFuseDAO(), parameters.getCloudConf(), newDicomPath);
         String dicomStoreId = newDicomPath.getDicomStoreId();
@@ -466,6 +1229,8 @@ class DicomFuseHelper {
         dicomStore.setDicomStoreId(dicomStoreId);
         CachedDicomStore newCachedDicomStore = new CachedDicomStore(dicomStore);
         cache.getCachedDicomStores().put(dicomStoreId, newCachedDicomStore);
+        cache.invalidateDatasetListing();
+        invalidateStatTemplates(newDicomPath);
         LOGGER.info("DICOM Store was created - " + newDicomPath);
       } else {
         throw new DicomFuseException("DICOM Store " + oldDicomPath + " should be empty");
@@ -485,18 +1250,24 @@ class DicomFuseHelper {
     List<DicomStore> dicomStoreList =
         FuseDaoHelper.getAllDicomStores(parameters.getFuseDAO(), parameters.getCloudConf());
     List<DicomStore> cachedDicomStoreList = cache.getCachedDicomStoreList();
+    boolean changed = false;
     for (DicomStore dicomStore : cachedDicomStoreList) {
       if (dicomStoreList.contains(dicomStore)) {
         dicomStoreList.remove(dicomStore);
       } else {
         String dicomStoreId = dicomStore.getDicomStoreId();
         cache.getCachedDicomStores().remove(dicomStoreId);
+        changed = true;
       }
     }
     for (DicomStore dicomStore : dicomStoreList) {
       String dicomStoreId = dicomStore.getDicomStoreId();
       CachedDicomStore newCachedDicomStore = new CachedDicomStore(dicomStore);
       cache.getCachedDicomStores().put(dicomStoreId, newCachedDicomStore);
+      changed = true;
+    }
+    if (changed) {
+      cache.invalidateDatasetListing();
     }
     Instant newInstant = Instant.now().plusSeconds(parameters.getCacheTime().getObjectsCacheTime());
     cache.setDatasetCacheTime(newInstant);
@@ -512,18 +1283,24 @@ class DicomFuseHelper {
       LOGGER.debug("Study null in " + dicomPath.getDicomStoreId() + " dicom store");
       return;
     }
+    boolean changed = false;
     for (Study study : cachedStudyList) {
       if (studyList.contains(study)) {
         studyList.remove(study);
       } else {
         String studyInstanceUID = study.getStudyInstanceUID().getValue1();
         cache.getCachedStudies(dicomPath).remove(studyInstanceUID);
+        changed = true;
       }
     }
     for (Study study : studyList) {
       String studyInstanceUID = study.getStudyInstanceUID().getValue1();
       CachedStudy newCachedStudy = new CachedStudy(study);
       cache.getCachedStudies(dicomPath).put(studyInstanceUID, newCachedStudy);
+      changed = true;
+    }
+    if (changed) {
+      cache.invalidateDicomStoreListing(dicomPath);
     }
     Instant newInstant = Instant.now().plusSeconds(parameters.getCacheTime().getObjectsCacheTime());
     cache.setDicomStoreCacheTime(dicomPath, newInstant);
@@ -539,48 +1316,60 @@ class DicomFuseHelper {
       LOGGER.debug("Series null in " + dicomPath.getStudyInstanceUID() + " study");
       return;
     }
+    boolean changed = false;
     for (Series series : cachedSeriesList) {
       if (seriesList.contains(series)) {
         seriesList.remove(series);
       } else {
         String seriesInstanceUID = series.getSeriesInstanceUID().getValue1();
         cache.getCachedSeries(dicomPath).remove(seriesInstanceUID);
+        changed = true;
       }
     }
     for (Series series : seriesList) {
       String seriesInstanceUID = series.getSeriesInstanceUID().getValue1();
       CachedSeries newCachedSeries = new CachedSeries(series);
       cache.getCachedSeries(dicomPath).put(seriesInstanceUID, newCachedSeries);
+      changed = true;
+    }
+    if (changed) {
+      cache.invalidateStudyListing(dicomPath);
     }
     Instant newInstant = Instant.now().plusSeconds(parameters.getCacheTime().getObjectsCacheTime());
     cache.setStudyCacheTime(dicomPath, newInstant);
+    cache.clearStudyEvicted(dicomPath);
   }
 
   private void updateInstancesInSeries(DicomPath dicomPath) throws DicomFuseException {
     List<Instance> instanceList = FuseDaoHelper.getInstances(parameters.getFuseDAO(),
         parameters.getCloudConf(), dicomPath);
-    List<Instance> cachedInstanceList;
+    InstanceTable cachedInstances;
     try {
-      cachedInstanceList = cache.getCachedInstanceList(dicomPath);
+      cachedInstances = cache.getCachedInstances(dicomPath);
     } catch (DicomFuseException e) {
       LOGGER.debug("Instances null in " + dicomPath.getSeriesInstanceUID() + " series");
       return;
     }
-    for (Instance instance : cachedInstanceList) {
-      if (instanceList.contains(instance)) {
-        instanceList.remove(instance);
-      } else {
-        String sopInstanceUID = instance.getSopInstanceUID().getValue1();
-        cache.getCachedInstances(dicomPath).remove(sopInstanceUID);
-      }
-    }
+    // the Instances of the Series are equal if their SOP Instance UIDs are equal
+    Set<String> sopInstanceUIDs = new HashSet<>();
+    boolean changed = false;
     for (Instance instance : instanceList) {
       String sopInstanceUID = instance.getSopInstanceUID().getValue1();
-      InstanceContent newInstanceContent = new InstanceContent(instance);
-      cache.getCachedInstances(dicomPath).put(sopInstanceUID, newInstanceContent);
+      sopInstanceUIDs.add(sopInstanceUID);
+      if (!cachedInstances.contains(sopInstanceUID)) {
+        cachedInstances.put(instance);
+        changed = true;
+      }
+    }
+    if (cachedInstances.retainAll(sopInstanceUIDs)) {
+      changed = true;
+    }
+    if (changed) {
+      cache.invalidateSeriesListing(dicomPath);
     }
     Instant newInstant = Instant.now().plusSeconds(parameters.getCacheTime().getObjectsCacheTime());
     cache.setSeriesCacheTime(dicomPath, newInstant);
+    cache.clearSeriesEvicted(dicomPath);
   }
 
   private void cacheDicomStoreIfPresent(DicomPath dicomPath) throws DicomFuseException {
@@ -589,30 +1378,60 @@ class DicomFuseHelper {
     String dicomStoreId = dicomStore.getDicomStoreId();
     CachedDicomStore newCachedDicomStore = new CachedDicomStore(dicomStore);
     cache.getCachedDicomStores().put(dicomStoreId, newCachedDicomStore);
+    cache.invalidateDatasetListing();
   }
 
-  private void cacheStudyIfPresent(DicomPath dicomPath) throws DicomFuseException {
+  private boolean cacheStudyIfPresent(DicomPath dicomPath) throws DicomFuseException {
     Study study = FuseDaoHelper.getSingleStudy(parameters.getFuseDAO(), parameters.getCloudConf(),
         dicomPath);
+    if (study == null) {
+      return false;
+    }
     String studyInstanceUID = study.getStudyInstanceUID().getValue1();
     CachedStudy newCachedStudy = new CachedStudy(study);
     cache.getCachedStudies(dicomPath).put(studyInstanceUID, newCachedStudy);
+    cache.invalidateDicomStoreListing(dicomPath);
+    return true;
   }
 
-  private void cacheSeriesIfPresent(DicomPath dicomPath) throws DicomFuseException {
+  private boolean cacheSeriesIfPresent(DicomPath dicomPath) throws DicomFuseException {
     Series series = FuseDaoHelper.getSingleSeries(parameters.getFuseDAO(),
         parameters.getCloudConf(), dicomPath);
+    if (series == null) {
+      return false;
+    }
     String seriesInstanceUID = series.getSeriesInstanceUID().getValue1();
     CachedSeries newCachedSeries = new CachedSeries(series);
     cache.getCachedSeries(dicomPath).put(seriesInstanceUID, newCachedSeries);
+    cache.invalidateStudyListing(dicomPath);
+    return true;
   }
 
-  private void cacheInstanceIfPresent(DicomPath dicomPath) throws DicomFuseException {
+  private boolean cacheInstanceIfPresent(DicomPath dicomPath) throws DicomFuseException {
+    DicomPath seriesPath = dicomPath.getSeriesPath();
+    if (cache.getCacheStatus(seriesPath) != CacheStatus.CACHED
+        && !cacheSeriesIfPresent(seriesPath)) {
+      return false;
+    }
+    CachedSeries cachedSeries = cache.findCachedSeries(seriesPath);
+    if (cachedSeries != null && cachedSeries.isEvicted()) {
+      // an evicted Series lost all its Instances, so they are requested at once instead of one
+      // request per Instance, the concurrent lookups wait for the same request
+      synchronized (cachedSeries) {
+        if (cachedSeries.isEvicted()) {
+          updateInstancesInSeries(seriesPath);
+        }
+      }
+      return cache.getCacheStatus(dicomPath) == CacheStatus.CACHED;
+    }
     Instance instance = FuseDaoHelper.getSingleInstance(parameters.getFuseDAO(),
         parameters.getCloudConf(), dicomPath);
-    String sopInstanceUID = instance.getSopInstanceUID().getValue1();
-    InstanceContent newInstanceContent = new InstanceContent(instance);
-    cache.getCachedInstances(dicomPath).put(sopInstanceUID, newInstanceContent);
+    if (instance == null) {
+      return false;
+    }
+    cache.getCachedInstances(dicomPath).put(instance);
+    cache.invalidateSeriesListing(dicomPath);
+    return true;
   }
 
   private void invalidateDicomStoreCache(DicomPath dicomPath) throws DicomFuseException {
@@ -625,17 +1444,21 @@ class DicomFuseHelper {
           .dicomStoreId(dicomPath.getDicomStoreId())
           .studyInstanceUID(studyInstanceUID)
           .build();
-      List<Series> cachedSeriesList = cache.getCachedSeriesList(studyDicomPath);
-      for (Series series : cachedSeriesList) {
-        String seriesInstanceUID = series.getSeriesInstanceUID().getValue1();
-        DicomPath seriesDicomPath = new DicomPath.Builder(SERIES)
-            .dicomStoreId(dicomPath.getDicomStoreId())
-            .studyInstanceUID(studyInstanceUID)
-            .seriesInstanceUID(seriesInstanceUID)
-            .build();
-        cache.setSeriesCacheTime(seriesDicomPath, Instant.now());
-      }
-      cache.setStudyCacheTime(studyDicomPath, Instant.now());
+      invalidateStudyCache(studyDicomPath);
+    }
+  }
+
+  private void invalidateStudyCache(DicomPath dicomPath) throws DicomFuseException {
+    List<Series> cachedSeriesList = cache.getCachedSeriesList(dicomPath);
+    for (Series series : cachedSeriesList) {
+      String seriesInstanceUID = series.getSeriesInstanceUID().getValue1();
+      DicomPath seriesDicomPath = new DicomPath.Builder(SERIES)
+          .dicomStoreId(dicomPath.getDicomStoreId())
+          .studyInstanceUID(dicomPath.getStudyInstanceUID())
+          .seriesInstanceUID(seriesInstanceUID)
+          .build();
+      cache.setSeriesCacheTime(seriesDicomPath, Instant.now());
     }
+    cache.setStudyCacheTime(dicomPath, Instant.now());
   }
 }
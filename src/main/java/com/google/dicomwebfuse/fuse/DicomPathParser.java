@@ -17,15 +17,23 @@ package com.google.dicomwebfuse.fuse;
 import static com.google.dicomwebfuse.fuse.FuseConstants.DCM_EXTENSION;
 
 import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
+import com.google.dicomwebfuse.entities.ControlFileType;
 import com.google.dicomwebfuse.entities.DicomPath;
 import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.entities.VirtualFileType;
 import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 class DicomPathParser {
 
   private static final Pattern PATTERN = Pattern.compile(".*[a-zA-Z]+.*");
+  // frames are numbered from 1
+  private static final Pattern FRAME_NUMBER_PATTERN = Pattern.compile("[1-9][0-9]{0,8}");
+  private static final int MAX_INTERNED_PATHS = 100_000;
   private final DicomPathCacher dicomPathCacher;
+  // parsed paths which don't depend on the temp files, key - path
+  private final ConcurrentHashMap<String, DicomPath> internedPaths = new ConcurrentHashMap<>();
 
   DicomPathParser(DicomPathCacher dicomPathCacher) {
     this.dicomPathCacher = dicomPathCacher;
@@ -35,13 +43,41 @@ class DicomPathParser {
     return parsePath(path, null);
   }
 
+  /**
+   * Returns the parsed path. The paths are parsed once and then taken from the interned paths,
+   * except the paths of temp files which are mapped by the DicomPathCacher.
+   */
   DicomPath parsePath(String path, Command command) throws DicomFuseException {
+    if (command == Command.CREATE) {
+      // the path is mapped to a temp file from now on
+      internedPaths.remove(path);
+      return parse(path, command);
+    }
+    DicomPath dicomPath = internedPaths.get(path);
+    if (dicomPath != null && dicomPathCacher.getDicomPath(path) == null) {
+      return dicomPath;
+    }
+    dicomPath = parse(path, null);
+    if (dicomPath.getDicomPathLevel() != DicomPathLevel.TEMP_FILE_IN_DICOM_STORE
+        && dicomPath.getDicomPathLevel() != DicomPathLevel.TEMP_FILE_IN_SERIES) {
+      if (internedPaths.size() >= MAX_INTERNED_PATHS) {
+        internedPaths.clear();
+      }
+      internedPaths.put(path, dicomPath);
+    }
+    return dicomPath;
+  }
+
+  private DicomPath parse(String path, Command command) throws DicomFuseException {
     String partOfPath = path.substring(1);
     if (partOfPath.length() == 0) {
       return new DicomPath.Builder(DicomPathLevel.DATASET).build();
     }
     String[] pathREST = partOfPath.split("/");
     int pathRESTLength = pathREST.length;
+    if (pathREST[0].equals(DicomPath.CONTROL_FOLDER_NAME)) {
+      return parseControlPath(path, pathREST);
+    }
     DicomPath dicomPath;
     DicomPath tempDicomPath;
     switch (pathRESTLength) {
@@ -86,6 +122,16 @@ class DicomPathParser {
         }
         break;
       case 3:
+        VirtualFileType studyFileType = VirtualFileType.fromFileName(pathREST[2]);
+        if (studyFileType != null && studyFileType.getSourceLevel() == DicomPathLevel.STUDY) {
+          dicomPath = new DicomPath.Builder(DicomPathLevel.VIRTUAL_FILE)
+              .dicomStoreId(pathREST[0])
+              .studyInstanceUID(pathREST[1])
+              .fileName(pathREST[2])
+              .virtualFileType(studyFileType)
+              .build();
+          break;
+        }
         if (PATTERN.matcher(pathREST[2]).matches()) {
           throw new DicomFuseException("Invalid Series UID - " + pathREST[2]);
         }
@@ -108,8 +154,29 @@ class DicomPathParser {
           return dicomPath;
         }
         tempDicomPath = dicomPathCacher.getDicomPath(path);
+        VirtualFileType virtualFileType = VirtualFileType.fromFileName(fileName);
         if (tempDicomPath != null) {
           dicomPath = tempDicomPath;
+        } else if (isFramesFolder(fileName)) {
+          dicomPath = new DicomPath.Builder(DicomPathLevel.FRAMES)
+              .dicomStoreId(pathREST[0])
+              .studyInstanceUID(pathREST[1])
+              .seriesInstanceUID(pathREST[2])
+              .sopInstanceUID(fileName.substring(0,
+                  fileName.length() - DicomPath.FRAMES_FOLDER_SUFFIX.length()))
+              .build();
+        } else if (virtualFileType != null
+            && virtualFileType.getSourceLevel() != DicomPathLevel.STUDY) {
+          String sopInstanceUID = virtualFileType.getSourceLevel() == DicomPathLevel.SERIES ? ""
+              : fileName.substring(0, fileName.length() - virtualFileType.getSuffix().length());
+          dicomPath = new DicomPath.Builder(DicomPathLevel.VIRTUAL_FILE)
+              .dicomStoreId(pathREST[0])
+              .studyInstanceUID(pathREST[1])
+              .seriesInstanceUID(pathREST[2])
+              .sopInstanceUID(sopInstanceUID)
+              .fileName(fileName)
+              .virtualFileType(virtualFileType)
+              .build();
         } else {
           int fileNameLength = fileName.length();
           int sopInstanceUIDLength = fileNameLength;
@@ -125,9 +192,42 @@ class DicomPathParser {
               .build();
         }
         break;
+      case 5:
+        String framesFolderName = pathREST[3];
+        if (!isFramesFolder(framesFolderName) || !FRAME_NUMBER_PATTERN.matcher(pathREST[4])
+            .matches()) {
+          throw new DicomFuseException("Invalid path to the frame - " + path);
+        }
+        dicomPath = new DicomPath.Builder(DicomPathLevel.FRAME)
+            .dicomStoreId(pathREST[0])
+            .studyInstanceUID(pathREST[1])
+            .seriesInstanceUID(pathREST[2])
+            .sopInstanceUID(framesFolderName.substring(0,
+                framesFolderName.length() - DicomPath.FRAMES_FOLDER_SUFFIX.length()))
+            .frameNumber(Integer.parseInt(pathREST[4]))
+            .build();
+        break;
       default:
         throw new DicomFuseException("Error parsing path");
     }
     return dicomPath;
   }
+
+  private static DicomPath parseControlPath(String path, String[] pathREST)
+      throws DicomFuseException {
+    if (pathREST.length == 1) {
+      return new DicomPath.Builder(DicomPathLevel.CONTROL_FOLDER).build();
+    }
+    if (pathREST.length != 2 || ControlFileType.fromFileName(pathREST[1]) == null) {
+      throw new DicomFuseException("Invalid path to the control file - " + path);
+    }
+    return new DicomPath.Builder(DicomPathLevel.CONTROL_FILE)
+        .fileName(pathREST[1])
+        .build();
+  }
+
+  private static boolean isFramesFolder(String fileName) {
+    return fileName.endsWith(DicomPath.FRAMES_FOLDER_SUFFIX)
+        && fileName.length() > DicomPath.FRAMES_FOLDER_SUFFIX.length();
+  }
 }
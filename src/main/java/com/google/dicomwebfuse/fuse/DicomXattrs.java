@@ -0,0 +1,108 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps DICOM tags to extended attribute names. An attribute is named by its tag, e.g.
+ * user.dicom.0008,0060, or by the keyword of a commonly used attribute, e.g. user.dicom.Modality.
+ */
+class DicomXattrs {
+
+  static final String PREFIX = "user.dicom.";
+  private static final Map<String, String> KEYWORD_TAGS = new HashMap<>();
+
+  static {
+    KEYWORD_TAGS.put("InstanceCreationDate", "00080012");
+    KEYWORD_TAGS.put("InstanceCreationTime", "00080013");
+    KEYWORD_TAGS.put("SOPClassUID", "00080016");
+    KEYWORD_TAGS.put("SOPInstanceUID", "00080018");
+    KEYWORD_TAGS.put("StudyDate", "00080020");
+    KEYWORD_TAGS.put("SeriesDate", "00080021");
+    KEYWORD_TAGS.put("StudyTime", "00080030");
+    KEYWORD_TAGS.put("SeriesTime", "00080031");
+    KEYWORD_TAGS.put("AccessionNumber", "00080050");
+    KEYWORD_TAGS.put("Modality", "00080060");
+    KEYWORD_TAGS.put("ModalitiesInStudy", "00080061");
+    KEYWORD_TAGS.put("ReferringPhysicianName", "00080090");
+    KEYWORD_TAGS.put("StudyDescription", "00081030");
+    KEYWORD_TAGS.put("SeriesDescription", "0008103E");
+    KEYWORD_TAGS.put("PatientName", "00100010");
+    KEYWORD_TAGS.put("PatientID", "00100020");
+    KEYWORD_TAGS.put("PatientBirthDate", "00100030");
+    KEYWORD_TAGS.put("PatientSex", "00100040");
+    KEYWORD_TAGS.put("StudyInstanceUID", "0020000D");
+    KEYWORD_TAGS.put("SeriesInstanceUID", "0020000E");
+    KEYWORD_TAGS.put("StudyID", "00200010");
+    KEYWORD_TAGS.put("SeriesNumber", "00200011");
+    KEYWORD_TAGS.put("InstanceNumber", "00200013");
+    KEYWORD_TAGS.put("NumberOfStudyRelatedSeries", "00201206");
+    KEYWORD_TAGS.put("NumberOfStudyRelatedInstances", "00201208");
+    KEYWORD_TAGS.put("NumberOfSeriesRelatedInstances", "00201209");
+    KEYWORD_TAGS.put("NumberOfFrames", "00280008");
+    KEYWORD_TAGS.put("Rows", "00280010");
+    KEYWORD_TAGS.put("Columns", "00280011");
+    KEYWORD_TAGS.put("BitsAllocated", "00280100");
+    // the file meta information with 0002,0010 is not returned by QIDO-RS, the transfer syntax
+    // of the stored Instance is returned as its available transfer syntax
+    KEYWORD_TAGS.put("AvailableTransferSyntaxUID", "00083002");
+    KEYWORD_TAGS.put("TransferSyntaxUID", "00083002");
+  }
+
+  private DicomXattrs() {
+  }
+
+  /**
+   * Returns the tag of the extended attribute name, or null if the name is not in the DICOM
+   * namespace.
+   */
+  static String toTag(String name) {
+    if (!name.startsWith(PREFIX)) {
+      return null;
+    }
+    String attributeName = name.substring(PREFIX.length());
+    String tag = KEYWORD_TAGS.get(attributeName);
+    if (tag != null) {
+      return tag;
+    }
+    // GGGG,EEEE
+    if (attributeName.length() == 9 && attributeName.charAt(4) == ',') {
+      return (attributeName.substring(0, 4) + attributeName.substring(5))
+          .toUpperCase(Locale.ROOT);
+    }
+    return null;
+  }
+
+  static String toName(String tag) {
+    return PREFIX + tag.substring(0, 4) + "," + tag.substring(4);
+  }
+
+  /**
+   * Returns the null-terminated names of the attributes as required by listxattr.
+   */
+  static byte[] toNameList(Iterable<String> tags) {
+    StringBuilder stringBuilder = new StringBuilder();
+    for (String tag : tags) {
+      if (tag.length() == 8) {
+        stringBuilder.append(toName(tag)).append('\0');
+      }
+    }
+    return stringBuilder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+
+/**
+ * Direct buffers which are reused for copying data between files and native FUSE buffers without
+ * allocating heap arrays.
+ */
+class DirectBufferPool {
+
+  static final int BUFFER_SIZE = 128 * 1024; // in bytes
+  static final int STAGING_BUFFER_SIZE = 1024 * 1024; // in bytes
+  private static final int MAX_POOLED_STAGING_BUFFERS = 16;
+  private static final ThreadLocal<DirectBuffer> THREAD_BUFFERS =
+      ThreadLocal.withInitial(() -> new DirectBuffer(BUFFER_SIZE));
+  private static final ArrayBlockingQueue<DirectBuffer> STAGING_BUFFERS =
+      new ArrayBlockingQueue<>(MAX_POOLED_STAGING_BUFFERS);
+
+  /**
+   * Returns the buffer of the current thread. The buffer must not be kept after the FUSE call
+   * returns.
+   */
+  static DirectBuffer getThreadBuffer() {
+    DirectBuffer directBuffer = THREAD_BUFFERS.get();
+    directBuffer.getByteBuffer().clear();
+    return directBuffer;
+  }
+
+  /**
+   * Returns a buffer for staging the writes of an opened file. The buffer must be returned with
+   * {@link #releaseStagingBuffer} when the file is closed.
+   */
+  static DirectBuffer acquireStagingBuffer() {
+    DirectBuffer directBuffer = STAGING_BUFFERS.poll();
+    if (directBuffer == null) {
+      directBuffer = new DirectBuffer(STAGING_BUFFER_SIZE);
+    }
+    directBuffer.getByteBuffer().clear();
+    return directBuffer;
+  }
+
+  static void releaseStagingBuffer(DirectBuffer directBuffer) {
+    // the buffer is left to the garbage collector if the pool is full
+    STAGING_BUFFERS.offer(directBuffer);
+  }
+
+  static class DirectBuffer {
+
+    private final ByteBuffer byteBuffer;
+    private final Pointer pointer;
+
+    private DirectBuffer(int capacity) {
+      byteBuffer = ByteBuffer.allocateDirect(capacity);
+      pointer = Pointer.wrap(Runtime.getSystemRuntime(), byteBuffer);
+    }
+
+    ByteBuffer getByteBuffer() {
+      return byteBuffer;
+    }
+
+    Pointer getPointer() {
+      return pointer;
+    }
+  }
+
+  private DirectBufferPool() {
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.cache.DirectoryListing;
+
+/**
+ * State of an opened folder. The listing is kept from the first readdir() call, so the next calls
+ * continue with the same entries if the folder is changed in the meantime.
+ */
+class DirectoryHandle {
+
+  private final DicomPath dicomPath;
+  private volatile DirectoryListing directoryListing;
+
+  DirectoryHandle(DicomPath dicomPath) {
+    this.dicomPath = dicomPath;
+  }
+
+  DicomPath getDicomPath() {
+    return dicomPath;
+  }
+
+  DirectoryListing getDirectoryListing() {
+    return directoryListing;
+  }
+
+  void setDirectoryListing(DirectoryListing directoryListing) {
+    this.directoryListing = directoryListing;
+  }
+}
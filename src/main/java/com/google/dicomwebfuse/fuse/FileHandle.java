@@ -0,0 +1,244 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.fuse.DirectBufferPool.DirectBuffer;
+import com.google.dicomwebfuse.fuse.cacher.ArchiveStream;
+import com.google.dicomwebfuse.fuse.cacher.DownloadedFile;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import jnr.ffi.Pointer;
+
+/**
+ * State of an opened file. It lives from open()/create() to release(), so read() and write()
+ * don't need to parse the path or open the file again.
+ */
+class FileHandle implements Closeable {
+
+  private final DicomPath dicomPath;
+  private final DownloadedFile downloadedFile;
+  private final byte[] content;
+  private final ArchiveStream archiveStream;
+  private FileChannel readChannel;
+  private FileChannel writeChannel;
+  private Path writePath;
+  private DirectBuffer stagingBuffer;
+  private long stagingOffset;
+  private ByteArrayOutputStream pendingLine;
+
+  FileHandle(DicomPath dicomPath, DownloadedFile downloadedFile) throws IOException {
+    this.dicomPath = dicomPath;
+    this.downloadedFile = downloadedFile;
+    content = null;
+    archiveStream = null;
+    if (downloadedFile != null) {
+      readChannel = FileChannel.open(downloadedFile.getPath(), StandardOpenOption.READ);
+    }
+  }
+
+  /**
+   * Creates the handle of a virtual file which content is kept in memory.
+   */
+  FileHandle(DicomPath dicomPath, byte[] content) {
+    this.dicomPath = dicomPath;
+    this.content = content;
+    downloadedFile = null;
+    archiveStream = null;
+  }
+
+  /**
+   * Creates the handle of a virtual file which is streamed from the archive.
+   */
+  FileHandle(DicomPath dicomPath, ArchiveStream archiveStream) {
+    this.dicomPath = dicomPath;
+    this.archiveStream = archiveStream;
+    downloadedFile = null;
+    content = null;
+  }
+
+  DicomPath getDicomPath() {
+    return dicomPath;
+  }
+
+  DownloadedFile getDownloadedFile() {
+    return downloadedFile;
+  }
+
+  FileChannel getReadChannel() {
+    return readChannel;
+  }
+
+  boolean isVirtual() {
+    return content != null || archiveStream != null;
+  }
+
+  /**
+   * Copies the downloaded file to the native FUSE buffer. The bytes are copied through a pooled
+   * direct buffer, so no heap arrays are allocated. The file is not mapped to memory, as a mapping
+   * can't be released when the file is evicted from the cache.
+   */
+  int read(Pointer buf, int size, long offset) throws IOException {
+    if (content != null) {
+      if (offset >= content.length) {
+        return 0;
+      }
+      int length = (int) Math.min(size, content.length - offset);
+      buf.put(0, content, (int) offset, length);
+      return length;
+    }
+    return readThroughBuffer(archiveStream != null ? archiveStream::read : readChannel::read,
+        buf, size, offset);
+  }
+
+  private static int readThroughBuffer(ChunkReader chunkReader, Pointer buf, int size,
+      long offset) throws IOException {
+    DirectBuffer directBuffer = DirectBufferPool.getThreadBuffer();
+    ByteBuffer byteBuffer = directBuffer.getByteBuffer();
+    int length = 0;
+    while (length < size) {
+      byteBuffer.clear();
+      byteBuffer.limit(Math.min(size - length, byteBuffer.capacity()));
+      int readBytes = chunkReader.read(byteBuffer, offset + length);
+      if (readBytes <= 0) {
+        break;
+      }
+      buf.transferFrom(length, directBuffer.getPointer(), 0, readBytes);
+      length += readBytes;
+    }
+    return length;
+  }
+
+  /**
+   * Stages the FUSE buffer for writing to the given file. Sequential writes are accumulated in a
+   * pooled direct buffer and written to the file when the buffer is full, when a write is not
+   * sequential or when the channel is closed.
+   */
+  synchronized void write(Path path, Pointer buf, int size, long offset) throws IOException {
+    if (writeChannel == null || !path.equals(writePath)) {
+      closeWriteChannel();
+      writeChannel = FileChannel.open(path, StandardOpenOption.WRITE);
+      writePath = path;
+      stagingBuffer = DirectBufferPool.acquireStagingBuffer();
+      stagingOffset = offset;
+    }
+    ByteBuffer staged = stagingBuffer.getByteBuffer();
+    if (offset != stagingOffset + staged.position()) {
+      writeStagedData();
+      stagingOffset = offset;
+    }
+    int written = 0;
+    while (written < size) {
+      if (!staged.hasRemaining()) {
+        writeStagedData();
+      }
+      int length = Math.min(size - written, staged.remaining());
+      buf.transferTo(written, stagingBuffer.getPointer(), staged.position(), length);
+      staged.position(staged.position() + length);
+      written += length;
+    }
+  }
+
+  /**
+   * Writes the staged data and closes the channel before the file is uploaded and deleted, as
+   * Windows doesn't allow to delete opened files.
+   */
+  synchronized void closeWriteChannel() throws IOException {
+    if (writeChannel != null) {
+      try {
+        writeStagedData();
+      } finally {
+        writeChannel.close();
+        writeChannel = null;
+        writePath = null;
+        DirectBufferPool.releaseStagingBuffer(stagingBuffer);
+        stagingBuffer = null;
+      }
+    }
+  }
+
+  private void writeStagedData() throws IOException {
+    ByteBuffer staged = stagingBuffer.getByteBuffer();
+    staged.flip();
+    long position = stagingOffset;
+    while (staged.hasRemaining()) {
+      position += writeChannel.write(staged, position);
+    }
+    staged.clear();
+    stagingOffset = position;
+  }
+
+  /**
+   * Appends the bytes written to a command file and returns the lines completed by them. The bytes
+   * after the last newline are kept until the next write or {@link #takePendingLine}, so a path
+   * split between two writes is read as one line.
+   */
+  synchronized List<String> appendLines(byte[] bytes) {
+    if (pendingLine == null) {
+      pendingLine = new ByteArrayOutputStream();
+    }
+    List<String> lines = new ArrayList<>();
+    int lineStart = 0;
+    for (int i = 0; i < bytes.length; i++) {
+      if (bytes[i] == '\n') {
+        pendingLine.write(bytes, lineStart, i - lineStart);
+        lines.add(new String(pendingLine.toByteArray(), StandardCharsets.UTF_8));
+        pendingLine.reset();
+        lineStart = i + 1;
+      }
+    }
+    pendingLine.write(bytes, lineStart, bytes.length - lineStart);
+    return lines;
+  }
+
+  /**
+   * Returns the last line written to a command file without a newline, or null if there is none.
+   */
+  synchronized String takePendingLine() {
+    if (pendingLine == null || pendingLine.size() == 0) {
+      return null;
+    }
+    String line = new String(pendingLine.toByteArray(), StandardCharsets.UTF_8);
+    pendingLine.reset();
+    return line;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      closeWriteChannel();
+    } finally {
+      if (readChannel != null) {
+        readChannel.close();
+      }
+      if (archiveStream != null) {
+        archiveStream.close();
+      }
+    }
+  }
+
+  private interface ChunkReader {
+
+    int read(ByteBuffer dst, long position) throws IOException;
+  }
+}
@@ -0,0 +1,42 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps the handle ids given to FUSE through FuseFileInfo.fh to the opened files or folders.
+ */
+class FileHandleTable<T> {
+
+  // 0 is the default fh value, so it is never given out
+  private final AtomicLong nextHandleId = new AtomicLong(1);
+  private final ConcurrentHashMap<Long, T> fileHandles = new ConcurrentHashMap<>();
+
+  long put(T fileHandle) {
+    long handleId = nextHandleId.getAndIncrement();
+    fileHandles.put(handleId, fileHandle);
+    return handleId;
+  }
+
+  T get(long handleId) {
+    return fileHandles.get(handleId);
+  }
+
+  T remove(long handleId) {
+    return fileHandles.remove(handleId);
+  }
+}
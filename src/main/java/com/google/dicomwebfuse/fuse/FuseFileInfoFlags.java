@@ -0,0 +1,54 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import jnr.ffi.Pointer;
+import jnr.ffi.Struct;
+import ru.serce.jnrfuse.struct.FuseFileInfo;
+
+/**
+ * Sets the bit fields of fuse_file_info which are not mapped by FuseFileInfo. The fields follow
+ * writepage: direct_io is the first bit and keep_cache is the second bit.
+ */
+final class FuseFileInfoFlags {
+
+  private static final int DIRECT_IO = 1;
+  private static final int KEEP_CACHE = 1 << 1;
+  private static final int ACCESS_MODE = 3;
+
+  static void setKeepCache(FuseFileInfo fi) {
+    setFlag(fi, KEEP_CACHE);
+  }
+
+  static void setDirectIo(FuseFileInfo fi) {
+    setFlag(fi, DIRECT_IO);
+  }
+
+  /**
+   * Checks if the file is opened for writing, O_ACCMODE are the two lowest bits of the open flags.
+   */
+  static boolean isWriteAccess(FuseFileInfo fi) {
+    return (fi.flags.get() & ACCESS_MODE) != 0;
+  }
+
+  private static void setFlag(FuseFileInfo fi, int flag) {
+    Pointer memory = Struct.getMemory(fi);
+    long offset = fi.direct_io.offset();
+    memory.putByte(offset, (byte) (memory.getByte(offset) | flag));
+  }
+
+  private FuseFileInfoFlags() {
+  }
+}
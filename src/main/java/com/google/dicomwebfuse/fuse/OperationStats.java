@@ -0,0 +1,124 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms of the file system operations. The latencies are counted in buckets with
+ * four sub-buckets per power of two microseconds, so the percentiles are accurate within 25%
+ * without keeping the samples.
+ */
+class OperationStats {
+
+  enum Operation {
+    GETATTR,
+    READDIR,
+    OPENDIR,
+    OPEN,
+    READ,
+    WRITE,
+    FLUSH,
+    RELEASE
+  }
+
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = SUB_BUCKETS * (Long.SIZE - SUB_BUCKET_BITS);
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+  private final AtomicLongArray[] histograms = new AtomicLongArray[Operation.values().length];
+
+  OperationStats() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new AtomicLongArray(BUCKET_COUNT);
+    }
+  }
+
+  /**
+   * Records the latency of the operation which has started at the time of {@link System#nanoTime}.
+   */
+  void record(Operation operation, long startTime) {
+    long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+    histograms[operation.ordinal()].incrementAndGet(getBucket(Math.max(micros, 0)));
+  }
+
+  /**
+   * Records the latency like {@link #record(Operation, long)} and returns the result of the
+   * operation, so an operation can be timed as {@code return record(op, startTime, doOp());}.
+   */
+  int record(Operation operation, long startTime, int result) {
+    record(operation, startTime);
+    return result;
+  }
+
+  /**
+   * Appends the count and the latency percentiles in microseconds of each operation which was
+   * called at least once.
+   */
+  void appendStats(StringBuilder stringBuilder) {
+    for (Operation operation : Operation.values()) {
+      AtomicLongArray histogram = histograms[operation.ordinal()];
+      long[] counts = new long[BUCKET_COUNT];
+      long total = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        counts[i] = histogram.get(i);
+        total += counts[i];
+      }
+      if (total == 0) {
+        continue;
+      }
+      String prefix = "op." + operation.name().toLowerCase();
+      stringBuilder.append(prefix).append(".count ").append(total).append('\n');
+      for (double percentile : PERCENTILES) {
+        stringBuilder.append(prefix).append(".p").append(Math.round(percentile * 100))
+            .append("_us ").append(getPercentile(counts, total, percentile)).append('\n');
+      }
+    }
+  }
+
+  static int getBucket(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS * (exponent - SUB_BUCKET_BITS + 1) + subBucket;
+  }
+
+  /**
+   * Returns the largest latency which is counted in the bucket.
+   */
+  static long getBucketLimit(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long subBucket = SUB_BUCKETS + bucket % SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  private static long getPercentile(long[] counts, long total, double percentile) {
+    long rank = (long) Math.ceil(percentile * total);
+    long count = 0;
+    for (int i = 0; i < counts.length; i++) {
+      count += counts[i];
+      if (count >= rank) {
+        return getBucketLimit(i);
+      }
+    }
+    return getBucketLimit(counts.length - 1);
+  }
+}
@@ -18,15 +18,28 @@ import com.google.dicomwebfuse.dao.FuseDao;
 import com.google.dicomwebfuse.entities.CloudConf;
 import com.google.dicomwebfuse.entities.cache.CacheTime;
 import com.google.dicomwebfuse.parser.Arguments;
+import java.nio.file.Path;
 import jnr.ffi.Platform.OS;
 
 public class Parameters {
 
+  private static final long BYTES_IN_MEGABYTE = 1_000_000;
+  // a part of the maximum heap size which is used for the metadata by default
+  private static final long DEFAULT_METADATA_CACHE_FRACTION = 4;
+
   private final FuseDao fuseDAO;
   private final CloudConf cloudConf;
   private final CacheTime cacheTime;
   private final long cacheSize;
   private final boolean enableDeletion;
+  private final boolean immutableInstances;
+  private final long kernelCacheTime;
+  private final boolean virtualFiles;
+  private final int previewSize;
+  private final int previewQuality;
+  private final boolean metadataFiles;
+  private final Path metadataIndexPath;
+  private final long metadataCacheSize;
   private final OS os;
 
   public Parameters(FuseDao fuseDAO, Arguments arguments, OS os) {
@@ -35,6 +48,17 @@ public class Parameters {
     this.cacheTime = arguments.cacheTime;
     this.cacheSize = arguments.cacheSize;
     this.enableDeletion = arguments.enableDeletion;
+    this.immutableInstances = arguments.immutableInstances;
+    this.kernelCacheTime = Math.min(arguments.kernelCacheTime,
+        arguments.cacheTime.getObjectsCacheTime());
+    this.virtualFiles = arguments.virtualFiles;
+    this.previewSize = arguments.previewSize;
+    this.previewQuality = arguments.previewQuality;
+    this.metadataFiles = arguments.metadataFiles;
+    this.metadataIndexPath = arguments.metadataIndexPath;
+    this.metadataCacheSize = arguments.metadataCacheSize > 0
+        ? arguments.metadataCacheSize * BYTES_IN_MEGABYTE
+        : Runtime.getRuntime().maxMemory() / DEFAULT_METADATA_CACHE_FRACTION;
     this.os = os;
   }
 
@@ -58,6 +82,48 @@ public class Parameters {
     return enableDeletion;
   }
 
+  boolean isImmutableInstances() {
+    return immutableInstances;
+  }
+
+  long getKernelCacheTime() {
+    return kernelCacheTime;
+  }
+
+  boolean isVirtualFiles() {
+    return virtualFiles;
+  }
+
+  /**
+   * Returns the maximum width and height of the previews in pixels, 0 if previews are disabled.
+   */
+  public int getPreviewSize() {
+    return previewSize;
+  }
+
+  public int getPreviewQuality() {
+    return previewQuality;
+  }
+
+  boolean isMetadataFiles() {
+    return metadataFiles;
+  }
+
+  /**
+   * Returns the path of the file which keeps the cached metadata between mounts, or null if the
+   * metadata is not kept.
+   */
+  Path getMetadataIndexPath() {
+    return metadataIndexPath;
+  }
+
+  /**
+   * Returns the maximum estimated heap size of the cached metadata in bytes.
+   */
+  long getMetadataCacheSize() {
+    return metadataCacheSize;
+  }
+
   OS getOs() {
     return os;
   }
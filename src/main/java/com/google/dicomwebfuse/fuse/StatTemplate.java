@@ -0,0 +1,134 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import com.google.dicomwebfuse.entities.cache.CachedSeries;
+import com.google.dicomwebfuse.entities.cache.CachedStudy;
+import java.time.Instant;
+import jnr.ffi.Platform.OS;
+import ru.serce.jnrfuse.struct.FileStat;
+
+/**
+ * Precomputed attributes of a path which are copied to the FileStat of getattr without
+ * allocations. A template of a path which doesn't exist has no attributes.
+ */
+class StatTemplate {
+
+  private final boolean exists;
+  private final int mode;
+  private final long size;
+  private final long inode;
+  private final long modificationSecond;
+  private final int modificationNano;
+  // in System.nanoTime
+  private final long expirationTime;
+  // touched on each use, so the objects used only through getattr are not evicted, null if the
+  // path has no cached Study or Series
+  private final CachedStudy cachedStudy;
+  private final CachedSeries cachedSeries;
+
+  StatTemplate(int mode, long size, long inode, Instant modificationTime, long expirationTime) {
+    this(mode, size, inode, modificationTime, expirationTime, null, null);
+  }
+
+  StatTemplate(int mode, long size, long inode, Instant modificationTime, long expirationTime,
+      CachedStudy cachedStudy, CachedSeries cachedSeries) {
+    this.exists = true;
+    this.mode = mode;
+    this.size = size;
+    this.inode = inode;
+    this.modificationSecond = modificationTime.getEpochSecond();
+    this.modificationNano = modificationTime.getNano();
+    this.expirationTime = expirationTime;
+    this.cachedStudy = cachedStudy;
+    this.cachedSeries = cachedSeries;
+  }
+
+  private StatTemplate(long expirationTime) {
+    this.exists = false;
+    this.mode = 0;
+    this.size = 0;
+    this.inode = 0;
+    this.modificationSecond = 0;
+    this.modificationNano = 0;
+    this.expirationTime = expirationTime;
+    this.cachedStudy = null;
+    this.cachedSeries = null;
+  }
+
+  static StatTemplate missing(long expirationTime) {
+    return new StatTemplate(expirationTime);
+  }
+
+  boolean exists() {
+    return exists;
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  boolean isExpired(long nanoTime) {
+    return nanoTime - expirationTime >= 0;
+  }
+
+  /**
+   * Marks the cached Study and Series of the path as accessed.
+   */
+  void touch() {
+    if (cachedStudy != null) {
+      cachedStudy.touch();
+    }
+    if (cachedSeries != null) {
+      cachedSeries.touch();
+    }
+  }
+
+  void apply(FileStat fileStat, long uid, long gid, OS os) {
+    fileStat.st_mode.set(mode);
+    fileStat.st_nlink.set(1);
+    fileStat.st_ino.set(inode);
+    fileStat.st_size.set(size);
+    fileStat.st_uid.set(uid);
+    fileStat.st_gid.set(gid);
+
+    // set default data, it needs to be implemented because
+    // FileStat contains garbage from uninitialized memory in getattr.
+    // See: https://github.com/SerCeMan/jnr-fuse/issues/68
+    if (os == OS.DARWIN || os == OS.WINDOWS) {
+      fileStat.st_birthtime.tv_sec.set(modificationSecond);
+      fileStat.st_birthtime.tv_nsec.set(modificationNano);
+    }
+
+    fileStat.st_dev.set(0);
+    fileStat.st_rdev.set(0);
+    fileStat.st_blksize.set(1024 * 64);
+    fileStat.st_blocks.set(0);
+
+    fileStat.st_mtim.tv_sec.set(modificationSecond);
+    fileStat.st_mtim.tv_nsec.set(modificationNano);
+
+    fileStat.st_ctim.tv_sec.set(modificationSecond);
+    fileStat.st_ctim.tv_nsec.set(modificationNano);
+
+    fileStat.st_atim.tv_sec.set(modificationSecond);
+    fileStat.st_atim.tv_nsec.set(modificationNano);
+
+    if (os == OS.DARWIN) {
+      fileStat.st_flags.set(0);
+      fileStat.st_gen.set(0);
+    }
+  }
+}
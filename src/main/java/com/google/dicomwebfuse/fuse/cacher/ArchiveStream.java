@@ -0,0 +1,239 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static com.google.dicomwebfuse.encoder.TarEncoder.BLOCK_SIZE;
+import static com.google.dicomwebfuse.encoder.TarEncoder.END_OF_ARCHIVE_SIZE;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.dicomwebfuse.encoder.TarEncoder;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Tar archive of Instances which is streamed while the Instances are downloaded. The Instances
+ * ahead of the read position are downloaded concurrently, and the layout of the archive is
+ * computed as the sizes of the Instances become known, so the archive can be read before all
+ * Instances are downloaded. The size of the archive is unknown until it is read to the end.
+ */
+public class ArchiveStream implements Closeable {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  // count of the Instances which are downloaded ahead of the read position
+  private static final int PREFETCH_COUNT = 4;
+  // count of the Instances which are prefetched concurrently for all archives, the other
+  // prefetches are queued
+  private static final int PREFETCH_THREAD_COUNT = 8;
+  private static final ExecutorService PREFETCH_EXECUTOR = Executors.newFixedThreadPool(
+      PREFETCH_THREAD_COUNT,
+      new ThreadFactoryBuilder()
+          .setNameFormat("archive-prefetch-%d")
+          .setDaemon(true)
+          .build());
+  private final DownloadCacher downloadCacher;
+  private final List<Member> members;
+  // offsets of the headers and sizes of the data of the members which are laid out
+  private final long[] headerOffsets;
+  private final long[] dataSizes;
+  // prefetches which may not have started yet, they are cancelled when the archive is closed
+  private final List<Future<?>> prefetches = new ArrayList<>();
+  private int laidOutCount;
+  private int prefetchedCount;
+  private int openedMember = -1;
+  private DownloadedFile openedFile;
+  private FileChannel openedChannel;
+
+  public ArchiveStream(DownloadCacher downloadCacher, List<Member> members) {
+    this.downloadCacher = downloadCacher;
+    this.members = members;
+    headerOffsets = new long[members.size()];
+    dataSizes = new long[members.size()];
+  }
+
+  /**
+   * Reads the archive at the offset to the buffer.
+   *
+   * @return count of the read bytes, 0 at the end of the archive
+   */
+  public synchronized int read(ByteBuffer dst, long offset) throws IOException {
+    int start = dst.position();
+    try {
+      while (dst.hasRemaining()) {
+        long position = offset + dst.position() - start;
+        int member = findMember(position);
+        if (member < 0) {
+          long remaining = getLaidOutEnd() + END_OF_ARCHIVE_SIZE - position;
+          if (remaining <= 0) {
+            break;
+          }
+          putZeros(dst, remaining);
+          continue;
+        }
+        long dataOffset = headerOffsets[member] + BLOCK_SIZE;
+        long dataEnd = dataOffset + dataSizes[member];
+        if (position < dataOffset) {
+          Member archiveMember = members.get(member);
+          byte[] header = TarEncoder.encodeHeader(archiveMember.name, dataSizes[member],
+              archiveMember.modificationTime);
+          int headerPosition = (int) (position - headerOffsets[member]);
+          dst.put(header, headerPosition,
+              Math.min(BLOCK_SIZE - headerPosition, dst.remaining()));
+        } else if (position < dataEnd) {
+          readData(member, dst, position - dataOffset, dataEnd - position);
+        } else {
+          putZeros(dst, dataOffset + TarEncoder.getPaddedSize(dataSizes[member]) - position);
+        }
+      }
+    } catch (DicomFuseException e) {
+      throw new IOException(e);
+    }
+    return dst.position() - start;
+  }
+
+  /**
+   * Returns the member which contains the position, or -1 if the position is after the last
+   * member. The members are laid out until the position.
+   */
+  private int findMember(long position) throws DicomFuseException {
+    while (position >= getLaidOutEnd()) {
+      if (laidOutCount == members.size()) {
+        return -1;
+      }
+      layOutNextMember();
+    }
+    int index = Arrays.binarySearch(headerOffsets, 0, laidOutCount, position);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  private long getLaidOutEnd() {
+    if (laidOutCount == 0) {
+      return 0;
+    }
+    int last = laidOutCount - 1;
+    return headerOffsets[last] + BLOCK_SIZE + TarEncoder.getPaddedSize(dataSizes[last]);
+  }
+
+  private void layOutNextMember() throws DicomFuseException {
+    int member = laidOutCount;
+    prefetch(member + 1);
+    DownloadedFile downloadedFile = downloadCacher.getFile(members.get(member).dicomPath);
+    long size = downloadedFile.getSize();
+    if (size < 0) {
+      // the header of the member needs the size
+      downloadedFile.awaitCompletion();
+      size = downloadedFile.getSize();
+    }
+    headerOffsets[member] = getLaidOutEnd();
+    dataSizes[member] = size;
+    laidOutCount++;
+  }
+
+  private void prefetch(int from) {
+    int until = Math.min(members.size(), from + PREFETCH_COUNT);
+    prefetches.removeIf(Future::isDone);
+    for (int member = Math.max(from, prefetchedCount); member < until; member++) {
+      DicomPath dicomPath = members.get(member).dicomPath;
+      prefetches.add(PREFETCH_EXECUTOR.submit(() -> {
+        try {
+          downloadCacher.getFile(dicomPath);
+        } catch (DicomFuseException e) {
+          LOGGER.debug("Prefetch error - " + dicomPath, e);
+        }
+      }));
+    }
+    prefetchedCount = Math.max(prefetchedCount, until);
+  }
+
+  private void readData(int member, ByteBuffer dst, long dataPosition, long available)
+      throws DicomFuseException, IOException {
+    if (openedMember != member) {
+      closeOpenedMember();
+      // the file is taken again as it may have been evicted from the cache
+      openedFile = downloadCacher.getFile(members.get(member).dicomPath);
+      openedChannel = FileChannel.open(openedFile.getPath(), StandardOpenOption.READ);
+      openedMember = member;
+      prefetch(member + 1);
+    }
+    int length = (int) Math.min(dst.remaining(), available);
+    openedFile.awaitRange(dataPosition + length);
+    ByteBuffer slice = dst.duplicate();
+    slice.limit(slice.position() + length);
+    int readBytes = openedChannel.read(slice, dataPosition);
+    if (readBytes <= 0) {
+      throw new DicomFuseException("Instance is shorter than expected - "
+          + members.get(member).dicomPath);
+    }
+    dst.position(dst.position() + readBytes);
+  }
+
+  private static void putZeros(ByteBuffer dst, long count) {
+    int length = (int) Math.min(count, dst.remaining());
+    for (int i = 0; i < length; i++) {
+      dst.put((byte) 0);
+    }
+  }
+
+  private void closeOpenedMember() throws IOException {
+    if (openedChannel != null) {
+      openedChannel.close();
+      openedChannel = null;
+      openedFile = null;
+      openedMember = -1;
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    // the started downloads are not interrupted, as other readers may wait for the same files
+    for (Future<?> prefetch : prefetches) {
+      prefetch.cancel(false);
+    }
+    prefetches.clear();
+    closeOpenedMember();
+  }
+
+  /**
+   * Instance in the archive.
+   */
+  public static class Member {
+
+    private final String name;
+    private final DicomPath dicomPath;
+    private final long modificationTime;
+
+    /**
+     * @param name path of the Instance file in the archive
+     * @param modificationTime seconds since the epoch
+     */
+    public Member(String name, DicomPath dicomPath, long modificationTime) {
+      this.name = name;
+      this.dicomPath = dicomPath;
+      this.modificationTime = modificationTime;
+    }
+  }
+}
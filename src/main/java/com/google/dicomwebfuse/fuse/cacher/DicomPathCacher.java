@@ -29,7 +29,7 @@ public class DicomPathCacher {
     return temporaryDicomPaths.get(path);
   }
 
-  public void removeDicomPath(String fileName) {
-    temporaryDicomPaths.remove(fileName);
+  public void removeDicomPath(String path) {
+    temporaryDicomPaths.remove(path);
   }
 }
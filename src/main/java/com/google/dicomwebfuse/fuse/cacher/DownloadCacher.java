@@ -16,17 +16,24 @@ package com.google.dicomwebfuse.fuse.cacher;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.dicomwebfuse.dao.FuseDaoHelper;
 import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
 import com.google.dicomwebfuse.exception.DicomFuseException;
 import com.google.dicomwebfuse.fuse.Parameters;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.NonNull;
@@ -34,61 +41,252 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 public class DownloadCacher {
 
   private static final Logger LOGGER = LogManager.getLogger();
-  private static final int BYTES_IN_MEGABYTE = 1000 * 1000;
+  private static final int BYTES_IN_KILOBYTE = 1000;
+  private static final int KILOBYTES_IN_MEGABYTE = 1000;
+  // part of the cache size which is used for small files like previews
+  private static final int SMALL_FILES_CACHE_FRACTION = 10;
+  // weight of a file which is downloaded without Content-Length until its download completes
+  private static final int UNKNOWN_SIZE_KILOBYTES = 1000;
+  // count of the files which are prefetched concurrently
+  private static final int PREFETCH_THREAD_COUNT = 4;
   private final Parameters parameters;
-  private LoadingCache<DicomPath, Path> downloadedFiles;
+  private final ExecutorService downloadExecutor;
+  private final ExecutorService prefetchExecutor;
+  private final AtomicInteger downloadsInProgress = new AtomicInteger();
+  private final AtomicLong downloadedBytes = new AtomicLong();
+  private final LoadingCache<DicomPath, DownloadedFile> downloadedFiles;
+  // Small files are kept in a separate tier, so they are not evicted by large Instances. The tier
+  // is created only if previews are enabled, otherwise it is null.
+  private final LoadingCache<DicomPath, DownloadedFile> smallFiles;
 
   public DownloadCacher(Parameters parameters) {
     this.parameters = parameters;
+    downloadExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+        .setNameFormat("download-%d")
+        .setDaemon(true)
+        .build());
+    prefetchExecutor = Executors.newFixedThreadPool(PREFETCH_THREAD_COUNT,
+        new ThreadFactoryBuilder()
+            .setNameFormat("prefetch-%d")
+            .setDaemon(true)
+            .build());
+    long cacheSize = parameters.getCacheSize() * KILOBYTES_IN_MEGABYTE;
+    if (parameters.getPreviewSize() > 0) {
+      long smallFilesCacheSize = cacheSize / SMALL_FILES_CACHE_FRACTION;
+      downloadedFiles = createCache(cacheSize - smallFilesCacheSize);
+      smallFiles = createCache(smallFilesCacheSize);
+    } else {
+      downloadedFiles = createCache(cacheSize);
+      smallFiles = null;
+    }
+  }
+
+  private LoadingCache<DicomPath, DownloadedFile> createCache(long maximumWeight) {
     long instancesTime = parameters.getCacheTime().getInstanceFilesCacheTime();
-    downloadedFiles = CacheBuilder.newBuilder()
+    return CacheBuilder.newBuilder()
         .expireAfterWrite(instancesTime, TimeUnit.SECONDS)
-        .removalListener((RemovalListener<DicomPath, Path>) notification -> {
-          Path path = notification.getValue();
+        .recordStats()
+        .removalListener((RemovalListener<DicomPath, DownloadedFile>) notification -> {
+          // The entry is replaced by itself when the download completes to update its weight.
+          if (notification.getCause() == RemovalCause.REPLACED) {
+            return;
+          }
+          Path path = notification.getValue().getPath();
           try {
             CacherUtils.deleteFile(path);
           } catch (DicomFuseException e) {
             LOGGER.error("Error deleting the downloaded file!", e);
           }
         })
-        .maximumWeight(parameters.getCacheSize())
-        .weigher((dicomPath, path) -> {
-          try {
-            return (int) Files.size(path) / BYTES_IN_MEGABYTE;
-          } catch (IOException e) {
-            LOGGER.error("Error getting file size!", e);
-            return 0;
+        // Frames are usually much smaller than a megabyte, so the files are weighed in kilobytes.
+        // The loader returns once the download has started, so a file is charged with its
+        // Content-Length while it is still downloading.
+        .maximumWeight(maximumWeight)
+        .weigher((DicomPath dicomPath, DownloadedFile downloadedFile) -> {
+          long size = downloadedFile.getSize();
+          if (size < 0) {
+            return downloadedFile.isFailed() ? 0 : UNKNOWN_SIZE_KILOBYTES;
           }
+          return (int) Math.min((size + BYTES_IN_KILOBYTE - 1) / BYTES_IN_KILOBYTE,
+              Integer.MAX_VALUE);
         })
-        .build(new CacheLoader<DicomPath, Path>() {
+        .build(new CacheLoader<DicomPath, DownloadedFile>() {
           @Override
-          public Path load(@NonNull DicomPath dicomPath) throws DicomFuseException {
+          public DownloadedFile load(@NonNull DicomPath dicomPath) throws DicomFuseException {
             return getInstance(dicomPath);
           }
         });
   }
 
-  public Path getPath(DicomPath dicomPath) throws DicomFuseException {
+  private LoadingCache<DicomPath, DownloadedFile> getCache(DicomPath dicomPath) {
+    // the only downloaded virtual files are previews
+    return dicomPath.getDicomPathLevel() == DicomPathLevel.VIRTUAL_FILE && smallFiles != null
+        ? smallFiles : downloadedFiles;
+  }
+
+  /**
+   * Returns the file as soon as the download has started. Use {@link DownloadedFile#awaitRange}
+   * before reading it.
+   */
+  public DownloadedFile getFile(DicomPath dicomPath) throws DicomFuseException {
+    LoadingCache<DicomPath, DownloadedFile> files = getCache(dicomPath);
     try {
-      return downloadedFiles.get(dicomPath);
+      DownloadedFile downloadedFile = files.get(dicomPath);
+      if (downloadedFile.isFailed()) {
+        // the previous download failed, so start a new one
+        files.asMap().remove(dicomPath, downloadedFile);
+        downloadedFile = files.get(dicomPath);
+      }
+      return downloadedFile;
     } catch (ExecutionException e) {
       throw new DicomFuseException(e);
     }
   }
 
-  public Path getPathIfPresent(DicomPath dicomPath) {
-    return downloadedFiles.getIfPresent(dicomPath);
+  public DownloadedFile getFileIfPresent(DicomPath dicomPath) {
+    return getCache(dicomPath).getIfPresent(dicomPath);
   }
 
   public void removePath(DicomPath dicomPath) {
-    downloadedFiles.invalidate(dicomPath);
+    getCache(dicomPath).invalidate(dicomPath);
   }
 
-  private Path getInstance(DicomPath dicomPath) throws DicomFuseException {
+  /**
+   * Downloads the files in the background, a few files at a time. The files are cached as if they
+   * were opened.
+   */
+  public void prefetch(Collection<DicomPath> dicomPaths) {
+    for (DicomPath dicomPath : dicomPaths) {
+      prefetchExecutor.execute(() -> {
+        try {
+          getFile(dicomPath).awaitCompletion();
+        } catch (DicomFuseException e) {
+          LOGGER.error("Error prefetching file - " + dicomPath, e);
+        }
+      });
+    }
+  }
+
+  /**
+   * Removes all downloaded files.
+   */
+  public void removeAll() {
+    downloadedFiles.invalidateAll();
+    if (smallFiles != null) {
+      smallFiles.invalidateAll();
+    }
+  }
+
+  /**
+   * Removes the downloaded files of the object and of the objects contained in it.
+   */
+  public void removeSubtree(DicomPath folderPath) {
+    downloadedFiles.asMap().keySet().removeIf(dicomPath -> dicomPath.isWithin(folderPath));
+    if (smallFiles != null) {
+      smallFiles.asMap().keySet().removeIf(dicomPath -> dicomPath.isWithin(folderPath));
+    }
+  }
+
+  /**
+   * Appends the statistics of the cache. The files which are being downloaded are counted with
+   * the downloaded part.
+   */
+  public void appendStats(StringBuilder stringBuilder) {
+    CacheStats cacheStats = downloadedFiles.stats();
+    long fileCount = downloadedFiles.size();
+    long cachedBytes = 0;
+    for (DownloadedFile downloadedFile : downloadedFiles.asMap().values()) {
+      cachedBytes += downloadedFile.getDownloadedSize();
+    }
+    if (smallFiles != null) {
+      cacheStats = cacheStats.plus(smallFiles.stats());
+      fileCount += smallFiles.size();
+      for (DownloadedFile downloadedFile : smallFiles.asMap().values()) {
+        cachedBytes += downloadedFile.getDownloadedSize();
+      }
+    }
+    stringBuilder
+        .append("download_cache.hits ").append(cacheStats.hitCount()).append('\n')
+        .append("download_cache.misses ").append(cacheStats.missCount()).append('\n')
+        .append("download_cache.hit_ratio ")
+        .append(String.format("%.3f", cacheStats.hitRate())).append('\n')
+        .append("download_cache.evictions ").append(cacheStats.evictionCount()).append('\n')
+        .append("download_cache.files ").append(fileCount).append('\n')
+        .append("download_cache.bytes ").append(cachedBytes).append('\n')
+        .append("downloads.in_progress ").append(downloadsInProgress.get()).append('\n')
+        .append("downloads.completed_bytes ").append(downloadedBytes.get()).append('\n');
+  }
+
+  /**
+   * Removes the downloaded frames and previews of the Instance.
+   */
+  public void removeGeneratedFiles(DicomPath instancePath) {
+    downloadedFiles.asMap().keySet().removeIf(dicomPath ->
+        dicomPath.getDicomPathLevel() == DicomPathLevel.FRAME
+            && dicomPath.getInstancePath().equals(instancePath));
+    if (smallFiles != null) {
+      smallFiles.asMap().keySet().removeIf(dicomPath ->
+          dicomPath.getInstancePath().equals(instancePath));
+    }
+  }
+
+  private DownloadedFile getInstance(DicomPath dicomPath) throws DicomFuseException {
     LOGGER.info("File caching started  - " + dicomPath);
     Path instanceDataPath = CacherUtils.createTempPath();
-    FuseDaoHelper.downloadInstance(parameters.getFuseDAO(), parameters.getCloudConf(),
-        dicomPath, instanceDataPath);
-    return instanceDataPath;
+    DownloadedFile downloadedFile = new DownloadedFile(instanceDataPath);
+    LoadingCache<DicomPath, DownloadedFile> files = getCache(dicomPath);
+    downloadsInProgress.incrementAndGet();
+    downloadExecutor.execute(() -> {
+      try {
+        download(dicomPath, instanceDataPath, downloadedFile);
+        downloadedFile.complete();
+        downloadedBytes.addAndGet(downloadedFile.getDownloadedSize());
+        files.asMap().replace(dicomPath, downloadedFile, downloadedFile);
+        LOGGER.info("File caching finished - " + dicomPath);
+      } catch (DicomFuseException e) {
+        failDownload(dicomPath, files, downloadedFile, e);
+      } catch (RuntimeException e) {
+        failDownload(dicomPath, files, downloadedFile, new DicomFuseException(e));
+      } catch (Error e) {
+        // the waiting readers are released before the error is propagated
+        failDownload(dicomPath, files, downloadedFile, new DicomFuseException(e.toString()));
+        throw e;
+      } finally {
+        downloadsInProgress.decrementAndGet();
+      }
+    });
+    downloadedFile.awaitStart();
+    return downloadedFile;
+  }
+
+  private void failDownload(DicomPath dicomPath, LoadingCache<DicomPath, DownloadedFile> files,
+      DownloadedFile downloadedFile, DicomFuseException e) {
+    LOGGER.error("Error downloading file - " + dicomPath, e);
+    downloadedFile.fail(e);
+    if (!files.asMap().remove(dicomPath, downloadedFile)) {
+      try {
+        CacherUtils.deleteFile(downloadedFile.getPath());
+      } catch (DicomFuseException ex) {
+        LOGGER.error("Error deleting the downloaded file!", ex);
+      }
+    }
+  }
+
+  private void download(DicomPath dicomPath, Path dataPath, DownloadedFile downloadedFile)
+      throws DicomFuseException {
+    switch (dicomPath.getDicomPathLevel()) {
+      case FRAME:
+        FuseDaoHelper.downloadFrame(parameters.getFuseDAO(), parameters.getCloudConf(),
+            dicomPath, dataPath, downloadedFile);
+        break;
+      case VIRTUAL_FILE:
+        FuseDaoHelper.downloadRendered(parameters.getFuseDAO(), parameters.getCloudConf(),
+            dicomPath, parameters.getPreviewSize(), parameters.getPreviewQuality(), dataPath,
+            downloadedFile);
+        break;
+      default:
+        FuseDaoHelper.downloadInstance(parameters.getFuseDAO(), parameters.getCloudConf(),
+            dicomPath, dataPath, downloadedFile);
+    }
   }
 }
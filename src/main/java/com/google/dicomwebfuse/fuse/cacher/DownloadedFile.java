@@ -0,0 +1,154 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import com.google.dicomwebfuse.dao.DownloadListener;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.nio.file.Path;
+
+/**
+ * A file which may still be downloading. Readers block until the requested range has been
+ * written to the disk or the download has finished.
+ */
+public class DownloadedFile implements DownloadListener {
+
+  private static final long UNKNOWN_LENGTH = -1;
+  private final Path path;
+  private final Object lock = new Object();
+  private boolean started;
+  private boolean completed;
+  private long contentLength = UNKNOWN_LENGTH;
+  private long downloadedBytes;
+  private DicomFuseException error;
+
+  DownloadedFile(Path path) {
+    this.path = path;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  @Override
+  public void onStart(long contentLength) {
+    synchronized (lock) {
+      this.contentLength = contentLength < 0 ? UNKNOWN_LENGTH : contentLength;
+      started = true;
+      lock.notifyAll();
+    }
+  }
+
+  @Override
+  public void onProgress(long downloadedBytes) {
+    synchronized (lock) {
+      this.downloadedBytes = downloadedBytes;
+      lock.notifyAll();
+    }
+  }
+
+  void complete() {
+    synchronized (lock) {
+      started = true;
+      completed = true;
+      contentLength = downloadedBytes;
+      lock.notifyAll();
+    }
+  }
+
+  void fail(DicomFuseException e) {
+    synchronized (lock) {
+      error = e;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Waits until the server response has been received.
+   */
+  void awaitStart() throws DicomFuseException {
+    synchronized (lock) {
+      while (!started && error == null) {
+        await();
+      }
+      checkError();
+    }
+  }
+
+  /**
+   * Waits until the bytes before the end position are available or the download has finished.
+   */
+  public void awaitRange(long end) throws DicomFuseException {
+    synchronized (lock) {
+      while (!completed && downloadedBytes < end && error == null) {
+        await();
+      }
+      checkError();
+    }
+  }
+
+  public void awaitCompletion() throws DicomFuseException {
+    synchronized (lock) {
+      while (!completed && error == null) {
+        await();
+      }
+      checkError();
+    }
+  }
+
+  public boolean isCompleted() {
+    synchronized (lock) {
+      return completed;
+    }
+  }
+
+  boolean isFailed() {
+    synchronized (lock) {
+      return error != null;
+    }
+  }
+
+  /**
+   * Returns the expected file size, or -1 if the server did not send Content-Length.
+   */
+  public long getSize() {
+    synchronized (lock) {
+      return contentLength;
+    }
+  }
+
+  /**
+   * Returns the count of the bytes which have been written to the disk.
+   */
+  public long getDownloadedSize() {
+    synchronized (lock) {
+      return downloadedBytes;
+    }
+  }
+
+  private void await() throws DicomFuseException {
+    try {
+      lock.wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DicomFuseException(e);
+    }
+  }
+
+  private void checkError() throws DicomFuseException {
+    if (error != null) {
+      throw new DicomFuseException("Error downloading file - " + path, error);
+    }
+  }
+}
@@ -0,0 +1,223 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.dicomwebfuse.dao.FuseDaoHelper;
+import com.google.dicomwebfuse.encoder.Part10Encoder;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.VirtualFileType;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.Parameters;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * Caches the content of virtual files in memory. The files are generated on the first open and
+ * are kept as long as the Instance files. The metadata of all Instances of a Series is requested
+ * at once and kept as long as the folder listings, metadata files are served from it. Each cache
+ * takes up to an eighth of the maximum heap size.
+ */
+public class VirtualFileCacher {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  private static final int HEAP_FRACTION = 8;
+  private static final String SOP_INSTANCE_UID = "00080018";
+  private final Parameters parameters;
+  private final LoadingCache<DicomPath, byte[]> virtualFiles;
+  private final LoadingCache<DicomPath, SeriesMetadata> seriesMetadata;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  public VirtualFileCacher(Parameters parameters) {
+    this.parameters = parameters;
+    long maxCacheSize = Runtime.getRuntime().maxMemory() / HEAP_FRACTION; // in bytes
+    long instancesTime = parameters.getCacheTime().getInstanceFilesCacheTime();
+    virtualFiles = CacheBuilder.newBuilder()
+        .expireAfterWrite(instancesTime, TimeUnit.SECONDS)
+        .maximumWeight(maxCacheSize)
+        .weigher((DicomPath dicomPath, byte[] content) -> content.length)
+        .build(new CacheLoader<DicomPath, byte[]>() {
+          @Override
+          public byte[] load(@NonNull DicomPath dicomPath) throws DicomFuseException {
+            return createFile(dicomPath);
+          }
+        });
+    long objectsTime = parameters.getCacheTime().getObjectsCacheTime();
+    // The weight limit is split between the segments of the cache, a single segment lets the
+    // metadata of a large Series take the whole limit.
+    seriesMetadata = CacheBuilder.newBuilder()
+        .expireAfterWrite(objectsTime, TimeUnit.SECONDS)
+        .concurrencyLevel(1)
+        .maximumWeight(maxCacheSize)
+        .weigher((DicomPath seriesPath, SeriesMetadata metadata) -> metadata.content.length)
+        .build(new CacheLoader<DicomPath, SeriesMetadata>() {
+          @Override
+          public SeriesMetadata load(@NonNull DicomPath seriesPath) throws DicomFuseException {
+            return loadSeriesMetadata(seriesPath);
+          }
+        });
+  }
+
+  public byte[] getFile(DicomPath dicomPath) throws DicomFuseException {
+    if (dicomPath.getVirtualFileType() != null && dicomPath.getVirtualFileType().isMetadata()) {
+      return getMetadataFile(dicomPath);
+    }
+    try {
+      return virtualFiles.get(dicomPath);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
+  /**
+   * Returns the size of the file if it is cached, otherwise 0.
+   */
+  public long getFileSizeIfPresent(DicomPath dicomPath) {
+    if (dicomPath.getVirtualFileType().isMetadata()) {
+      SeriesMetadata metadata = seriesMetadata.getIfPresent(dicomPath.getSeriesPath());
+      if (metadata == null) {
+        return 0;
+      }
+      if (dicomPath.getVirtualFileType() == VirtualFileType.SERIES_METADATA) {
+        return metadata.content.length;
+      }
+      int[] range = metadata.instanceRanges.get(dicomPath.getSopInstanceUID());
+      return range != null ? range[1] - range[0] : 0;
+    }
+    byte[] content = virtualFiles.getIfPresent(dicomPath);
+    return content != null ? content.length : 0;
+  }
+
+  /**
+   * Removes the virtual files of the Instance, e.g. if the Instance was deleted or uploaded again.
+   */
+  public void removeInstance(DicomPath instancePath) {
+    virtualFiles.asMap().keySet().removeIf(dicomPath ->
+        dicomPath.getSopInstanceUID().equals(instancePath.getSopInstanceUID())
+            && dicomPath.getSeriesInstanceUID().equals(instancePath.getSeriesInstanceUID())
+            && dicomPath.getStudyInstanceUID().equals(instancePath.getStudyInstanceUID())
+            && dicomPath.getDicomStoreId().equals(instancePath.getDicomStoreId()));
+    seriesMetadata.invalidate(instancePath.getSeriesPath());
+  }
+
+  /**
+   * Removes the virtual files of the object and of the objects contained in it, and the metadata
+   * of the Series which contain them.
+   */
+  public void removeSubtree(DicomPath folderPath) {
+    virtualFiles.asMap().keySet().removeIf(dicomPath -> dicomPath.isWithin(folderPath));
+    seriesMetadata.asMap().keySet().removeIf(seriesPath ->
+        seriesPath.isWithin(folderPath) || folderPath.isWithin(seriesPath));
+  }
+
+  private byte[] getMetadataFile(DicomPath dicomPath) throws DicomFuseException {
+    DicomPath seriesPath = dicomPath.getSeriesPath();
+    SeriesMetadata metadata = getSeriesMetadata(seriesPath);
+    if (dicomPath.getVirtualFileType() == VirtualFileType.SERIES_METADATA) {
+      // the content is not modified by the readers, so it is not copied
+      return metadata.content;
+    }
+    int[] range = metadata.instanceRanges.get(dicomPath.getSopInstanceUID());
+    if (range == null) {
+      // the Instance may have been uploaded after the metadata of the Series was cached
+      seriesMetadata.invalidate(seriesPath);
+      metadata = getSeriesMetadata(seriesPath);
+      range = metadata.instanceRanges.get(dicomPath.getSopInstanceUID());
+    }
+    if (range == null) {
+      throw new DicomFuseException("Instance metadata not found - " + dicomPath);
+    }
+    return Arrays.copyOfRange(metadata.content, range[0], range[1]);
+  }
+
+  private SeriesMetadata getSeriesMetadata(DicomPath seriesPath) throws DicomFuseException {
+    try {
+      return seriesMetadata.get(seriesPath);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
+  private SeriesMetadata loadSeriesMetadata(DicomPath seriesPath) throws DicomFuseException {
+    LOGGER.info("Requesting metadata of the Series - " + seriesPath);
+    List<JsonNode> instances = FuseDaoHelper.getSeriesMetadata(parameters.getFuseDAO(),
+        parameters.getCloudConf(), seriesPath);
+    // the content of series.json is built once, the Instances are written in the order returned
+    // by the server
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    Map<String, int[]> instanceRanges = new HashMap<>();
+    try {
+      content.write('[');
+      for (JsonNode instance : instances) {
+        if (!instanceRanges.isEmpty()) {
+          content.write(',');
+        }
+        String sopInstanceUID = instance.path(SOP_INSTANCE_UID).path("Value").path(0).asText();
+        int start = content.size();
+        objectMapper.writeValue(content, instance);
+        instanceRanges.put(sopInstanceUID, new int[]{start, content.size()});
+      }
+      content.write(']');
+    } catch (IOException e) {
+      throw new DicomFuseException(e);
+    }
+    return new SeriesMetadata(content.toByteArray(), instanceRanges);
+  }
+
+  private byte[] createFile(DicomPath dicomPath) throws DicomFuseException {
+    VirtualFileType virtualFileType = dicomPath.getVirtualFileType();
+    if (virtualFileType == null) {
+      throw new DicomFuseException("Not a virtual file - " + dicomPath);
+    }
+    LOGGER.info("Generating virtual file - " + dicomPath);
+    switch (virtualFileType) {
+      case INSTANCE_HEADER:
+        return Part10Encoder.encodeHeader(FuseDaoHelper.getInstanceMetadata(
+            parameters.getFuseDAO(), parameters.getCloudConf(), dicomPath));
+      default:
+        throw new DicomFuseException("Unknown virtual file - " + dicomPath);
+    }
+  }
+
+  /**
+   * JSON metadata of the Instances of a Series. The metadata is kept once as the content of
+   * series.json, the metadata of an Instance is a range of the content.
+   */
+  private static class SeriesMetadata {
+
+    private final byte[] content;
+    // start and end offsets of the metadata in the content, key - SOP Instance UID
+    private final Map<String, int[]> instanceRanges;
+
+    private SeriesMetadata(byte[] content, Map<String, int[]> instanceRanges) {
+      this.content = content;
+      this.instanceRanges = instanceRanges;
+    }
+  }
+}
@@ -16,6 +16,7 @@ package com.google.dicomwebfuse.parser;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.converters.BooleanConverter;
+import com.beust.jcommander.converters.IntegerConverter;
 import com.beust.jcommander.converters.LongConverter;
 import com.beust.jcommander.converters.PathConverter;
 import com.google.dicomwebfuse.entities.CloudConf;
@@ -85,11 +86,79 @@ public class Arguments {
   )
   public List<String> extraMountOptions = new ArrayList<>();
 
+  @Parameter(
+      names = {"--immutableInstances"},
+      descriptionKey = "option.immutableInstances",
+      order = 7,
+      converter = BooleanConverter.class
+  )
+  public boolean immutableInstances = false;
+
+  @Parameter(
+      names = {"--kernelCacheTime"},
+      descriptionKey = "option.kernelCacheTime",
+      converter = LongConverter.class,
+      order = 8,
+      validateWith = NonNegativeValidator.class
+  )
+  public long kernelCacheTime = 0;
+
+  @Parameter(
+      names = {"--virtualFiles"},
+      descriptionKey = "option.virtualFiles",
+      order = 9,
+      converter = BooleanConverter.class
+  )
+  public boolean virtualFiles = false;
+
+  @Parameter(
+      names = {"--previewSize"},
+      descriptionKey = "option.previewSize",
+      converter = IntegerConverter.class,
+      order = 10,
+      validateWith = NonNegativeValidator.class
+  )
+  public int previewSize = 0;
+
+  @Parameter(
+      names = {"--previewQuality"},
+      descriptionKey = "option.previewQuality",
+      converter = IntegerConverter.class,
+      order = 11,
+      validateWith = PreviewQualityValidator.class
+  )
+  public int previewQuality = 75;
+
+  @Parameter(
+      names = {"--metadataFiles"},
+      descriptionKey = "option.metadataFiles",
+      order = 12,
+      converter = BooleanConverter.class
+  )
+  public boolean metadataFiles = false;
+
+  @Parameter(
+      names = {"--metadataIndex"},
+      descriptionKey = "option.metadataIndex",
+      order = 13,
+      converter = PathConverter.class
+  )
+  public Path metadataIndexPath;
+
+  @Parameter(
+      names = {"--metadataCacheSize"},
+      descriptionKey = "option.metadataCacheSize",
+      converter = LongConverter.class,
+      order = 14,
+      validateWith = NonNegativeValidator.class
+  )
+  public long metadataCacheSize = 0;
+
   @Parameter(
       names = {"--help", "-h"},
       help = true,
       descriptionKey = "option.help",
-      order = 7
+      order = 15
   )
   public boolean help = false;
 }
\ No newline at end of file
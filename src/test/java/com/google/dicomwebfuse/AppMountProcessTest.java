@@ -112,7 +112,61 @@ class AppMountProcessTest {
     // Then
     List<String> options = Arrays.asList(captor.getValue());
     assertThat(options, hasItems("-ofsname=DICOMFuse", "-onegative_timeout=4", "-oattr_timeout=0",
-        "-oac_attr_timeout=0", "-oentry_timeout=0"));
+        "-oac_attr_timeout=0", "-oentry_timeout=0", "-ouse_ino"));
+  }
+
+  @Test
+  void testShouldMountDicomFuseOnLinuxAndSetEntryTimeoutForImmutableInstances()
+      throws IOException, DicomFuseException {
+    // Skip the test if the system OS is Windows to prevent the error during setting UID and GID
+    // in the MountOptions class
+    assumeTrue(systemOs != OS.WINDOWS);
+    // Given
+    Arguments arguments = new Arguments();
+    arguments.immutableInstances = true;
+    // Setting OS
+    OS os = OS.LINUX;
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Parameters parameters = new Parameters(fuseDao, arguments, os);
+    DicomFuse dicomFuse = Mockito.mock(DicomFuse.class);
+    ArgumentCaptor<String[]> captor = ArgumentCaptor.forClass(String[].class);
+    Mockito.doNothing()
+        .when(dicomFuse)
+        .mount(any(), any(Boolean.class), any(Boolean.class), captor.capture());
+    // When
+    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse);
+    appMountProcess.startMountProcess();
+    // Then
+    List<String> options = Arrays.asList(captor.getValue());
+    assertThat(options, hasItems("-oattr_timeout=0", "-oac_attr_timeout=0",
+        "-oentry_timeout=300"));
+  }
+
+  @Test
+  void testShouldMountDicomFuseOnLinuxAndLimitKernelCacheTimeByObjectsCacheTime()
+      throws IOException, DicomFuseException {
+    // Skip the test if the system OS is Windows to prevent the error during setting UID and GID
+    // in the MountOptions class
+    assumeTrue(systemOs != OS.WINDOWS);
+    // Given
+    Arguments arguments = new Arguments();
+    arguments.kernelCacheTime = 120;
+    // Setting OS
+    OS os = OS.LINUX;
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Parameters parameters = new Parameters(fuseDao, arguments, os);
+    DicomFuse dicomFuse = Mockito.mock(DicomFuse.class);
+    ArgumentCaptor<String[]> captor = ArgumentCaptor.forClass(String[].class);
+    Mockito.doNothing()
+        .when(dicomFuse)
+        .mount(any(), any(Boolean.class), any(Boolean.class), captor.capture());
+    // When
+    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse);
+    appMountProcess.startMountProcess();
+    // Then
+    List<String> options = Arrays.asList(captor.getValue());
+    assertThat(options, hasItems("-oattr_timeout=60", "-oac_attr_timeout=60",
+        "-oentry_timeout=60"));
   }
 
   @Test
@@ -20,7 +20,11 @@ import static com.google.dicomwebfuse.EntityType.STUDY;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_SERIES;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_STUDY;
+import static org.apache.http.HttpHeaders.CONTENT_LENGTH;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 
 import com.google.api.client.http.HttpStatusCodes;
 import com.google.dicomwebfuse.TestUtils;
@@ -35,9 +39,18 @@ import com.google.dicomwebfuse.entities.Study;
 import com.google.dicomwebfuse.exception.DicomFuseException;
 import java.io.IOException;
 import java.util.List;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 class FuseDaoHelperTest {
@@ -151,4 +164,67 @@ class FuseDaoHelperTest {
     // then
     assertEquals(expectedInstancesCount, actualInstancesList.size());
   }
-}
\ No newline at end of file
+
+  @Test
+  void testShouldReturnInstanceSizeFromContentLength() throws DicomFuseException, IOException {
+    // given
+    long expectedInstanceSize = 1024 * 1024;
+    CloseableHttpResponse httpResponse =
+        TestUtils.prepareHttpResponse(HttpStatusCodes.STATUS_CODE_OK);
+    Mockito.when(httpResponse.getFirstHeader(CONTENT_LENGTH))
+        .thenReturn(new BasicHeader(CONTENT_LENGTH, String.valueOf(expectedInstanceSize)));
+    CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
+    Mockito.when(closeableHttpClient.execute(any(HttpHead.class))).thenReturn(httpResponse);
+    HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
+    FuseDao fuseDao = new FuseDaoImpl(authAdc, httpClientFactory);
+    // when
+    long actualInstanceSize = FuseDaoHelper.getInstanceSize(fuseDao, cloudConf, dicomPath);
+    // then
+    assertEquals(expectedInstanceSize, actualInstanceSize);
+  }
+
+  @Test
+  void testDeleteSeriesShouldWaitForOperation() throws DicomFuseException, IOException {
+    // given
+    String operationName = "projects/test/locations/test/datasets/test/operations/1";
+    CloseableHttpResponse deleteResponse = prepareJsonResponse(
+        "{\"name\": \"" + operationName + "\"}");
+    CloseableHttpResponse operationResponse = prepareJsonResponse(
+        "{\"name\": \"" + operationName + "\", \"done\": true}");
+    CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
+    Mockito.when(closeableHttpClient.execute(any(HttpDelete.class))).thenReturn(deleteResponse);
+    Mockito.when(closeableHttpClient.execute(any(HttpGet.class))).thenReturn(operationResponse);
+    HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
+    FuseDao fuseDao = new FuseDaoImpl(authAdc, httpClientFactory);
+    // when
+    FuseDaoHelper.deleteSeries(fuseDao, cloudConf, dicomPath);
+    // then
+    ArgumentCaptor<HttpUriRequest> request = ArgumentCaptor.forClass(HttpUriRequest.class);
+    Mockito.verify(closeableHttpClient, Mockito.times(2)).execute(request.capture());
+    assertEquals("GET", request.getValue().getMethod());
+    assertEquals("/test/" + operationName, request.getValue().getURI().getPath());
+  }
+
+  @Test
+  void testDeleteSeriesShouldThrowIfOperationFailed() throws IOException {
+    // given
+    CloseableHttpResponse deleteResponse = prepareJsonResponse("{\"name\": \"operations/1\", "
+        + "\"done\": true, \"error\": {\"code\": 13, \"message\": \"Internal error\"}}");
+    CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
+    Mockito.when(closeableHttpClient.execute(any(HttpDelete.class))).thenReturn(deleteResponse);
+    HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
+    FuseDao fuseDao = new FuseDaoImpl(authAdc, httpClientFactory);
+    // then
+    DicomFuseException exception = assertThrows(DicomFuseException.class,
+        () -> FuseDaoHelper.deleteSeries(fuseDao, cloudConf, dicomPath));
+    assertTrue(exception.getMessage().contains("Internal error"));
+  }
+
+  private static CloseableHttpResponse prepareJsonResponse(String json) {
+    CloseableHttpResponse httpResponse =
+        TestUtils.prepareHttpResponse(HttpStatusCodes.STATUS_CODE_OK);
+    Mockito.when(httpResponse.getEntity())
+        .thenReturn(new StringEntity(json, ContentType.APPLICATION_JSON));
+    return httpResponse;
+  }
+}
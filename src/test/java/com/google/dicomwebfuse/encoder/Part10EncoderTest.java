@@ -0,0 +1,69 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.encoder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class Part10EncoderTest {
+
+  private static final String METADATA = "{"
+      + "\"00080016\":{\"vr\":\"UI\",\"Value\":[\"1.2.840.10008.5.1.4.1.1.2\"]},"
+      + "\"00080018\":{\"vr\":\"UI\",\"Value\":[\"1.2.3\"]},"
+      + "\"00100010\":{\"vr\":\"PN\",\"Value\":[{\"Alphabetic\":\"Doe^John\"}]},"
+      + "\"00280010\":{\"vr\":\"US\",\"Value\":[512]},"
+      + "\"7FE00010\":{\"vr\":\"OW\",\"BulkDataURI\":\"https://example.com/bulkdata\"}}";
+
+  @Test
+  void testShouldEncodeHeaderWithoutBulkData() throws Exception {
+    // Given
+    JsonNode metadata = new ObjectMapper().readTree(METADATA);
+    // When
+    byte[] header = Part10Encoder.encodeHeader(metadata);
+    // Then
+    assertArrayEquals("DICM".getBytes(StandardCharsets.US_ASCII),
+        Arrays.copyOfRange(header, 128, 132));
+    assertTrue(indexOf(header, concat(new byte[]{0x02, 0x00, 0x10, 0x00, 'U', 'I', 20, 0},
+        "1.2.840.10008.1.2.1\0")) > 0);
+    assertTrue(indexOf(header, concat(new byte[]{0x10, 0x00, 0x10, 0x00, 'P', 'N', 8, 0},
+        "Doe^John")) > 0);
+    assertTrue(indexOf(header,
+        new byte[]{0x28, 0x00, 0x10, 0x00, 'U', 'S', 2, 0, 0x00, 0x02}) > 0);
+    assertEquals(-1, indexOf(header, new byte[]{(byte) 0xE0, 0x7F, 0x10, 0x00}));
+  }
+
+  private static byte[] concat(byte[] prefix, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+    byte[] result = Arrays.copyOf(prefix, prefix.length + bytes.length);
+    System.arraycopy(bytes, 0, result, prefix.length, bytes.length);
+    return result;
+  }
+
+  private static int indexOf(byte[] array, byte[] target) {
+    for (int i = 0; i <= array.length - target.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(array, i, i + target.length), target)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.encoder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class TarEncoderTest {
+
+  @Test
+  void testShouldEncodeUstarHeader() {
+    // Given
+    String name = "1.2.3/1.2.3.4.dcm";
+    // When
+    byte[] header = TarEncoder.encodeHeader(name, 1000, 1556668800);
+    // Then
+    assertEquals(TarEncoder.BLOCK_SIZE, header.length);
+    assertEquals(name, readString(header, 0, 100));
+    assertEquals("00000001750", readString(header, 124, 12));
+    assertEquals("13462160600", readString(header, 136, 12));
+    assertEquals("ustar", readString(header, 257, 6));
+    int checksum = 0;
+    for (int i = 0; i < header.length; i++) {
+      checksum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+    }
+    assertEquals(checksum, Integer.parseInt(readString(header, 148, 6), 8));
+  }
+
+  @Test
+  void testShouldSplitLongName() {
+    // Given
+    String folder = "1.2.840.113619.2.55.3.604688119.868.1234567890.123.1234567890.1234567890.1";
+    String fileName = "1.2.840.113619.2.55.3.604688119.868.1234567890.123.1234567890.12345678.1.dcm";
+    // When
+    byte[] header = TarEncoder.encodeHeader(folder + "/" + fileName, 0, 0);
+    // Then
+    assertEquals(fileName, readString(header, 0, 100));
+    assertEquals(folder, readString(header, 345, 155));
+  }
+
+  @Test
+  void testShouldPadSizeToBlocks() {
+    assertEquals(0, TarEncoder.getPaddedSize(0));
+    assertEquals(512, TarEncoder.getPaddedSize(1));
+    assertEquals(512, TarEncoder.getPaddedSize(512));
+    assertEquals(1024, TarEncoder.getPaddedSize(513));
+  }
+
+  private static String readString(byte[] header, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && header[end] != 0) {
+      end++;
+    }
+    return new String(header, offset, end - offset, StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+class DicomDateTimeTest {
+
+  @Test
+  void testShouldParseDateAndTime() {
+    // Given
+    DicomAttribute<String> date = createAttribute("DA", "20190412");
+    DicomAttribute<String> time = createAttribute("TM", "071543.25");
+    // When
+    Instant instant = DicomDateTime.toInstant(date, time);
+    // Then
+    assertEquals(Instant.parse("2019-04-12T07:15:43.250Z"), instant);
+  }
+
+  @Test
+  void testShouldParsePartialAndLegacyTime() {
+    // Given
+    DicomAttribute<String> date = createAttribute("DA", "1993.08.22");
+    DicomAttribute<String> time = createAttribute("TM", "0709");
+    DicomAttribute<String> legacyTime = createAttribute("TM", "07:09:43");
+    // When
+    Instant instant = DicomDateTime.toInstant(date, time);
+    Instant legacyInstant = DicomDateTime.toInstant(date, legacyTime);
+    // Then
+    assertEquals(Instant.parse("1993-08-22T07:09:00Z"), instant);
+    assertEquals(Instant.parse("1993-08-22T07:09:43Z"), legacyInstant);
+  }
+
+  @Test
+  void testShouldUseMidnightIfTimeIsMissingOrInvalid() {
+    // Given
+    DicomAttribute<String> date = createAttribute("DA", "20190412");
+    DicomAttribute<String> invalidTime = createAttribute("TM", "2561");
+    // When
+    Instant instant = DicomDateTime.toInstant(date, null);
+    Instant invalidTimeInstant = DicomDateTime.toInstant(date, invalidTime);
+    // Then
+    assertEquals(Instant.parse("2019-04-12T00:00:00Z"), instant);
+    assertEquals(Instant.parse("2019-04-12T00:00:00Z"), invalidTimeInstant);
+  }
+
+  @Test
+  void testShouldReturnNullIfDateIsMissingOrInvalid() {
+    // Given
+    DicomAttribute<String> emptyDate = new DicomAttribute<>();
+    emptyDate.setVr("DA");
+    DicomAttribute<String> invalidDate = createAttribute("DA", "20191332");
+    DicomAttribute<String> time = createAttribute("TM", "071543");
+    // When
+    Instant emptyDateInstant = DicomDateTime.toInstant(emptyDate, time);
+    Instant invalidDateInstant = DicomDateTime.toInstant(invalidDate, time);
+    // Then
+    assertNull(emptyDateInstant);
+    assertNull(invalidDateInstant);
+  }
+
+  private static DicomAttribute<String> createAttribute(String vr, String value) {
+    DicomAttribute<String> attribute = new DicomAttribute<>();
+    attribute.setVr(vr);
+    attribute.setValue(new String[]{value});
+    return attribute;
+  }
+}
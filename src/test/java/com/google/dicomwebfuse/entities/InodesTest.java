@@ -0,0 +1,71 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+class InodesTest {
+
+  private static final String DICOM_STORE_ID = "store";
+  private static final String STUDY_INSTANCE_UID = "1.2.3";
+  private static final String SERIES_INSTANCE_UID = "1.2.3.4";
+  private static final String SOP_INSTANCE_UID = "1.2.3.4.5";
+
+  @Test
+  void testShouldReturnRootInodeForDataset() {
+    // Given
+    DicomPath datasetPath = new DicomPath.Builder(DicomPathLevel.DATASET).build();
+    // When
+    long inode = Inodes.getInode(datasetPath);
+    // Then
+    assertEquals(Inodes.ROOT_INODE, inode);
+  }
+
+  @Test
+  void testShouldReturnSameInodeForSameObject() {
+    // Given
+    DicomPath seriesPath = createSeriesPath();
+    DicomPath instancePath = createInstancePath(SOP_INSTANCE_UID);
+    // When
+    long inode = Inodes.getInode(instancePath);
+    long childInode = Inodes.getChildInode(seriesPath, SOP_INSTANCE_UID);
+    long parentInode = Inodes.getParentInode(instancePath);
+    // Then
+    assertEquals(inode, Inodes.getInode(createInstancePath(SOP_INSTANCE_UID)));
+    assertEquals(inode, childInode);
+    assertEquals(Inodes.getInode(seriesPath), parentInode);
+    assertNotEquals(inode, Inodes.getInode(createInstancePath(SOP_INSTANCE_UID + "1")));
+  }
+
+  private static DicomPath createSeriesPath() {
+    return new DicomPath.Builder(DicomPathLevel.SERIES)
+        .dicomStoreId(DICOM_STORE_ID)
+        .studyInstanceUID(STUDY_INSTANCE_UID)
+        .seriesInstanceUID(SERIES_INSTANCE_UID)
+        .build();
+  }
+
+  private static DicomPath createInstancePath(String sopInstanceUID) {
+    return new DicomPath.Builder(DicomPathLevel.INSTANCE)
+        .dicomStoreId(DICOM_STORE_ID)
+        .studyInstanceUID(STUDY_INSTANCE_UID)
+        .seriesInstanceUID(SERIES_INSTANCE_UID)
+        .sopInstanceUID(sopInstanceUID)
+        .build();
+  }
+}
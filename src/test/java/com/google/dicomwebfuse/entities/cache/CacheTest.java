@@ -0,0 +1,124 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+import static com.google.dicomwebfuse.entities.cache.InstanceTableTest.createAttribute;
+import static com.google.dicomwebfuse.entities.cache.InstanceTableTest.createInstance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class CacheTest {
+
+  private static final String DICOM_STORE_ID = "store";
+  private static final String STUDY_INSTANCE_UID = "1.2.3";
+  private static final String[] SERIES_INSTANCE_UIDS = {"1.2.3.1", "1.2.3.2", "1.2.3.3"};
+  private static final int INSTANCE_COUNT = 100;
+
+  @Test
+  void testEvictColdObjectsShouldEvictLeastRecentlyAccessedSeries() throws Exception {
+    // Given
+    Cache cache = createCache();
+    CachedStudy cachedStudy = cache.findCachedStudy(createSeriesPath(SERIES_INSTANCE_UIDS[0]));
+    cache.setMaxSize(cachedStudy.estimateSize() * 8 / 10);
+    // the first Series becomes the most recently accessed
+    cache.findCachedSeries(createSeriesPath(SERIES_INSTANCE_UIDS[0]));
+    // When
+    cache.evictColdObjects(System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+    // Then
+    DicomPath evictedPath = createSeriesPath(SERIES_INSTANCE_UIDS[1]);
+    assertEquals(0, cache.getCachedInstances(evictedPath).size());
+    assertTrue(cache.isSeriesOutdated(evictedPath));
+    assertTrue(cache.findCachedSeries(evictedPath).isEvicted());
+    assertEquals(INSTANCE_COUNT,
+        cache.getCachedInstances(createSeriesPath(SERIES_INSTANCE_UIDS[0])).size());
+    assertEquals(INSTANCE_COUNT,
+        cache.getCachedInstances(createSeriesPath(SERIES_INSTANCE_UIDS[2])).size());
+    StringBuilder stats = new StringBuilder();
+    cache.appendStats(stats);
+    assertTrue(stats.toString().contains("metadata_cache.evicted_series 1\n"));
+    assertTrue(stats.toString().contains("metadata_cache.evicted_studies 0\n"));
+  }
+
+  @Test
+  void testEvictColdObjectsShouldEvictStudyIfSeriesAreNotEnough() throws Exception {
+    // Given
+    Cache cache = createCache();
+    cache.setMaxSize(1);
+    // When
+    cache.evictColdObjects(System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+    // Then
+    DicomPath studyPath = new DicomPath.Builder(DicomPathLevel.STUDY)
+        .dicomStoreId(DICOM_STORE_ID)
+        .studyInstanceUID(STUDY_INSTANCE_UID)
+        .build();
+    assertTrue(cache.getCachedSeries(studyPath).isEmpty());
+    assertTrue(cache.isStudyOutdated(studyPath));
+    assertFalse(cache.isStudyNotExist(studyPath));
+  }
+
+  @Test
+  void testEvictColdObjectsShouldKeepRecentlyAccessedObjects() throws Exception {
+    // Given
+    Cache cache = createCache();
+    cache.setMaxSize(1);
+    // When
+    cache.evictColdObjects();
+    // Then
+    for (String seriesInstanceUID : SERIES_INSTANCE_UIDS) {
+      assertEquals(INSTANCE_COUNT,
+          cache.getCachedInstances(createSeriesPath(seriesInstanceUID)).size());
+    }
+  }
+
+  private static Cache createCache() {
+    Cache cache = new Cache();
+    DicomStore dicomStore = new DicomStore();
+    dicomStore.setDicomStoreId(DICOM_STORE_ID);
+    Study study = new Study();
+    study.setStudyInstanceUID(createAttribute("UI", STUDY_INSTANCE_UID));
+    CachedStudy cachedStudy = new CachedStudy(study);
+    for (String seriesInstanceUID : SERIES_INSTANCE_UIDS) {
+      Series series = new Series();
+      series.setStudyInstanceUID(createAttribute("UI", STUDY_INSTANCE_UID));
+      series.setSeriesInstanceUID(createAttribute("UI", seriesInstanceUID));
+      CachedSeries cachedSeries = new CachedSeries(series);
+      for (int i = 0; i < INSTANCE_COUNT; i++) {
+        cachedSeries.getCachedInstances().put(createInstance(seriesInstanceUID + "." + i, i, 0));
+      }
+      cachedStudy.getCachedSeries().put(seriesInstanceUID, cachedSeries);
+    }
+    CachedDicomStore cachedDicomStore = new CachedDicomStore(dicomStore);
+    cachedDicomStore.getCachedStudies().put(STUDY_INSTANCE_UID, cachedStudy);
+    cache.getCachedDicomStores().put(DICOM_STORE_ID, cachedDicomStore);
+    return cache;
+  }
+
+  private static DicomPath createSeriesPath(String seriesInstanceUID) {
+    return new DicomPath.Builder(DicomPathLevel.SERIES)
+        .dicomStoreId(DICOM_STORE_ID)
+        .studyInstanceUID(STUDY_INSTANCE_UID)
+        .seriesInstanceUID(seriesInstanceUID)
+        .build();
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.google.dicomwebfuse.entities.DicomAttribute;
+import com.google.dicomwebfuse.entities.Instance;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Measures the heap footprint of the cached Instances at 1M and 10M Instances, 100 Instances per
+ * Series. A count is skipped if the heap is too small, 10M Instances need about 4 GB, e.g.
+ * "mvn test -Dtest=InstanceTableBenchmark -DargLine=-Xmx6g". It's not run by default.
+ */
+class InstanceTableBenchmark {
+
+  private static final int INSTANCES_IN_SERIES = 100;
+  // the heap which is needed per Instance with the overhead of the collector
+  private static final long REQUIRED_BYTES_PER_INSTANCE = 400;
+  private static final String UID_ROOT = "1.3.6.1.4.1.14519.5.2.1.6279.6001.";
+
+  @Test
+  void benchmarkOneMillionInstances() {
+    measure(1_000_000);
+  }
+
+  @Test
+  void benchmarkTenMillionInstances() {
+    measure(10_000_000);
+  }
+
+  private static void measure(int instanceCount) {
+    assumeTrue(Runtime.getRuntime().maxMemory() > instanceCount * REQUIRED_BYTES_PER_INSTANCE,
+        "not enough heap for " + instanceCount + " Instances");
+    // Given
+    long usedBefore = getUsedHeap();
+
+    // When
+    List<InstanceTable> seriesList = new ArrayList<>(instanceCount / INSTANCES_IN_SERIES);
+    for (int series = 0; series < instanceCount / INSTANCES_IN_SERIES; series++) {
+      InstanceTable instanceTable = new InstanceTable();
+      for (int i = 0; i < INSTANCES_IN_SERIES; i++) {
+        instanceTable.put(createInstance(series, i));
+      }
+      seriesList.add(instanceTable);
+    }
+    long used = getUsedHeap() - usedBefore;
+
+    // Then
+    assertTrue(used / instanceCount < REQUIRED_BYTES_PER_INSTANCE, () -> String.format(
+        "%,d Instances: %,d MB, %d bytes per Instance", instanceCount, used / (1024 * 1024),
+        used / instanceCount));
+    int count = 0;
+    for (InstanceTable instanceTable : seriesList) {
+      count += instanceTable.size();
+    }
+    assertEquals(instanceCount, count);
+  }
+
+  // QIDO-RS returns these attributes of the Instances by default and with the included fields
+  private static Instance createInstance(int series, int number) {
+    String seriesInstanceUID = UID_ROOT + (100_000_000 + series);
+    Instance instance = new Instance();
+    instance.setStudyInstanceUID(createAttribute("UI", UID_ROOT + "1"));
+    instance.setSeriesInstanceUID(createAttribute("UI", seriesInstanceUID));
+    instance.setSopInstanceUID(createAttribute("UI", seriesInstanceUID + "." + number));
+    instance.setInstanceCreationDate(createAttribute("DA", "20190102"));
+    instance.setInstanceCreationTime(createAttribute("TM", "101010." + (100_000 + number)));
+    instance.setInstanceNumber(createObjectAttribute("IS", number + 1));
+    instance.setOtherAttribute("00080016",
+        createObjectAttribute("UI", "1.2.840.10008.5.1.4.1.1.2"));
+    instance.setOtherAttribute("00280010", createObjectAttribute("US", 512));
+    instance.setOtherAttribute("00280011", createObjectAttribute("US", 512));
+    instance.setOtherAttribute("00280100", createObjectAttribute("US", 16));
+    return instance;
+  }
+
+  private static DicomAttribute<String> createAttribute(String vr, String value) {
+    DicomAttribute<String> attribute = new DicomAttribute<>();
+    attribute.setVr(vr);
+    attribute.setValue(new String[]{value});
+    return attribute;
+  }
+
+  private static DicomAttribute<Object> createObjectAttribute(String vr, Object value) {
+    DicomAttribute<Object> attribute = new DicomAttribute<>();
+    attribute.setVr(vr);
+    attribute.setValue(new Object[]{value});
+    return attribute;
+  }
+
+  private static long getUsedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
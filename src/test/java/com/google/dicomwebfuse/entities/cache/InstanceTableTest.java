@@ -0,0 +1,171 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.entities.DicomAttribute;
+import com.google.dicomwebfuse.entities.Instance;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+class InstanceTableTest {
+
+  private static final String SERIES_INSTANCE_UID = "1.2.3.4";
+
+  @Test
+  void testPackShouldPackUidIntoHalfOfLength() {
+    // Given
+    String uid = "1.2.840.10008.5.1.4.1.1.2";
+    // When
+    byte[] packed = PackedUid.pack(uid);
+    // Then
+    assertEquals((uid.length() + 1) / 2, packed.length);
+    assertEquals(uid, PackedUid.unpack(packed));
+    assertTrue(PackedUid.equals(packed, uid));
+    assertFalse(PackedUid.equals(packed, uid + "1"));
+    assertEquals(uid.hashCode(), PackedUid.hashCode(packed));
+  }
+
+  @Test
+  void testPackShouldKeepValueWithOtherCharacters() {
+    // Given
+    String value = "Doe^John";
+    // When
+    byte[] packed = PackedUid.pack(value);
+    // Then
+    assertEquals(value, PackedUid.unpack(packed));
+    assertTrue(PackedUid.equals(packed, value));
+    assertEquals(value.hashCode(), PackedUid.hashCode(packed));
+  }
+
+  @Test
+  void testPutShouldKeepInstanceAttributes() {
+    // Given
+    InstanceTable instanceTable = new InstanceTable();
+    Instance instance = createInstance("1.2.3.4.5", 7, 3);
+    instance.setInstanceCreationDate(createAttribute("DA", "20190102"));
+    instance.setOtherAttribute("00080016",
+        createObjectAttribute("UI", "1.2.840.10008.5.1.4.1.1.2"));
+    instance.setOtherAttribute("00100010", createObjectAttribute("PN", "Doe^John"));
+    Map<String, String> expectedAttributes = new TreeMap<>();
+    instance.addAttributes(expectedAttributes);
+    expectedAttributes.remove("0020000D");
+    expectedAttributes.remove("0020000E");
+    // When
+    instanceTable.put(instance);
+    Map<String, String> attributes = new TreeMap<>();
+    instanceTable.addAttributes("1.2.3.4.5", attributes);
+    // Then
+    assertEquals(expectedAttributes, attributes);
+    assertEquals(3, instanceTable.getNumberOfFrames("1.2.3.4.5"));
+    assertEquals(1546387200L, instanceTable.getModificationTime("1.2.3.4.5").getEpochSecond());
+    assertNull(instanceTable.findInstanceContent("1.2.3.4.5"));
+  }
+
+  @Test
+  void testRemoveShouldKeepOtherInstances() {
+    // Given
+    InstanceTable instanceTable = new InstanceTable();
+    for (int i = 1; i <= 100; i++) {
+      instanceTable.put(createInstance(SERIES_INSTANCE_UID + "." + i, 101 - i, 0));
+    }
+    instanceTable.setInstanceSize(SERIES_INSTANCE_UID + ".100", 1024);
+    // When
+    for (int i = 1; i <= 99; i += 2) {
+      assertTrue(instanceTable.remove(SERIES_INSTANCE_UID + "." + i));
+    }
+    // Then
+    assertEquals(50, instanceTable.size());
+    for (int i = 1; i <= 100; i++) {
+      assertEquals(i % 2 == 0, instanceTable.contains(SERIES_INSTANCE_UID + "." + i));
+    }
+    assertEquals(1024, instanceTable.getInstanceSize(SERIES_INSTANCE_UID + ".100"));
+    assertEquals(SERIES_INSTANCE_UID + ".100", instanceTable.getOrderedInstances().get(0));
+    assertFalse(instanceTable.remove(SERIES_INSTANCE_UID + ".1"));
+  }
+
+  @Test
+  void testRetainAllShouldRemoveMissingInstances() {
+    // Given
+    InstanceTable instanceTable = new InstanceTable();
+    instanceTable.put(createInstance("1.1", 2, 0));
+    instanceTable.put(createInstance("1.2", 1, 0));
+    instanceTable.put(createInstance("1.3", 3, 5));
+    instanceTable.getInstanceContent("1.1");
+    // When
+    boolean removed = instanceTable.retainAll(new HashSet<>(Arrays.asList("1.2", "1.3")));
+    // Then
+    assertTrue(removed);
+    assertArrayEquals(new String[]{"1.2", "1.3"},
+        instanceTable.getOrderedInstances().toArray(new String[0]));
+    assertEquals(Collections.singletonList("1.3"),
+        instanceTable.getMultiFrameInstances());
+    assertNull(instanceTable.findInstanceContent("1.1"));
+    assertNull(instanceTable.getInstanceContent("1.1"));
+  }
+
+  @Test
+  void testGetRepresentativeInstanceShouldFollowChangedInstances() {
+    // Given
+    InstanceTable instanceTable = new InstanceTable();
+    instanceTable.put(createInstance("1.1", 1, 0));
+    instanceTable.put(createInstance("1.2", 2, 0));
+    instanceTable.put(createInstance("1.3", 3, 0));
+    String representativeInstance = instanceTable.getRepresentativeInstance();
+    // When
+    instanceTable.put(createInstance("1.4", 0, 0));
+    instanceTable.put(createInstance("1.5", 0, 0));
+    // Then
+    assertEquals("1.2", representativeInstance);
+    assertEquals("1.1", instanceTable.getRepresentativeInstance());
+    instanceTable.remove("1.1");
+    assertEquals("1.2", instanceTable.getRepresentativeInstance());
+  }
+
+  static Instance createInstance(String sopInstanceUID, int instanceNumber, int numberOfFrames) {
+    Instance instance = new Instance();
+    instance.setStudyInstanceUID(createAttribute("UI", "1.2.3"));
+    instance.setSeriesInstanceUID(createAttribute("UI", SERIES_INSTANCE_UID));
+    instance.setSopInstanceUID(createAttribute("UI", sopInstanceUID));
+    instance.setInstanceNumber(createObjectAttribute("IS", instanceNumber));
+    if (numberOfFrames > 0) {
+      instance.setNumberOfFrames(createObjectAttribute("IS", numberOfFrames));
+    }
+    return instance;
+  }
+
+  static DicomAttribute<String> createAttribute(String vr, String value) {
+    DicomAttribute<String> attribute = new DicomAttribute<>();
+    attribute.setVr(vr);
+    attribute.setValue(new String[]{value});
+    return attribute;
+  }
+
+  static DicomAttribute<Object> createObjectAttribute(String vr, Object value) {
+    DicomAttribute<Object> attribute = new DicomAttribute<>();
+    attribute.setVr(vr);
+    attribute.setValue(new Object[]{value});
+    return attribute;
+  }
+}
@@ -0,0 +1,186 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.entities.cache;
+
+import static com.google.dicomwebfuse.entities.cache.InstanceTableTest.createAttribute;
+import static com.google.dicomwebfuse.entities.cache.InstanceTableTest.createInstance;
+import static com.google.dicomwebfuse.entities.cache.InstanceTableTest.createObjectAttribute;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MetadataIndexTest {
+
+  private static final String DATASET_NAME = "v1/project/location/dataset";
+  private static final String DICOM_STORE_ID = "store";
+  private static final String STUDY_INSTANCE_UID = "1.2.3";
+  private static final String SERIES_INSTANCE_UID = "1.2.3.4";
+
+  @Test
+  void testLoadShouldRestoreSavedMetadata(@TempDir Path tempDir) throws Exception {
+    // Given
+    Path indexPath = tempDir.resolve("index");
+    Cache cache = createCache();
+    Instant seriesCacheTime = Instant.ofEpochMilli(1_500_000_000_000L);
+    cache.setSeriesCacheTime(createPath(DicomPathLevel.SERIES), seriesCacheTime);
+    DicomPath instancePath = createPath(DicomPathLevel.INSTANCE);
+    cache.setInstanceSize(instancePath, 1024);
+    SortedMap<String, String> expectedAttributes = cache.getDicomAttributes(instancePath);
+    MetadataIndex.save(cache, indexPath, DATASET_NAME);
+    Cache restoredCache = new Cache();
+    // When
+    boolean loaded = MetadataIndex.load(restoredCache, indexPath, DATASET_NAME);
+    // Then
+    assertTrue(loaded);
+    assertEquals(expectedAttributes, restoredCache.getDicomAttributes(instancePath));
+    assertEquals(1024, restoredCache.getInstanceSize(instancePath));
+    assertEquals(3, restoredCache.getNumberOfFrames(instancePath));
+    assertEquals(Arrays.asList("1.2.3.4.6", "1.2.3.4.5"),
+        restoredCache.getOrderedInstances(instancePath));
+    assertEquals(cache.getModificationTime(createPath(DicomPathLevel.STUDY)),
+        restoredCache.getModificationTime(createPath(DicomPathLevel.STUDY)));
+    assertEquals(cache.getCachedStudyList(createPath(DicomPathLevel.DICOM_STORE)),
+        restoredCache.getCachedStudyList(createPath(DicomPathLevel.DICOM_STORE)));
+    assertEquals(cache.getCachedSeriesList(createPath(DicomPathLevel.STUDY)),
+        restoredCache.getCachedSeriesList(createPath(DicomPathLevel.STUDY)));
+    assertTrue(restoredCache.isSeriesOutdated(createPath(DicomPathLevel.SERIES)));
+    assertTrue(restoredCache.clearRestored(createPath(DicomPathLevel.SERIES)));
+    assertFalse(restoredCache.clearRestored(createPath(DicomPathLevel.SERIES)));
+  }
+
+  @Test
+  void testLoadShouldSkipIndexOfOtherDataset(@TempDir Path tempDir) throws Exception {
+    // Given
+    Path indexPath = tempDir.resolve("index");
+    MetadataIndex.save(createCache(), indexPath, DATASET_NAME);
+    Cache restoredCache = new Cache();
+    // When
+    boolean loaded = MetadataIndex.load(restoredCache, indexPath, "v1/project/location/other");
+    // Then
+    assertFalse(loaded);
+    assertTrue(restoredCache.getCachedDicomStores().isEmpty());
+  }
+
+  @Test
+  void testLoadShouldRejectCountLargerThanFile(@TempDir Path tempDir) throws Exception {
+    // Given
+    Path indexPath = tempDir.resolve("index");
+    MetadataIndex.save(new Cache(), indexPath, DATASET_NAME);
+    // the count of the DICOM Stores is at the end of the index of an empty cache
+    byte[] index = Files.readAllBytes(indexPath);
+    ByteBuffer.wrap(index).putInt(index.length - Integer.BYTES, Integer.MAX_VALUE);
+    Files.write(indexPath, index);
+    Cache restoredCache = new Cache();
+    // Then
+    IOException exception = assertThrows(IOException.class,
+        () -> MetadataIndex.load(restoredCache, indexPath, DATASET_NAME));
+    assertTrue(exception.getCause() instanceof IllegalStateException);
+    assertTrue(restoredCache.getCachedDicomStores().isEmpty());
+  }
+
+  @Test
+  void testLoadShouldNotRestoreEvictedStudy(@TempDir Path tempDir) throws Exception {
+    // Given
+    Path indexPath = tempDir.resolve("index");
+    Cache cache = createCache();
+    cache.setMaxSize(1);
+    cache.evictColdObjects(System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+    MetadataIndex.save(cache, indexPath, DATASET_NAME);
+    Cache restoredCache = new Cache();
+    // When
+    boolean loaded = MetadataIndex.load(restoredCache, indexPath, DATASET_NAME);
+    // Then
+    assertTrue(loaded);
+    DicomPath studyPath = createPath(DicomPathLevel.STUDY);
+    assertTrue(restoredCache.findCachedStudy(studyPath).isEvicted());
+    assertTrue(restoredCache.getCachedSeries(studyPath).isEmpty());
+    // the first listing of the Study waits for the server
+    assertFalse(restoredCache.clearRestored(studyPath));
+    assertTrue(restoredCache.clearRestored(createPath(DicomPathLevel.DICOM_STORE)));
+  }
+
+  @Test
+  void testLoadShouldNotRestoreEvictedSeries(@TempDir Path tempDir) throws Exception {
+    // Given
+    Path indexPath = tempDir.resolve("index");
+    Cache cache = createCache();
+    CachedSeries cachedSeries = cache.findCachedSeries(createPath(DicomPathLevel.SERIES));
+    // the Series is evicted as by Cache.evictColdObjects
+    cachedSeries.getCachedInstances().evict();
+    cachedSeries.setEvicted(true);
+    MetadataIndex.save(cache, indexPath, DATASET_NAME);
+    Cache restoredCache = new Cache();
+    // When
+    boolean loaded = MetadataIndex.load(restoredCache, indexPath, DATASET_NAME);
+    // Then
+    assertTrue(loaded);
+    DicomPath seriesPath = createPath(DicomPathLevel.SERIES);
+    assertTrue(restoredCache.findCachedSeries(seriesPath).isEvicted());
+    assertEquals(0, restoredCache.getCachedInstances(seriesPath).size());
+    assertFalse(restoredCache.clearRestored(seriesPath));
+    assertFalse(restoredCache.findCachedStudy(seriesPath).isEvicted());
+    assertTrue(restoredCache.clearRestored(createPath(DicomPathLevel.STUDY)));
+  }
+
+  private static Cache createCache() {
+    Cache cache = new Cache();
+    DicomStore dicomStore = new DicomStore();
+    dicomStore.setDicomStoreId(DICOM_STORE_ID);
+    Study study = new Study();
+    study.setStudyInstanceUID(createAttribute("UI", STUDY_INSTANCE_UID));
+    study.setStudyDate(createAttribute("DA", "20190102"));
+    study.setStudyTime(createAttribute("TM", "101112"));
+    study.setOtherAttribute("00100010", createObjectAttribute("PN", "Doe^John"));
+    Series series = new Series();
+    series.setStudyInstanceUID(createAttribute("UI", STUDY_INSTANCE_UID));
+    series.setSeriesInstanceUID(createAttribute("UI", SERIES_INSTANCE_UID));
+    series.setOtherAttribute("00080060", createObjectAttribute("CS", "CT"));
+    CachedSeries cachedSeries = new CachedSeries(series);
+    cachedSeries.getCachedInstances().put(createInstance("1.2.3.4.5", 2, 3));
+    cachedSeries.getCachedInstances().put(createInstance("1.2.3.4.6", 1, 0));
+    CachedStudy cachedStudy = new CachedStudy(study);
+    cachedStudy.getCachedSeries().put(SERIES_INSTANCE_UID, cachedSeries);
+    CachedDicomStore cachedDicomStore = new CachedDicomStore(dicomStore);
+    cachedDicomStore.getCachedStudies().put(STUDY_INSTANCE_UID, cachedStudy);
+    cache.getCachedDicomStores().put(DICOM_STORE_ID, cachedDicomStore);
+    return cache;
+  }
+
+  private static DicomPath createPath(DicomPathLevel dicomPathLevel) {
+    return new DicomPath.Builder(dicomPathLevel)
+        .dicomStoreId(DICOM_STORE_ID)
+        .studyInstanceUID(STUDY_INSTANCE_UID)
+        .seriesInstanceUID(SERIES_INSTANCE_UID)
+        .sopInstanceUID("1.2.3.4.5")
+        .build();
+  }
+}
@@ -23,6 +23,8 @@ import static com.google.dicomwebfuse.dao.Constants.MAX_SERIES_IN_STUDY;
 import static com.google.dicomwebfuse.dao.Constants.MAX_STUDIES_IN_DICOM_STORE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -35,19 +37,47 @@ import com.google.dicomwebfuse.dao.FuseDaoImpl;
 import com.google.dicomwebfuse.dao.http.HttpClientFactory;
 import com.google.dicomwebfuse.entities.CloudConf;
 import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
 import com.google.dicomwebfuse.entities.cache.Cache;
+import com.google.dicomwebfuse.entities.cache.CacheStatus;
+import com.google.dicomwebfuse.entities.cache.CachedDicomStore;
+import com.google.dicomwebfuse.entities.cache.CachedSeries;
+import com.google.dicomwebfuse.entities.cache.CachedStudy;
+import com.google.dicomwebfuse.entities.cache.DirectoryListing;
 import com.google.dicomwebfuse.exception.DicomFuseException;
 import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
 import com.google.dicomwebfuse.parser.Arguments;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import ru.serce.jnrfuse.FuseFillDir;
+import ru.serce.jnrfuse.struct.FuseContext;
 
 class DicomFuseHelperTest {
 
+  private static final String STUDY_FIELDS = "includefield=00080020&includefield=00080030&";
+  private static final String SERIES_FIELDS =
+      "includefield=0020000D&includefield=00080021&includefield=00080031&";
+  private static final String INSTANCE_FIELDS = "includefield=0020000D&includefield=0020000E&"
+      + "includefield=00080012&includefield=00080013&includefield=00200013&"
+      + "includefield=00280008&includefield=00083002&";
+
   @Test
   void testShouldSuccessfullyOpenUnlistedStudy() throws IOException, DicomFuseException {
     CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
@@ -59,15 +89,15 @@ class DicomFuseHelperTest {
     String studiesPath =
         "/test/projects/test/locations/test/datasets/test/dicomStores/test1/dicomWeb/studies/";
     TestUtils.prepareHttpClient(closeableHttpClient, 5000, 0, STUDY,
-        HttpStatusCodes.STATUS_CODE_OK, studiesPath, "limit=5000&offset=0");
+        HttpStatusCodes.STATUS_CODE_OK, studiesPath, STUDY_FIELDS + "limit=5000&offset=0");
     TestUtils.prepareHttpClient(closeableHttpClient, 5000, 5000, STUDY,
-        HttpStatusCodes.STATUS_CODE_OK, studiesPath, "limit=5000&offset=5000");
+        HttpStatusCodes.STATUS_CODE_OK, studiesPath, STUDY_FIELDS + "limit=5000&offset=5000");
     TestUtils.prepareHttpClient(closeableHttpClient, 5000, 10000, STUDY,
-        HttpStatusCodes.STATUS_CODE_OK, studiesPath, "limit=5000&offset=10000");
+        HttpStatusCodes.STATUS_CODE_OK, studiesPath, STUDY_FIELDS + "limit=5000&offset=10000");
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, STUDY,
-        HttpStatusCodes.STATUS_CODE_OK, studiesPath, "limit=5000&offset=15000");
+        HttpStatusCodes.STATUS_CODE_OK, studiesPath, STUDY_FIELDS + "limit=5000&offset=15000");
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, STUDY,
-        HttpStatusCodes.STATUS_CODE_OK, studiesPath, "StudyInstanceUID=15001");
+        HttpStatusCodes.STATUS_CODE_OK, studiesPath, STUDY_FIELDS + "StudyInstanceUID=15001");
 
     Cache cache = new Cache();
     DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(httpClientFactory, cache);
@@ -103,24 +133,24 @@ class DicomFuseHelperTest {
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 0, STUDY,
         HttpStatusCodes.STATUS_CODE_OK,
         "/test/projects/test/locations/test/datasets/test/dicomStores/test1/dicomWeb/studies/",
-        "limit=5000&offset=0");
+        STUDY_FIELDS + "limit=5000&offset=0");
     String seriesPath =
         "/test/projects/test/locations/test/datasets/test/dicomStores/test1/dicomWeb/studies/1/series/";
     TestUtils.prepareHttpClient(closeableHttpClient, 5000, 0, SERIES,
         HttpStatusCodes.STATUS_CODE_OK, seriesPath,
-        "includefield=0020000D&limit=5000&offset=0");
+        SERIES_FIELDS + "limit=5000&offset=0");
     TestUtils.prepareHttpClient(closeableHttpClient, 5000, 5000, SERIES,
         HttpStatusCodes.STATUS_CODE_OK, seriesPath,
-        "includefield=0020000D&limit=5000&offset=5000");
+        SERIES_FIELDS + "limit=5000&offset=5000");
     TestUtils.prepareHttpClient(closeableHttpClient, 5000, 10000, SERIES,
         HttpStatusCodes.STATUS_CODE_OK, seriesPath,
-        "includefield=0020000D&limit=5000&offset=10000");
+        SERIES_FIELDS + "limit=5000&offset=10000");
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, SERIES,
         HttpStatusCodes.STATUS_CODE_OK, seriesPath,
-        "includefield=0020000D&limit=5000&offset=15000");
+        SERIES_FIELDS + "limit=5000&offset=15000");
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, SERIES,
         HttpStatusCodes.STATUS_CODE_OK, seriesPath,
-        "includefield=0020000D&SeriesInstanceUID=15001");
+        SERIES_FIELDS + "SeriesInstanceUID=15001");
 
     Cache cache = new Cache();
     DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(httpClientFactory, cache);
@@ -159,22 +189,22 @@ class DicomFuseHelperTest {
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 0, STUDY,
         HttpStatusCodes.STATUS_CODE_OK,
         "/test/projects/test/locations/test/datasets/test/dicomStores/test1/dicomWeb/studies/",
-        "limit=5000&offset=0");
+        STUDY_FIELDS + "limit=5000&offset=0");
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 0, SERIES,
         HttpStatusCodes.STATUS_CODE_OK,
         "/test/projects/test/locations/test/datasets/test/dicomStores/test1/dicomWeb/studies/1/series/",
-        "includefield=0020000D&limit=5000&offset=0");
+        SERIES_FIELDS + "limit=5000&offset=0");
     String instancesPath =
         "/test/projects/test/locations/test/datasets/test/dicomStores/test1/dicomWeb/studies/1/series/1/instances/";
     TestUtils.prepareHttpClient(closeableHttpClient, 15000, 0, INSTANCE,
         HttpStatusCodes.STATUS_CODE_OK, instancesPath,
-        "includefield=0020000D&includefield=0020000E&limit=15000&offset=0");
+        INSTANCE_FIELDS + "limit=15000&offset=0");
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, INSTANCE,
         HttpStatusCodes.STATUS_CODE_OK, instancesPath,
-        "includefield=0020000D&includefield=0020000E&limit=15000&offset=15000");
+        INSTANCE_FIELDS + "limit=15000&offset=15000");
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, INSTANCE,
         HttpStatusCodes.STATUS_CODE_OK, instancesPath,
-        "includefield=0020000D&includefield=0020000E&SOPInstanceUID=15001");
+        INSTANCE_FIELDS + "SOPInstanceUID=15001");
 
     Cache cache = new Cache();
     DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(httpClientFactory, cache);
@@ -317,6 +347,231 @@ class DicomFuseHelperTest {
             .renameDicomStoreInDataset(oldDicomStoreDicomPath, newDicomStoreDicomPath));
   }
 
+  @Test
+  void testDeleteFolderShouldDeleteSeriesBySingleRequest()
+      throws IOException, DicomFuseException {
+    // Given
+    DicomPathCacher dicomPathCacher = new DicomPathCacher();
+    DicomPathParser dicomPathParser = new DicomPathParser(dicomPathCacher);
+    CloseableHttpResponse closeableHttpResponse = TestUtils
+        .prepareHttpResponse(HttpStatusCodes.STATUS_CODE_OK);
+    CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
+    Mockito.when(closeableHttpClient.execute(any())).thenReturn(closeableHttpResponse);
+    HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
+    Cache cache = prepareCachedStudy("222", "333");
+    DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(httpClientFactory, cache,
+        dicomPathCacher);
+    DicomPath seriesPath = dicomPathParser.parsePath("/store/111/222");
+    // When
+    dicomFuseHelper.deleteFolder(seriesPath);
+    // Then
+    ArgumentCaptor<HttpUriRequest> request = ArgumentCaptor.forClass(HttpUriRequest.class);
+    Mockito.verify(closeableHttpClient, Mockito.times(1)).execute(request.capture());
+    assertEquals("DELETE", request.getValue().getMethod());
+    assertEquals("/test/projects/test/locations/test/datasets/test/dicomStores/store/dicomWeb"
+        + "/studies/111/series/222", request.getValue().getURI().getPath());
+    assertTrue(cache.isSeriesNotExist(seriesPath));
+    assertFalse(cache.isSeriesNotExist(dicomPathParser.parsePath("/store/111/333")));
+  }
+
+  @Test
+  void testCreateTemporaryInstanceShouldDropOnlyStatsOfFileAndFolder()
+      throws DicomFuseException {
+    // Given
+    DicomPathCacher dicomPathCacher = new DicomPathCacher();
+    DicomPathParser dicomPathParser = new DicomPathParser(dicomPathCacher);
+    Cache cache = new Cache();
+    DicomStore dicomStore = new DicomStore();
+    dicomStore.setDicomStoreId("store");
+    cache.getCachedDicomStores().put("store", new CachedDicomStore(dicomStore));
+    DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(
+        Mockito.mock(HttpClientFactory.class), cache, dicomPathCacher);
+    String newFilePath = "/store/new.dcm";
+    String otherFilePath = "/store/other.dcm";
+    dicomFuseHelper.putMissingStat(newFilePath);
+    dicomFuseHelper.putMissingStat(otherFilePath);
+    dicomFuseHelper.putMissingStat("/store");
+    assertFalse(dicomFuseHelper.getStatTemplate(newFilePath).exists());
+    // When
+    dicomFuseHelper.createTemporaryInstance(
+        dicomPathParser.parsePath(newFilePath, Command.CREATE));
+    // Then
+    assertNull(dicomFuseHelper.getStatTemplate(newFilePath));
+    assertNull(dicomFuseHelper.getStatTemplate("/store"));
+    assertNotNull(dicomFuseHelper.getStatTemplate(otherFilePath));
+  }
+
+  @Test
+  void testIsExistingObjectShouldReturnFalseWithoutRequestIfParentIsNotCached()
+      throws IOException, DicomFuseException {
+    // Given
+    DicomPathCacher dicomPathCacher = new DicomPathCacher();
+    DicomPathParser dicomPathParser = new DicomPathParser(dicomPathCacher);
+    Cache cache = new Cache();
+    DicomStore dicomStore = new DicomStore();
+    dicomStore.setDicomStoreId("store");
+    cache.getCachedDicomStores().put("store", new CachedDicomStore(dicomStore));
+    CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
+    DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(
+        TestUtils.prepareHttpClientFactory(closeableHttpClient), cache, dicomPathCacher);
+    DicomPath instancePath = dicomPathParser.parsePath("/store/111/222/333.dcm");
+    // When
+    boolean existingObject = dicomFuseHelper.isExistingObject(instancePath);
+    // Then
+    assertFalse(existingObject);
+    assertEquals(CacheStatus.NOT_CACHED, cache.getCacheStatus(instancePath));
+    Mockito.verify(closeableHttpClient, Mockito.never()).execute(any(HttpUriRequest.class));
+  }
+
+  @Test
+  void testIsExistingObjectShouldReturnFalseIfInstanceIsNotFoundInCachedSeries()
+      throws IOException, DicomFuseException {
+    // Given
+    DicomPathCacher dicomPathCacher = new DicomPathCacher();
+    DicomPathParser dicomPathParser = new DicomPathParser(dicomPathCacher);
+    Cache cache = prepareCachedStudy("222");
+    // the search of the Instance returns an empty list
+    CloseableHttpClient closeableHttpClient = prepareJsonHttpClient("[]");
+    DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(
+        TestUtils.prepareHttpClientFactory(closeableHttpClient), cache, dicomPathCacher);
+    DicomPath instancePath = dicomPathParser.parsePath("/store/111/222/333.dcm");
+    assertEquals(CacheStatus.PARENT_CACHED, cache.getCacheStatus(instancePath));
+    // When
+    boolean existingObject = dicomFuseHelper.isExistingObject(instancePath);
+    // Then
+    assertFalse(existingObject);
+    assertEquals(CacheStatus.PARENT_CACHED, cache.getCacheStatus(instancePath));
+    Mockito.verify(closeableHttpClient, Mockito.times(1)).execute(any(HttpUriRequest.class));
+  }
+
+  @Test
+  void testIsExistingObjectShouldRequestAllInstancesOfEvictedSeries()
+      throws IOException, DicomFuseException {
+    // Given
+    DicomPathCacher dicomPathCacher = new DicomPathCacher();
+    DicomPathParser dicomPathParser = new DicomPathParser(dicomPathCacher);
+    Cache cache = prepareCachedStudy("222");
+    CachedSeries cachedSeries = cache.findCachedSeries(dicomPathParser.parsePath("/store/111/222"));
+    cachedSeries.setEvicted(true);
+    // the search of the Instances returns an empty list
+    CloseableHttpClient closeableHttpClient = prepareJsonHttpClient("[]");
+    DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(
+        TestUtils.prepareHttpClientFactory(closeableHttpClient), cache, dicomPathCacher);
+    DicomPath instancePath = dicomPathParser.parsePath("/store/111/222/333.dcm");
+    // When
+    boolean existingObject = dicomFuseHelper.isExistingObject(instancePath);
+    // Then
+    assertFalse(existingObject);
+    assertFalse(cachedSeries.isEvicted());
+    ArgumentCaptor<HttpUriRequest> requestCaptor = ArgumentCaptor.forClass(HttpUriRequest.class);
+    Mockito.verify(closeableHttpClient, Mockito.times(1)).execute(requestCaptor.capture());
+    String query = requestCaptor.getValue().getURI().getQuery();
+    assertTrue(query.contains("limit="), query);
+    assertFalse(query.contains("SOPInstanceUID"), query);
+  }
+
+  @Test
+  void testGetXattrShouldReturnTransferSyntaxOfInstance()
+      throws IOException, DicomFuseException {
+    // Given
+    DicomPathCacher dicomPathCacher = new DicomPathCacher();
+    DicomPathParser dicomPathParser = new DicomPathParser(dicomPathCacher);
+    Cache cache = prepareCachedStudy("222");
+    // the search of the Instance returns the included and the default Instance attributes
+    CloseableHttpClient closeableHttpClient = prepareJsonHttpClient("[{"
+        + "\"00080016\": {\"vr\": \"UI\", \"Value\": [\"1.2.840.10008.5.1.4.1.1.2\"]}, "
+        + "\"00080018\": {\"vr\": \"UI\", \"Value\": [\"333\"]}, "
+        + "\"00081190\": {\"vr\": \"UR\", \"Value\": [\"https://healthcare.googleapis.com/"
+        + "v1/projects/test/locations/test/datasets/test/dicomStores/store/dicomWeb/studies/111/"
+        + "series/222/instances/333\"]}, "
+        + "\"00083002\": {\"vr\": \"UI\", \"Value\": [\"1.2.840.10008.1.2.4.50\"]}, "
+        + "\"0020000D\": {\"vr\": \"UI\", \"Value\": [\"111\"]}, "
+        + "\"0020000E\": {\"vr\": \"UI\", \"Value\": [\"222\"]}, "
+        + "\"00200013\": {\"vr\": \"IS\", \"Value\": [1]}}]");
+    DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(
+        TestUtils.prepareHttpClientFactory(closeableHttpClient), cache, dicomPathCacher);
+    DicomPath instancePath = dicomPathParser.parsePath("/store/111/222/333.dcm");
+    // When
+    byte[] transferSyntax = dicomFuseHelper.getXattr(instancePath,
+        DicomXattrs.toTag("user.dicom.TransferSyntaxUID"));
+    // Then
+    assertEquals("1.2.840.10008.1.2.4.50", new String(transferSyntax, StandardCharsets.UTF_8));
+    ArgumentCaptor<HttpUriRequest> requestCaptor = ArgumentCaptor.forClass(HttpUriRequest.class);
+    Mockito.verify(closeableHttpClient, Mockito.times(1)).execute(requestCaptor.capture());
+    String query = requestCaptor.getValue().getURI().getQuery();
+    assertTrue(query.contains("includefield=00083002"), query);
+  }
+
+  @Test
+  void testFillFolderShouldContinueFromOffsetIfBufferIsFull() throws DicomFuseException {
+    // Given
+    DicomPathCacher dicomPathCacher = new DicomPathCacher();
+    DicomPathParser dicomPathParser = new DicomPathParser(dicomPathCacher);
+    Cache cache = new Cache();
+    for (String dicomStoreId : Arrays.asList("store3", "store1", "store2")) {
+      DicomStore dicomStore = new DicomStore();
+      dicomStore.setDicomStoreId(dicomStoreId);
+      cache.getCachedDicomStores().put(dicomStoreId, new CachedDicomStore(dicomStore));
+    }
+    DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(
+        Mockito.mock(HttpClientFactory.class), cache, dicomPathCacher);
+    DicomPath datasetPath = dicomPathParser.parsePath("/");
+    DirectoryListing directoryListing = dicomFuseHelper.getDirectoryListing(datasetPath);
+    DicomFuse dicomFuse = Mockito.mock(DicomFuse.class);
+    FuseContext fuseContext = FuseContext.of(
+        Pointer.wrap(Runtime.getSystemRuntime(), ByteBuffer.allocateDirect(64)));
+    Mockito.when(dicomFuse.getContext()).thenReturn(fuseContext);
+    List<String> names = new ArrayList<>();
+    long[] lastOffset = new long[1];
+    int[] acceptedEntries = new int[1];
+    // the filler accepts 3 entries per call
+    FuseFillDir filler = (buf, name, stbuf, off) -> {
+      if (acceptedEntries[0] == 3) {
+        return 1;
+      }
+      byte[] bytes = new byte[name.remaining() - 1]; // without the null terminator
+      name.duplicate().get(bytes);
+      names.add(new String(bytes, StandardCharsets.UTF_8));
+      lastOffset[0] = off;
+      acceptedEntries[0]++;
+      return 0;
+    };
+    // When
+    dicomFuseHelper.fillFolder(datasetPath, directoryListing, dicomFuse, null, filler, 0);
+    acceptedEntries[0] = 0;
+    dicomFuseHelper.fillFolder(datasetPath, directoryListing, dicomFuse, null, filler,
+        lastOffset[0]);
+    // Then
+    assertEquals(Arrays.asList(".", "..", "store1", "store2", "store3"), names);
+  }
+
+  /**
+   * Returns a cache with the DICOM Store "store" and its Study "111" with the given Series.
+   */
+  private static Cache prepareCachedStudy(String... seriesInstanceUIDs) {
+    Cache cache = new Cache();
+    DicomStore dicomStore = new DicomStore();
+    dicomStore.setDicomStoreId("store");
+    CachedDicomStore cachedDicomStore = new CachedDicomStore(dicomStore);
+    CachedStudy cachedStudy = new CachedStudy(new Study());
+    for (String seriesInstanceUID : seriesInstanceUIDs) {
+      cachedStudy.getCachedSeries().put(seriesInstanceUID, new CachedSeries(new Series()));
+    }
+    cachedDicomStore.getCachedStudies().put("111", cachedStudy);
+    cache.getCachedDicomStores().put("store", cachedDicomStore);
+    return cache;
+  }
+
+  private static CloseableHttpClient prepareJsonHttpClient(String json) throws IOException {
+    CloseableHttpResponse closeableHttpResponse = TestUtils
+        .prepareHttpResponse(HttpStatusCodes.STATUS_CODE_OK);
+    Mockito.when(closeableHttpResponse.getEntity())
+        .thenReturn(new StringEntity(json, ContentType.APPLICATION_JSON));
+    CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
+    Mockito.when(closeableHttpClient.execute(any())).thenReturn(closeableHttpResponse);
+    return closeableHttpClient;
+  }
+
   private DicomFuseHelper prepareDicomFuseHelper(DicomPathCacher dicomPathCacher) {
     CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
     HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
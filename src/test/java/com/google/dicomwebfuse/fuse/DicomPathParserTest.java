@@ -18,6 +18,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import com.google.dicomwebfuse.entities.DicomPath;
 import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.entities.VirtualFileType;
 import com.google.dicomwebfuse.exception.DicomFuseException;
 import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
 import org.junit.jupiter.api.BeforeEach;
@@ -203,4 +204,109 @@ class DicomPathParserTest {
     //checking that new file was removed in DicomPathCacher
     assertNull(dicomPathCacher.getDicomPath(newDcmFileInSeries));
   }
-}
\ No newline at end of file
+
+  @Test
+  void testParsePathShouldParseWhenFramePathProvided() throws DicomFuseException {
+    // given
+    String framePath = "/" + dicomStoreId + "/" + studyInstanceUID + "/" + seriesInstanceUID + "/"
+        + sopInstanceUID + DicomPath.FRAMES_FOLDER_SUFFIX + "/37";
+    // when
+    DicomPath actualDicomPath = dicomPathParser.parsePath(framePath);
+    // then
+    DicomPath expectedDicomPath = new DicomPath.Builder(DicomPathLevel.FRAME)
+        .dicomStoreId(dicomStoreId)
+        .studyInstanceUID(studyInstanceUID)
+        .seriesInstanceUID(seriesInstanceUID)
+        .sopInstanceUID(sopInstanceUID)
+        .frameNumber(37)
+        .build();
+    assertEquals(actualDicomPath, expectedDicomPath);
+  }
+
+  @Test
+  void testParsePathShouldReturnExceptionIfFrameNumberIsInvalid() {
+    // given
+    String framesPath = "/" + dicomStoreId + "/" + studyInstanceUID + "/" + seriesInstanceUID
+        + "/" + sopInstanceUID + DicomPath.FRAMES_FOLDER_SUFFIX;
+    // then
+    assertThrows(DicomFuseException.class, () -> dicomPathParser.parsePath(framesPath + "/0"));
+    assertThrows(DicomFuseException.class, () -> dicomPathParser.parsePath(framesPath + "/x"));
+  }
+
+  @Test
+  void testParsePathShouldParseWhenPreviewPathsProvided() throws DicomFuseException {
+    // given
+    String seriesPath = "/" + dicomStoreId + "/" + studyInstanceUID + "/" + seriesInstanceUID;
+    String instancePreviewPath = seriesPath + "/" + sopInstanceUID + ".preview.jpg";
+    String seriesPreviewPath = seriesPath + "/series.preview.jpg";
+    // when
+    DicomPath instancePreview = dicomPathParser.parsePath(instancePreviewPath);
+    DicomPath seriesPreview = dicomPathParser.parsePath(seriesPreviewPath);
+    // then
+    assertEquals(DicomPathLevel.VIRTUAL_FILE, instancePreview.getDicomPathLevel());
+    assertEquals(VirtualFileType.INSTANCE_PREVIEW, instancePreview.getVirtualFileType());
+    assertEquals(sopInstanceUID, instancePreview.getSopInstanceUID());
+    assertEquals(VirtualFileType.SERIES_PREVIEW, seriesPreview.getVirtualFileType());
+    assertEquals("", seriesPreview.getSopInstanceUID());
+  }
+
+  @Test
+  void testParsePathShouldParseWhenArchivePathsProvided() throws DicomFuseException {
+    // given
+    String studyPath = "/" + dicomStoreId + "/" + studyInstanceUID;
+    String seriesArchivePath = studyPath + "/" + seriesInstanceUID + "/series.tar";
+    String studyArchivePath = studyPath + "/study.tar";
+    // when
+    DicomPath seriesArchive = dicomPathParser.parsePath(seriesArchivePath);
+    DicomPath studyArchive = dicomPathParser.parsePath(studyArchivePath);
+    // then
+    assertEquals(DicomPathLevel.VIRTUAL_FILE, seriesArchive.getDicomPathLevel());
+    assertEquals(VirtualFileType.SERIES_ARCHIVE, seriesArchive.getVirtualFileType());
+    assertEquals(seriesInstanceUID, seriesArchive.getSeriesInstanceUID());
+    assertEquals(DicomPathLevel.VIRTUAL_FILE, studyArchive.getDicomPathLevel());
+    assertEquals(VirtualFileType.STUDY_ARCHIVE, studyArchive.getVirtualFileType());
+    assertEquals(studyInstanceUID, studyArchive.getStudyInstanceUID());
+    assertEquals(studyArchivePath, "/" + studyArchive);
+  }
+
+  @Test
+  void testParsePathShouldParseWhenMetadataPathsProvided() throws DicomFuseException {
+    // given
+    String seriesPath = "/" + dicomStoreId + "/" + studyInstanceUID + "/" + seriesInstanceUID;
+    String instanceMetadataPath = seriesPath + "/" + sopInstanceUID + ".json";
+    String seriesMetadataPath = seriesPath + "/series.json";
+    // when
+    DicomPath instanceMetadata = dicomPathParser.parsePath(instanceMetadataPath);
+    DicomPath seriesMetadata = dicomPathParser.parsePath(seriesMetadataPath);
+    // then
+    assertEquals(VirtualFileType.INSTANCE_METADATA, instanceMetadata.getVirtualFileType());
+    assertEquals(sopInstanceUID, instanceMetadata.getSopInstanceUID());
+    assertEquals(VirtualFileType.SERIES_METADATA, seriesMetadata.getVirtualFileType());
+    assertEquals(seriesInstanceUID, seriesMetadata.getSeriesInstanceUID());
+  }
+
+  @Test
+  void testParsePathShouldReturnInternedPathWhenPathIsParsedAgain() throws DicomFuseException {
+    // given
+    String instancePath = "/" + dicomStoreId + "/" + studyInstanceUID + "/" + seriesInstanceUID
+        + "/" + sopInstanceUID + FuseConstants.DCM_EXTENSION;
+    DicomPath firstDicomPath = dicomPathParser.parsePath(instancePath);
+    // when
+    DicomPath secondDicomPath = dicomPathParser.parsePath(instancePath);
+    // then
+    assertSame(firstDicomPath, secondDicomPath);
+  }
+
+  @Test
+  void testParsePathShouldReturnTempFileWhenInternedPathIsCreated() throws DicomFuseException {
+    // given
+    String filePath = "/" + dicomStoreId + "/" + studyInstanceUID + "/" + seriesInstanceUID
+        + "/" + newDcmFile;
+    assertEquals(DicomPathLevel.INSTANCE, dicomPathParser.parsePath(filePath).getDicomPathLevel());
+    // when
+    dicomPathParser.parsePath(filePath, Command.CREATE);
+    DicomPath actualDicomPath = dicomPathParser.parsePath(filePath);
+    // then
+    assertEquals(DicomPathLevel.TEMP_FILE_IN_SERIES, actualDicomPath.getDicomPathLevel());
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class DicomXattrsTest {
+
+  @Test
+  void testShouldReturnTagOfAttributeName() {
+    assertEquals("00080060", DicomXattrs.toTag("user.dicom.0008,0060"));
+    assertEquals("0008103E", DicomXattrs.toTag("user.dicom.0008,103e"));
+    assertEquals("00200013", DicomXattrs.toTag("user.dicom.InstanceNumber"));
+    assertEquals("00083002", DicomXattrs.toTag("user.dicom.TransferSyntaxUID"));
+    assertNull(DicomXattrs.toTag("user.dicom.Unknown"));
+    assertNull(DicomXattrs.toTag("com.apple.FinderInfo"));
+  }
+
+  @Test
+  void testShouldReturnNullTerminatedNameList() {
+    // When
+    byte[] nameList = DicomXattrs.toNameList(Arrays.asList("00080060", "00200013"));
+    // Then
+    assertEquals("user.dicom.0008,0060\0user.dicom.0020,0013\0",
+        new String(nameList, StandardCharsets.UTF_8));
+  }
+}
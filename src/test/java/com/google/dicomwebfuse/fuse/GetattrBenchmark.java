@@ -0,0 +1,105 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.dao.FuseDao;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
+import com.google.dicomwebfuse.entities.cache.Cache;
+import com.google.dicomwebfuse.entities.cache.CachedDicomStore;
+import com.google.dicomwebfuse.entities.cache.CachedSeries;
+import com.google.dicomwebfuse.entities.cache.CachedStudy;
+import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
+import com.google.dicomwebfuse.parser.Arguments;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import ru.serce.jnrfuse.struct.FileStat;
+import ru.serce.jnrfuse.struct.FuseContext;
+
+/**
+ * Measures the allocations and the latency of {@link DicomFuse#getattr} calls of the paths with
+ * cached attributes. It's not run by default, use "mvn test -Dtest=GetattrBenchmark".
+ */
+class GetattrBenchmark {
+
+  private static final int CALLS = 1_000_000;
+  private static final String[] PATHS = {"/", "/store", "/store/111", "/store/111/222"};
+
+  @Test
+  void benchmarkCachedGetattr() {
+    // Given
+    Cache cache = new Cache();
+    DicomStore dicomStore = new DicomStore();
+    dicomStore.setDicomStoreId("store");
+    CachedDicomStore cachedDicomStore = new CachedDicomStore(dicomStore);
+    CachedStudy cachedStudy = new CachedStudy(new Study());
+    cachedStudy.getCachedSeries().put("222", new CachedSeries(new Series()));
+    cachedDicomStore.getCachedStudies().put("111", cachedStudy);
+    cache.getCachedDicomStores().put("store", cachedDicomStore);
+    Arguments arguments = new Arguments();
+    arguments.cloudConf = new CloudConf("test", "test", "test", "test");
+    Parameters parameters = new Parameters(Mockito.mock(FuseDao.class), arguments,
+        Platform.getNativePlatform().getOS());
+    FuseContext fuseContext = FuseContext.of(
+        Pointer.wrap(Runtime.getSystemRuntime(), ByteBuffer.allocateDirect(64)));
+    // the context is set by libfuse only in the calls from a mounted file system
+    DicomFuse dicomFuse = new DicomFuse(parameters, new DicomPathCacher(), cache) {
+      @Override
+      public FuseContext getContext() {
+        return fuseContext;
+      }
+    };
+    FileStat fileStat = new FileStat(Runtime.getSystemRuntime());
+    // the first calls resolve the paths
+    for (String path : PATHS) {
+      assertEquals(0, dicomFuse.getattr(path, fileStat), path);
+    }
+
+    // When
+    callGetattr(dicomFuse, fileStat); // warm up
+    com.sun.management.ThreadMXBean threadMXBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+    long start = System.nanoTime();
+    callGetattr(dicomFuse, fileStat);
+    long elapsedNanos = System.nanoTime() - start;
+    long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+    // Then
+    assertEquals(0, allocated / CALLS, () -> String.format(
+        "cached getattr: %d bytes allocated per call, %d ns per call", allocated / CALLS,
+        elapsedNanos / CALLS));
+    assertTrue((fileStat.st_mode.intValue() & FileStat.S_IFDIR) != 0);
+  }
+
+  private static void callGetattr(DicomFuse dicomFuse, FileStat fileStat) {
+    for (int i = 0; i < CALLS; i++) {
+      if (dicomFuse.getattr(PATHS[i & (PATHS.length - 1)], fileStat) != 0) {
+        throw new AssertionError("getattr failed - " + PATHS[i & (PATHS.length - 1)]);
+      }
+    }
+  }
+}
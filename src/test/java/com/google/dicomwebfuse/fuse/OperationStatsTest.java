@@ -0,0 +1,90 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.fuse.OperationStats.Operation;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class OperationStatsTest {
+
+  @Test
+  void testShouldCountSmallLatenciesInOwnBuckets() {
+    for (int micros = 0; micros < 8; micros++) {
+      assertEquals(micros, OperationStats.getBucket(micros));
+      assertEquals(micros, OperationStats.getBucketLimit(micros));
+    }
+    // from 8 microseconds a bucket is a quarter of a power of two
+    assertEquals(8, OperationStats.getBucket(8));
+    assertEquals(8, OperationStats.getBucket(9));
+    assertEquals(9, OperationStats.getBucket(10));
+    assertEquals(9, OperationStats.getBucketLimit(8));
+    assertEquals(11, OperationStats.getBucketLimit(9));
+  }
+
+  @Test
+  void testShouldKeepLatencyWithinLimitOfBucket() {
+    long[] latencies = {1, 15, 16, 100, 1023, 1024, 65_535, 1_000_000, Long.MAX_VALUE};
+    for (long micros : latencies) {
+      int bucket = OperationStats.getBucket(micros);
+      long limit = OperationStats.getBucketLimit(bucket);
+      assertTrue(micros <= limit, micros + " above limit " + limit);
+      assertTrue(bucket == 0 || OperationStats.getBucketLimit(bucket - 1) < micros,
+          micros + " fits the previous bucket");
+      assertTrue(limit - micros <= micros / 4, micros + " too far from limit " + limit);
+    }
+  }
+
+  @Test
+  void testShouldMapBucketLimitToSameBucket() {
+    for (int bucket = 0; bucket < 248; bucket++) {
+      assertEquals(bucket, OperationStats.getBucket(OperationStats.getBucketLimit(bucket)));
+      assertEquals(bucket, OperationStats.getBucket(OperationStats.getBucketLimit(bucket - 1) + 1));
+    }
+  }
+
+  @Test
+  void testShouldAppendPercentilesOfRecordedLatencies() {
+    // Given
+    OperationStats operationStats = new OperationStats();
+    for (int i = 0; i < 80; i++) {
+      operationStats.record(Operation.READ, startedBefore(100));
+    }
+    for (int i = 0; i < 20; i++) {
+      operationStats.record(Operation.READ, startedBefore(10_000));
+    }
+    assertEquals(-1, operationStats.record(Operation.OPEN, startedBefore(800), -1));
+    // When
+    StringBuilder stringBuilder = new StringBuilder();
+    operationStats.appendStats(stringBuilder);
+    // Then
+    // 100 is counted in the bucket of 96-111, 800 in 768-895 and 10000 in 8192-10239
+    assertEquals("op.open.count 1\n"
+        + "op.open.p50_us 895\n"
+        + "op.open.p90_us 895\n"
+        + "op.open.p99_us 895\n"
+        + "op.read.count 100\n"
+        + "op.read.p50_us 111\n"
+        + "op.read.p90_us 10239\n"
+        + "op.read.p99_us 10239\n", stringBuilder.toString());
+  }
+
+  private static long startedBefore(long micros) {
+    return System.nanoTime() - TimeUnit.MICROSECONDS.toNanos(micros);
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import static org.mockito.ArgumentMatchers.any;
+
+import com.google.dicomwebfuse.dao.DownloadListener;
+import com.google.dicomwebfuse.dao.FuseDao;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.fuse.cacher.DownloadCacher;
+import com.google.dicomwebfuse.fuse.cacher.DownloadedFile;
+import com.google.dicomwebfuse.parser.Arguments;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+/**
+ * Compares the allocation rate and throughput of reading a cached instance with heap arrays
+ * against the pooled direct buffer reads. The instance is cached by {@link DownloadCacher} from a
+ * mocked DAO. It's not run by default, use "mvn test -Dtest=ReadInstanceBenchmark".
+ */
+class ReadInstanceBenchmark {
+
+  private static final int FILE_SIZE = 64 * 1024 * 1024; // in bytes
+  private static final int READ_SIZE = 128 * 1024; // in bytes
+  private static final int PASSES = 20;
+  private Path path;
+  private Pointer fuseBuffer;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    path = Files.createTempFile("benchmark-", ".dcm");
+    byte[] data = new byte[FILE_SIZE];
+    new Random(0).nextBytes(data);
+    Files.write(path, data);
+    fuseBuffer = Pointer.wrap(Runtime.getSystemRuntime(), ByteBuffer.allocateDirect(READ_SIZE));
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    Files.delete(path);
+  }
+
+  @Test
+  void benchmarkReadInstance() throws Exception {
+    // Given
+    DicomPath dicomPath = new DicomPath.Builder(DicomPathLevel.INSTANCE).build();
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Mockito.doAnswer(invocation -> {
+      QueryBuilder queryBuilder = invocation.getArgument(0);
+      DownloadListener downloadListener = queryBuilder.getDownloadListener();
+      downloadListener.onStart(FILE_SIZE);
+      Files.copy(path, queryBuilder.getInstanceDataPath(), StandardCopyOption.REPLACE_EXISTING);
+      downloadListener.onProgress(FILE_SIZE);
+      return null;
+    }).when(fuseDao).downloadInstance(any());
+    Arguments arguments = new Arguments();
+    arguments.cloudConf = new CloudConf("test", "test", "test", "test");
+    Parameters parameters = new Parameters(fuseDao, arguments,
+        Platform.getNativePlatform().getOS());
+    DownloadCacher downloadCacher = new DownloadCacher(parameters);
+    DownloadedFile downloadedFile = downloadCacher.getFile(dicomPath);
+    downloadedFile.awaitCompletion();
+
+    // When
+    Result heapResult;
+    try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+      heapResult = measure("heap byte[]", offset -> {
+        byte[] buffer = new byte[READ_SIZE];
+        int length = fileChannel.read(ByteBuffer.wrap(buffer), offset);
+        fuseBuffer.put(0, buffer, 0, length);
+        return length;
+      });
+    }
+    Result pooledResult;
+    try (FileHandle fileHandle = new FileHandle(dicomPath, downloadedFile)) {
+      pooledResult = measure("pooled direct", offset ->
+          fileHandle.read(fuseBuffer, READ_SIZE, offset));
+    }
+    downloadCacher.removeAll();
+
+    // Then
+    assertTrue(pooledResult.bytesAllocatedPerRead < heapResult.bytesAllocatedPerRead,
+        () -> heapResult + ", " + pooledResult);
+  }
+
+  private Result measure(String name, Reader reader) throws IOException {
+    com.sun.management.ThreadMXBean threadMXBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    readFile(reader); // warm up
+    long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+    long start = System.nanoTime();
+    long reads = 0;
+    for (int i = 0; i < PASSES; i++) {
+      reads += readFile(reader);
+    }
+    long elapsedNanos = System.nanoTime() - start;
+    long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    return new Result(name, allocated / reads,
+        (double) FILE_SIZE * PASSES / (1024 * 1024) / (elapsedNanos / 1e9));
+  }
+
+  private long readFile(Reader reader) throws IOException {
+    long reads = 0;
+    for (long offset = 0; offset < FILE_SIZE; offset += READ_SIZE) {
+      assertEquals(READ_SIZE, reader.read(offset));
+      reads++;
+    }
+    return reads;
+  }
+
+  private interface Reader {
+
+    int read(long offset) throws IOException;
+  }
+
+  private static class Result {
+
+    private final String name;
+    private final long bytesAllocatedPerRead;
+    private final double megabytesPerSecond;
+
+    private Result(String name, long bytesAllocatedPerRead, double megabytesPerSecond) {
+      this.name = name;
+      this.bytesAllocatedPerRead = bytesAllocatedPerRead;
+      this.megabytesPerSecond = megabytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %d bytes allocated per read, %.1f MB/s", name,
+          bytesAllocatedPerRead, megabytesPerSecond);
+    }
+  }
+}
@@ -0,0 +1,125 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static com.google.dicomwebfuse.encoder.TarEncoder.BLOCK_SIZE;
+import static com.google.dicomwebfuse.encoder.TarEncoder.END_OF_ARCHIVE_SIZE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.dicomwebfuse.encoder.TarEncoder;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.cacher.ArchiveStream.Member;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+class ArchiveStreamTest {
+
+  private static final long MODIFICATION_TIME = 1556668800;
+  // smaller than the blocks, so the reads cross the headers, the data and the padding
+  private static final int READ_SIZE = 300;
+
+  @Test
+  void testReadShouldStreamMembersWithPaddingAndTrailer(@TempDir Path tempDir)
+      throws IOException, DicomFuseException {
+    // Given
+    byte[] firstData = createData(3, 1);
+    byte[] secondData = createData(BLOCK_SIZE + 88, 2);
+    DicomPath firstPath = createInstancePath("1.1");
+    DicomPath secondPath = createInstancePath("1.2");
+    DownloadCacher downloadCacher = Mockito.mock(DownloadCacher.class);
+    Mockito.when(downloadCacher.getFile(firstPath))
+        .thenReturn(createFile(tempDir.resolve("1.1.dcm"), firstData));
+    Mockito.when(downloadCacher.getFile(secondPath))
+        .thenReturn(createFile(tempDir.resolve("1.2.dcm"), secondData));
+    ArchiveStream archiveStream = new ArchiveStream(downloadCacher, Arrays.asList(
+        new Member("1.1.dcm", firstPath, MODIFICATION_TIME),
+        new Member("1.2.dcm", secondPath, MODIFICATION_TIME)));
+    // When
+    byte[] archive;
+    try {
+      archive = readAll(archiveStream);
+    } finally {
+      archiveStream.close();
+    }
+    // Then
+    long secondHeaderOffset = BLOCK_SIZE + TarEncoder.getPaddedSize(firstData.length);
+    long end = secondHeaderOffset + BLOCK_SIZE + TarEncoder.getPaddedSize(secondData.length);
+    assertEquals(end + END_OF_ARCHIVE_SIZE, archive.length);
+    assertArrayEquals(TarEncoder.encodeHeader("1.1.dcm", firstData.length, MODIFICATION_TIME),
+        Arrays.copyOfRange(archive, 0, BLOCK_SIZE));
+    assertArrayEquals(firstData,
+        Arrays.copyOfRange(archive, BLOCK_SIZE, BLOCK_SIZE + firstData.length));
+    assertZeros(archive, BLOCK_SIZE + firstData.length, (int) secondHeaderOffset);
+    assertArrayEquals(TarEncoder.encodeHeader("1.2.dcm", secondData.length, MODIFICATION_TIME),
+        Arrays.copyOfRange(archive, (int) secondHeaderOffset,
+            (int) secondHeaderOffset + BLOCK_SIZE));
+    int secondDataOffset = (int) secondHeaderOffset + BLOCK_SIZE;
+    assertArrayEquals(secondData,
+        Arrays.copyOfRange(archive, secondDataOffset, secondDataOffset + secondData.length));
+    assertZeros(archive, secondDataOffset + secondData.length, archive.length);
+  }
+
+  private static byte[] readAll(ArchiveStream archiveStream) throws IOException {
+    ByteBuffer archive = ByteBuffer.allocate(16 * BLOCK_SIZE);
+    ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+    long offset = 0;
+    int readBytes;
+    while ((readBytes = archiveStream.read(buffer, offset)) > 0) {
+      buffer.flip();
+      archive.put(buffer);
+      buffer.clear();
+      offset += readBytes;
+    }
+    return Arrays.copyOf(archive.array(), archive.position());
+  }
+
+  private static void assertZeros(byte[] archive, int from, int to) {
+    assertArrayEquals(new byte[to - from], Arrays.copyOfRange(archive, from, to));
+  }
+
+  private static byte[] createData(int size, long seed) {
+    byte[] data = new byte[size];
+    new Random(seed).nextBytes(data);
+    return data;
+  }
+
+  private static DownloadedFile createFile(Path path, byte[] data) throws IOException {
+    Files.write(path, data);
+    DownloadedFile downloadedFile = new DownloadedFile(path);
+    downloadedFile.onStart(data.length);
+    downloadedFile.onProgress(data.length);
+    downloadedFile.complete();
+    return downloadedFile;
+  }
+
+  private static DicomPath createInstancePath(String sopInstanceUID) {
+    return new DicomPath.Builder(DicomPathLevel.INSTANCE)
+        .dicomStoreId("store")
+        .studyInstanceUID("1")
+        .seriesInstanceUID("1.0")
+        .sopInstanceUID(sopInstanceUID)
+        .build();
+  }
+}